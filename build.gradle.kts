@@ -4,6 +4,7 @@ plugins {
     java
     application
     id("net.ltgt.errorprone") version "0.8.1"
+    id("me.champeau.gradle.jmh") version "0.5.0"
 }
 
 java {
@@ -45,6 +46,17 @@ tasks {
     }
 }
 
+// Benchmarks live in src/jmh and run with ./gradlew jmh
+jmh {
+    jmhVersion = "1.23"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // DAOFactory refuses bigger heaps
+    jvmArgs = listOf("-Xmx128m")
+    resultFormat = "JSON"
+}
+
 application {
     // Define the main class for the application
     mainClassName = "ru.mail.polis.Client"
@@ -63,4 +75,14 @@ tasks.withType<JavaCompile> {
 // Error prone options
 tasks.named<JavaCompile>("compileTestJava") {
     options.errorprone.isEnabled.set(false)
+}
+
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.errorprone.isEnabled.set(false)
+}
+
+// The code JMH generates for the benchmarks is not lint-clean
+tasks.named<JavaCompile>("jmhCompileGeneratedClasses") {
+    options.errorprone.isEnabled.set(false)
+    options.compilerArgs.removeAll(listOf("-Werror", "-Xlint:all"))
 }
\ No newline at end of file
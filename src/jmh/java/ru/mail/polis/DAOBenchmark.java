@@ -0,0 +1,89 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Base of the benchmarks running against a {@link DAO} in a temporary directory.
+ *
+ * <p>Keys and values are sized like the ones of {@code TestBase}. Keys are zero-padded decimal
+ * indices, so that they sort like the indices as long as they fit, and values are taken from a pool of random ones.
+ */
+public abstract class DAOBenchmark {
+    private static final int VALUES = 256;
+
+    @Param("16")
+    public int keyLength;
+
+    @Param("1024")
+    public int valueLength;
+
+    DAO dao;
+    private File data;
+    private ByteBuffer[] values;
+
+    /**
+     * Opens an empty storage and lets the benchmark fill it.
+     */
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        values = new ByteBuffer[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            final byte[] value = new byte[valueLength];
+            ThreadLocalRandom.current().nextBytes(value);
+            values[i] = ByteBuffer.wrap(value);
+        }
+        data = java.nio.file.Files.createTempDirectory("dao-benchmark").toFile();
+        dao = DAOFactory.create(data);
+        fill();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    /**
+     * Puts what the benchmark reads, nothing by default.
+     */
+    void fill() throws IOException {
+        // Empty
+    }
+
+    /**
+     * Reopens the storage, so that the reads go to the persisted tables.
+     */
+    void reopen() throws IOException {
+        dao.close();
+        dao = DAOFactory.create(data);
+    }
+
+    @NotNull
+    ByteBuffer key(final long index) {
+        final byte[] result = new byte[keyLength];
+        long rest = index;
+        for (int i = keyLength - 1; i >= 0; i--) {
+            result[i] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        }
+        return ByteBuffer.wrap(result);
+    }
+
+    @NotNull
+    ByteBuffer value(final long index) {
+        return values[(int) (index % VALUES)].duplicate();
+    }
+
+    static long random(final long bound) {
+        return ThreadLocalRandom.current().nextLong(bound);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point reads and seeks against persisted records. The records have even indices,
+ * so odd ones miss between existing keys rather than outside of the key range.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadBenchmark extends DAOBenchmark {
+    @Param("100000")
+    public long records;
+
+    @Override
+    void fill() throws IOException {
+        for (long i = 0; i < records; i++) {
+            dao.upsert(key(2 * i), value(i));
+        }
+        reopen();
+    }
+
+    @Benchmark
+    public ByteBuffer hitGet() throws IOException {
+        return dao.get(key(2 * random(records)));
+    }
+
+    /**
+     * Looks up a key between the existing ones, which Bloom filters mostly rule out.
+     */
+    @Benchmark
+    public boolean missGet() throws IOException {
+        try {
+            dao.get(key(2 * random(records) + 1));
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Positions an iterator at a random key, which exists half of the time, and reads the first record.
+     */
+    @Benchmark
+    public Record seek() throws IOException {
+        // Up to the last record
+        return dao.iterator(key(random(2 * records - 1))).next();
+    }
+}
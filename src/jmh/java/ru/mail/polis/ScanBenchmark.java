@@ -0,0 +1,56 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans of all the persisted records and of short ranges starting at random keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class ScanBenchmark extends DAOBenchmark {
+    @Param("100000")
+    public long records;
+
+    @Param("100")
+    public long rangeLength;
+
+    @Override
+    void fill() throws IOException {
+        for (long i = 0; i < records; i++) {
+            dao.upsert(key(i), value(i));
+        }
+        reopen();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void fullScan(final Blackhole blackhole) throws IOException {
+        consume(dao.iterator(key(0)), blackhole);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void rangeScan(final Blackhole blackhole) throws IOException {
+        final long from = random(records - rangeLength + 1);
+        consume(dao.range(key(from), key(from + rangeLength)), blackhole);
+    }
+
+    private static void consume(
+            final Iterator<Record> records,
+            final Blackhole blackhole) {
+        while (records.hasNext()) {
+            blackhole.consume(records.next());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upserts in key order and in random order, the latter mostly overwriting keys
+ * once the key space is filled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WriteBenchmark extends DAOBenchmark {
+    @Param("1000000")
+    public long keySpace;
+
+    private long next;
+
+    @Benchmark
+    public void sequentialUpsert() throws IOException {
+        final long index = next++;
+        dao.upsert(key(index), value(index));
+    }
+
+    @Benchmark
+    public void randomUpsert() throws IOException {
+        final long index = random(keySpace);
+        dao.upsert(key(index), value(index));
+    }
+}
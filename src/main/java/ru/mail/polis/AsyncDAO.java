@@ -0,0 +1,271 @@
+package ru.mail.polis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking facade of a {@link DAO} for callers which must not wait for disk I/O, e.g. event loops.
+ *
+ * <p>Operations run on a dedicated pool of I/O threads with a bounded queue. An operation finding
+ * the queue full is not queued, its future fails with {@link RejectedExecutionException} right away,
+ * so that the caller may back off instead of piling up work. Reads the storage resolves in memory
+ * by {@link DAO#tryGet(ByteBuffer)} complete in the calling thread without a hop to the pool.
+ *
+ * <p>Futures are completed by the I/O threads, so dependent stages should be run asynchronously
+ * on the caller's own executor. Operations not waited for may be applied in any order.
+ * Closing the facade leaves the storage open.
+ */
+public final class AsyncDAO implements Closeable {
+    private final DAO dao;
+    private final ExecutorService executor;
+
+    /**
+     * Runs operations on the storage in {@code threads} threads queueing up to {@code queueCapacity} of them.
+     */
+    public AsyncDAO(
+            @NotNull final DAO dao,
+            final int threads,
+            final int queueCapacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Non-positive thread count: " + threads);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Non-positive queue capacity: " + queueCapacity);
+        }
+        this.dao = dao;
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("dao-io-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Same as {@link DAO#get(ByteBuffer)}, the future fails with {@link NoSuchElementException} if no such record.
+     */
+    @NotNull
+    public CompletableFuture<ByteBuffer> getAsync(@NotNull final ByteBuffer key) {
+        try {
+            final ByteBuffer value = dao.tryGet(key);
+            if (value != null) {
+                return CompletableFuture.completedFuture(value);
+            }
+        } catch (NoSuchElementException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return submit(() -> dao.get(key));
+    }
+
+    /**
+     * Same as {@link DAO#upsert(ByteBuffer, ByteBuffer)}.
+     */
+    @NotNull
+    public CompletableFuture<Void> upsertAsync(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return submit(() -> {
+            dao.upsert(key, value);
+            return null;
+        });
+    }
+
+    /**
+     * Same as {@link DAO#remove(ByteBuffer)}.
+     */
+    @NotNull
+    public CompletableFuture<Void> removeAsync(@NotNull final ByteBuffer key) {
+        return submit(() -> {
+            dao.remove(key);
+            return null;
+        });
+    }
+
+    /**
+     * Publishes the records of {@link DAO#range(ByteBuffer, ByteBuffer)} in batches of up to {@code batchSize}.
+     *
+     * <p>Every subscriber gets a scan of its own, which reads a batch only once the subscriber
+     * has requested it, so a slow subscriber slows the scan down rather than makes it buffer.
+     * The batches are read and published by the I/O threads. If the queue is full when
+     * the subscriber requests more, the subscriber gets {@link RejectedExecutionException}.
+     */
+    @NotNull
+    public Flow.Publisher<List<Record>> rangeAsync(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Non-positive batch size: " + batchSize);
+        }
+        return subscriber -> subscriber.onSubscribe(new Scan(from, to, batchSize, subscriber));
+    }
+
+    /**
+     * Completes the queued operations and stops the I/O threads, the storage is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting for the queued operations
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while completing the queued operations");
+        }
+    }
+
+    @NotNull
+    private <T> CompletableFuture<T> submit(@NotNull final Operation<T> operation) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(operation.run());
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Blocking operation on the storage.
+     */
+    private interface Operation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Reads batches while there is demand for them. Drains never overlap: whoever makes
+     * {@link #pending} non-zero schedules a drain, which runs until it has seen every signal.
+     */
+    private final class Scan implements Flow.Subscription, Runnable {
+        private final ByteBuffer from;
+        private final ByteBuffer to;
+        private final int batchSize;
+        private final Flow.Subscriber<? super List<Record>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException illegalRequest;
+        // Touched by drains only
+        private Iterator<Record> records;
+        private boolean done;
+
+        Scan(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to,
+                final int batchSize,
+                @NotNull final Flow.Subscriber<? super List<Record>> subscriber) {
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                illegalRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, more) -> current + more < 0 ? Long.MAX_VALUE : current + more);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            int signals = 1;
+            do {
+                drain();
+                signals = pending.addAndGet(-signals);
+            } while (signals != 0);
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() != 0) {
+                // The running drain sees the signal
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // No drain is going to run, so nobody else signals the subscriber
+                cancelled = true;
+                done = true;
+                subscriber.onError(e);
+            }
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                done = true;
+                records = null;
+                return;
+            }
+            if (illegalRequest != null) {
+                done = true;
+                subscriber.onError(illegalRequest);
+                return;
+            }
+            try {
+                if (records == null) {
+                    records = dao.range(from, to);
+                }
+                while (demand.get() > 0 && !cancelled) {
+                    final List<Record> batch = new ArrayList<>(batchSize);
+                    while (batch.size() < batchSize && records.hasNext()) {
+                        batch.add(records.next());
+                    }
+                    if (!batch.isEmpty()) {
+                        demand.decrementAndGet();
+                        subscriber.onNext(batch);
+                    }
+                    if (!records.hasNext()) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                done = true;
+                subscriber.onError(e);
+            }
+        }
+    }
+}
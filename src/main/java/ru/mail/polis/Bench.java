@@ -0,0 +1,344 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * YCSB-style workload driver: loads the records, then runs a {@link Workload} for a while
+ * and reports the throughput and the latency percentiles of every operation.
+ *
+ * <p>Keys are named after hashes of the insertion indices, so inserts are spread over the key space,
+ * and values are 1000 bytes long, like YCSB's ten 100-byte fields.
+ */
+final class Bench {
+    private static final Logger log = LoggerFactory.getLogger(Bench.class);
+    private static final int VALUE_LENGTH = 1000;
+    private static final int MAX_SCAN_LENGTH = 100;
+    private static final String USAGE = "Usage: bench [--workload A|B|C|D|E|F]"
+            + " [--distribution uniform|zipfian|latest] [--records N] [--threads N] [--duration SECONDS]";
+
+    private final Workload workload;
+    private final Workload.Distribution distribution;
+    private final long records;
+    private final int threads;
+    private final long durationMillis;
+    private final Zipfian zipfian;
+    // Next insertion index, readers may pick a key being inserted and miss it
+    private final AtomicLong inserted;
+
+    Bench(
+            @NotNull final Workload workload,
+            @NotNull final Workload.Distribution distribution,
+            final long records,
+            final int threads,
+            final long durationMillis) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("Non-positive record count: " + records);
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Non-positive thread count: " + threads);
+        }
+        if (durationMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive duration: " + durationMillis);
+        }
+        this.workload = workload;
+        this.distribution = distribution;
+        this.records = records;
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+        this.zipfian = new Zipfian(records);
+        this.inserted = new AtomicLong(records);
+    }
+
+    /**
+     * Runs the benchmark against a storage in a temporary directory.
+     */
+    static void main(@NotNull final String[] args) throws IOException, InterruptedException {
+        final Bench bench = parse(args);
+        final File data = java.nio.file.Files.createTempDirectory("bench").toFile();
+        log.info("Storing data in {}", data.getAbsolutePath());
+        try (DAO dao = DAOFactory.create(data)) {
+            bench.load(dao);
+            bench.run(dao).report();
+        } finally {
+            Files.recursiveDelete(data);
+        }
+    }
+
+    /**
+     * Parses {@code --name value} options, the workload and its defaults being
+     * 100 000 records, a single thread and a minute.
+     */
+    @NotNull
+    static Bench parse(@NotNull final String[] args) {
+        Workload workload = Workload.A;
+        Workload.Distribution distribution = null;
+        long records = 100_000L;
+        int threads = 1;
+        long duration = 60L;
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                final String value = args[i + 1];
+                switch (args[i]) {
+                    case "--workload":
+                        workload = Workload.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--distribution":
+                        distribution = Workload.Distribution.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--records":
+                        records = Long.parseLong(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        duration = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(USAGE);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(USAGE, e);
+        }
+        return new Bench(
+                workload,
+                distribution == null ? workload.distribution() : distribution,
+                records,
+                threads,
+                TimeUnit.SECONDS.toMillis(duration));
+    }
+
+    /**
+     * Inserts the initial records.
+     */
+    void load(@NotNull final DAO dao) throws IOException, InterruptedException {
+        final List<Callable<Void>> loaders = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            loaders.add(() -> {
+                final ByteBuffer value = randomValue();
+                for (long index = first; index < records; index += threads) {
+                    dao.upsert(key(index), value);
+                }
+                return null;
+            });
+        }
+        final long start = System.nanoTime();
+        runAll(loaders);
+        final long elapsed = System.nanoTime() - start;
+        log.info(
+                "Loaded {} records at {} records/s",
+                records,
+                String.format(Locale.ROOT, "%.0f", records * 1e9 / elapsed));
+    }
+
+    /**
+     * Runs the workload for the duration.
+     */
+    @NotNull
+    Result run(@NotNull final DAO dao) throws IOException, InterruptedException {
+        log.info(
+                "Running workload {} with {} keys in {} threads for {} ms",
+                workload,
+                distribution.toString().toLowerCase(Locale.ROOT),
+                threads,
+                durationMillis);
+        final List<Map<Workload.Operation, LatencyHistogram>> histograms = Collections.synchronizedList(
+                new ArrayList<>());
+        final List<Callable<Void>> workers = new ArrayList<>(threads);
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        for (int t = 0; t < threads; t++) {
+            workers.add(() -> {
+                histograms.add(work(dao, deadline));
+                return null;
+            });
+        }
+        runAll(workers);
+        final long elapsed = System.nanoTime() - start;
+
+        final Map<Workload.Operation, LatencyHistogram> merged = new EnumMap<>(Workload.Operation.class);
+        for (final Map<Workload.Operation, LatencyHistogram> thread : histograms) {
+            thread.forEach((operation, histogram) ->
+                    merged.computeIfAbsent(operation, o -> new LatencyHistogram()).add(histogram));
+        }
+        return new Result(merged, elapsed);
+    }
+
+    @NotNull
+    private Map<Workload.Operation, LatencyHistogram> work(
+            @NotNull final DAO dao,
+            final long deadline) throws IOException {
+        final Map<Workload.Operation, LatencyHistogram> result = new EnumMap<>(Workload.Operation.class);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final ByteBuffer value = randomValue();
+        long now = System.nanoTime();
+        while (now < deadline) {
+            final Workload.Operation operation = workload.operation(random.nextDouble());
+            switch (operation) {
+                case READ:
+                    read(dao, key(choose()));
+                    break;
+                case UPDATE:
+                    dao.upsert(key(choose()), value);
+                    break;
+                case INSERT:
+                    dao.upsert(key(inserted.getAndIncrement()), value);
+                    break;
+                case SCAN:
+                    scan(dao, key(choose()), 1 + random.nextInt(MAX_SCAN_LENGTH));
+                    break;
+                case READ_MODIFY_WRITE:
+                    final ByteBuffer key = key(choose());
+                    read(dao, key);
+                    dao.upsert(key, value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported operation: " + operation);
+            }
+            final long finished = System.nanoTime();
+            result.computeIfAbsent(operation, o -> new LatencyHistogram()).record(finished - now);
+            now = finished;
+        }
+        return result;
+    }
+
+    /**
+     * Picks the index of an inserted key according to the distribution.
+     */
+    private long choose() {
+        final long count = inserted.get();
+        switch (distribution) {
+            case UNIFORM:
+                return ThreadLocalRandom.current().nextLong(count);
+            case ZIPFIAN:
+                return zipfian.nextScrambled();
+            case LATEST:
+                return Math.max(0L, count - 1 - zipfian.next());
+            default:
+                throw new IllegalStateException("Unsupported distribution: " + distribution);
+        }
+    }
+
+    private static void read(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer key) throws IOException {
+        try {
+            dao.get(key);
+        } catch (NoSuchElementException e) {
+            // Being inserted
+        }
+    }
+
+    private static void scan(
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer from,
+            final int length) throws IOException {
+        final Iterator<Record> records = dao.iterator(from);
+        for (int i = 0; i < length && records.hasNext(); i++) {
+            records.next();
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer key(final long index) {
+        final String key = "user" + Long.toUnsignedString(Zipfian.fnv(index));
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NotNull
+    private static ByteBuffer randomValue() {
+        final byte[] result = new byte[VALUE_LENGTH];
+        ThreadLocalRandom.current().nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+
+    private void runAll(@NotNull final List<Callable<Void>> tasks) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (final Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Benchmark failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Latencies of the operations of a run.
+     */
+    static final class Result {
+        private final Map<Workload.Operation, LatencyHistogram> histograms;
+        private final long elapsedNanos;
+
+        Result(
+                @NotNull final Map<Workload.Operation, LatencyHistogram> histograms,
+                final long elapsedNanos) {
+            this.histograms = histograms;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Number of the operations done, zero for the ones the workload does not do.
+         */
+        long count(@NotNull final Workload.Operation operation) {
+            final LatencyHistogram histogram = histograms.get(operation);
+            return histogram == null ? 0L : histogram.count();
+        }
+
+        void report() {
+            long total = 0L;
+            for (final Map.Entry<Workload.Operation, LatencyHistogram> entry : histograms.entrySet()) {
+                final LatencyHistogram histogram = entry.getValue();
+                total += histogram.count();
+                log.info(String.format(
+                        Locale.ROOT,
+                        "%s: %d ops, %.0f ops/s, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                        entry.getKey(),
+                        histogram.count(),
+                        histogram.count() * 1e9 / elapsedNanos,
+                        micros(histogram.percentile(0.5)),
+                        micros(histogram.percentile(0.99)),
+                        micros(histogram.percentile(0.999)),
+                        micros(histogram.max())));
+            }
+            log.info(String.format(Locale.ROOT, "Overall: %d ops, %.0f ops/s", total, total * 1e9 / elapsedNanos));
+        }
+
+        private static double micros(final long nanos) {
+            return nanos / 1e3;
+        }
+    }
+}
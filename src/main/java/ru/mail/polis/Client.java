@@ -20,6 +20,9 @@ import com.google.common.base.Splitter;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+import ru.mail.polis.medalexey.Trace;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -27,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -38,6 +42,7 @@ import java.util.NoSuchElementException;
 public final class Client {
     private static final Logger log = LoggerFactory.getLogger(Client.class);
     private static final String DATA = "data";
+    private static final String TRACE = "--trace";
 
     private Client() {
         // Not instantiable
@@ -56,9 +61,15 @@ public final class Client {
     }
 
     /**
-     * Provides console to temporary DB.
+     * Provides console to temporary DB or, given {@code bench} and its options, runs {@link Bench}.
+     * Given {@code --trace}, every read is traced for the {@code traces} command.
      */
-    public static void main(final String[] args) throws IOException {
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && "bench".equals(args[0])) {
+            Bench.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         final File data = new File(DATA);
         if (!data.exists() && !data.mkdir()) {
             throw new IOException("Can't create directory: " + data);
@@ -68,7 +79,10 @@ public final class Client {
         }
 
         log.info("Storing data in {}", data.getAbsolutePath());
-        final DAO dao = DAOFactory.create(data);
+        final boolean tracing = Arrays.asList(args).contains(TRACE);
+        final DAO dao = DAOFactory.create(
+                data,
+                tracing ? Config.builder().tracing(1.0, Long.MAX_VALUE).build() : Config.defaults());
         final String pkg = dao.getClass().getPackage().toString();
         log.info(
                 "Welcome to " + pkg.substring(pkg.lastIndexOf('.') + 1) + " Key-Value DAO!"
@@ -76,6 +90,7 @@ public final class Client {
                         + "\n\tget <key>"
                         + "\n\tput <key> <value>"
                         + "\n\tremove <key>"
+                        + "\n\ttraces"
                         + "\n\tquit");
 
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
@@ -87,6 +102,14 @@ public final class Client {
 
                 final Iterator<String> tokens = Splitter.on(' ').split(line).iterator();
                 final String cmd = tokens.next();
+                if ("traces".equals(cmd)) {
+                    if (tracing) {
+                        dumpTraces(dao);
+                    } else {
+                        log.warn("Tracing is off, restart with {}", TRACE);
+                    }
+                    continue;
+                }
                 final ByteBuffer key = ByteBuffer.wrap(tokens.next().getBytes(StandardCharsets.UTF_8));
 
                 switch (cmd) {
@@ -117,4 +140,14 @@ public final class Client {
             dao.close();
         }
     }
+
+    private static void dumpTraces(@NotNull final DAO dao) {
+        if (!(dao instanceof LsmDAO)) {
+            log.warn("Tracing is not supported");
+            return;
+        }
+        for (final Trace trace : ((LsmDAO) dao).traces()) {
+            log.info(trace.toString());
+        }
+    }
 }
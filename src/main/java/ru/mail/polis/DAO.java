@@ -22,7 +22,13 @@ import org.jetbrains.annotations.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -64,6 +70,50 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s with keys starting with given "prefix"
+     * in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
+     * N.B. The default implementation stops a scan from "prefix" at the first key without it.
+     */
+    @NotNull
+    default Iterator<Record> prefix(@NotNull ByteBuffer prefix) throws IOException {
+        return Iters.takeWhile(iterator(prefix), record -> record.hasPrefix(prefix));
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
+     * or at the greatest key if "from" is null in <b>descending</b> order according to
+     * {@link Record#compareTo(Record)}.
+     * N.B. The default implementation does not support descending iteration.
+     *
+     * @throws UnsupportedOperationException if the storage can't iterate in descending order
+     */
+    @NotNull
+    default Iterator<Record> descendingIterator(@Nullable ByteBuffer from) throws IOException {
+        throw new UnsupportedOperationException("Descending iteration is not supported");
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
+     * or at the greatest key if "from" is null down to given "to" key (exclusive) in <b>descending</b> order
+     * according to {@link Record#compareTo(Record)}.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @Nullable ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to == null) {
+            return descendingIterator(from);
+        }
+
+        if (from != null && from.compareTo(to) < 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = new Record(to, ByteBuffer.allocate(0));
+        return Iters.until(descendingIterator(from), bound, Comparator.reverseOrder());
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -84,6 +134,38 @@ public interface DAO extends Closeable {
         }
     }
 
+    /**
+     * Obtains value corresponding to given key if that takes no disk I/O, e.g. if the key
+     * is resolved by the in-memory part of the storage.
+     * N.B. The default implementation never finds out.
+     *
+     * @return the value or {@code null} if it takes I/O to find out
+     * @throws NoSuchElementException if it is known without I/O that there is no such record
+     */
+    @Nullable
+    default ByteBuffer tryGet(@NotNull ByteBuffer key) throws NoSuchElementException {
+        return null;
+    }
+
+    /**
+     * Obtains values corresponding to given keys.
+     * N.B. The default implementation looks the keys up one by one.
+     *
+     * @return values by keys, keys without records are absent
+     */
+    @NotNull
+    default Map<ByteBuffer, ByteBuffer> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            try {
+                result.put(key, get(key));
+            } catch (NoSuchElementException e) {
+                // Absent
+            }
+        }
+        return result;
+    }
+
     /**
      * Inserts or updates value by given key.
      */
@@ -95,4 +177,55 @@ public interface DAO extends Closeable {
      * Removes value by given key.
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Applies upserts and removals of the batch in order.
+     * N.B. The default implementation writes them one by one, so the batch is not atomic.
+     */
+    default void write(@NotNull WriteBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            if (value == null) {
+                remove(batch.key(i));
+            } else {
+                upsert(batch.key(i), value);
+            }
+        }
+    }
+
+    /**
+     * Takes a consistent read-only view of the current state, which must be closed after use.
+     * N.B. The default implementation does not support snapshots.
+     *
+     * @throws UnsupportedOperationException if the storage can't take snapshots
+     */
+    @NotNull
+    default Snapshot snapshot() throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
+    /**
+     * Takes the current statistics of the storage.
+     * N.B. The default implementation does not collect any.
+     *
+     * @throws UnsupportedOperationException if the storage does not collect statistics
+     */
+    @NotNull
+    default Stats stats() {
+        throw new UnsupportedOperationException("Statistics are not supported");
+    }
+
+    /**
+     * Removes values by keys starting at "from" key (inclusive) until given "to" key (exclusive).
+     * N.B. The default implementation removes the keys one by one.
+     */
+    default void removeRange(
+            @NotNull ByteBuffer from,
+            @NotNull ByteBuffer to) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        range(from, to).forEachRemaining(record -> keys.add(record.getKey()));
+        for (final ByteBuffer key : keys) {
+            remove(key);
+        }
+    }
 }
@@ -3,9 +3,12 @@ package ru.mail.polis;
 import com.google.common.base.Functions;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Utility methods for iterators.
@@ -38,7 +41,27 @@ public final class Iters {
     public static <E extends Comparable<E>> Iterator<E> until(
             @NotNull final Iterator<E> iter,
             @NotNull final E until) {
-        return new UntilIterator<>(iter, until);
+        return new UntilIterator<>(iter, until, Comparator.naturalOrder());
+    }
+
+    /**
+     * Stops at the first element not preceding {@code until} according to the comparator,
+     * e.g. a lower bound of a descending iterator with {@link Comparator#reverseOrder()}.
+     */
+    public static <E> Iterator<E> until(
+            @NotNull final Iterator<E> iter,
+            @NotNull final E until,
+            @NotNull final Comparator<? super E> comparator) {
+        return new UntilIterator<>(iter, until, comparator);
+    }
+
+    /**
+     * Stops at the first element not matching the predicate.
+     */
+    public static <E> Iterator<E> takeWhile(
+            @NotNull final Iterator<E> iter,
+            @NotNull final Predicate<? super E> predicate) {
+        return new TakeWhileIterator<>(iter, predicate);
     }
 
     public static <E> Iterator<E> collapseEquals(
@@ -51,23 +74,50 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
-    private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
+    /**
+     * Merges sorted sources into a single sorted iterator keeping one element per equivalence class.
+     * Among the elements equal according to the comparator the one from the source with the highest
+     * generation wins, the others are skipped.
+     *
+     * <p>The sources are kept in a binary heap by their current elements, so an element costs
+     * {@code O(log n)} comparisons for {@code n} sources and no allocations.
+     *
+     * @param sources sorted iterators without duplicates
+     * @param generations generation of every source, sources with equal elements must differ in generation
+     * @param comparator order of the sources
+     * @param dropped winning elements which are skipped instead of being returned, like tombstones
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<? extends E>> sources,
+            @NotNull final long[] generations,
+            @NotNull final Comparator<? super E> comparator,
+            @NotNull final Predicate<? super E> dropped) {
+        if (sources.size() != generations.length) {
+            throw new IllegalArgumentException("Expected " + sources.size() + " generations");
+        }
+        return new MergingIterator<>(sources, generations, comparator, dropped);
+    }
+
+    private static class UntilIterator<E> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
+        private final Comparator<? super E> comparator;
 
         private E next;
 
         UntilIterator(
                 @NotNull final Iterator<E> iter,
-                @NotNull final E until) {
+                @NotNull final E until,
+                @NotNull final Comparator<? super E> comparator) {
             this.iter = iter;
             this.until = until;
+            this.comparator = comparator;
             this.next = iter.hasNext() ? iter.next() : null;
         }
 
         @Override
         public boolean hasNext() {
-            return next != null && next.compareTo(until) < 0;
+            return next != null && comparator.compare(next, until) < 0;
         }
 
         @Override
@@ -80,6 +130,46 @@ public final class Iters {
         }
     }
 
+    private static class TakeWhileIterator<E> implements Iterator<E> {
+        private final Iterator<E> iter;
+        private final Predicate<? super E> predicate;
+
+        private E next;
+
+        TakeWhileIterator(
+                @NotNull final Iterator<E> iter,
+                @NotNull final Predicate<? super E> predicate) {
+            this.iter = iter;
+            this.predicate = predicate;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more elements");
+            }
+            final E result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            if (iter.hasNext()) {
+                final E candidate = iter.next();
+                if (predicate.test(candidate)) {
+                    next = candidate;
+                }
+            }
+        }
+    }
+
     private static class CollapseEqualsIterator<E> implements Iterator<E> {
         private final Iterator<E> iter;
         private final Function<E, ?> keyExtractor;
@@ -124,4 +214,119 @@ public final class Iters {
         }
     }
 
+    private static final class MergingIterator<E> implements Iterator<E> {
+        private final Iterator<? extends E>[] sources;
+        private final long[] generations;
+        private final Comparator<? super E> comparator;
+        private final Predicate<? super E> dropped;
+        private final Object[] heads;
+        // Indices of non-exhausted sources ordered by their heads
+        private final int[] heap;
+        private int size;
+
+        private E next;
+
+        @SuppressWarnings("unchecked")
+        MergingIterator(
+                @NotNull final List<? extends Iterator<? extends E>> sources,
+                @NotNull final long[] generations,
+                @NotNull final Comparator<? super E> comparator,
+                @NotNull final Predicate<? super E> dropped) {
+            this.sources = (Iterator<? extends E>[]) sources.toArray(new Iterator<?>[0]);
+            this.generations = generations.clone();
+            this.comparator = comparator;
+            this.dropped = dropped;
+            this.heads = new Object[this.sources.length];
+            this.heap = new int[this.sources.length];
+            for (int source = 0; source < this.sources.length; source++) {
+                if (this.sources[source].hasNext()) {
+                    heads[source] = this.sources[source].next();
+                    heap[size++] = source;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more elements");
+            }
+            final E result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (size > 0) {
+                final E winner = head(heap[0]);
+                pop();
+                // Older versions of the same element come next in the heap
+                while (size > 0 && comparator.compare(head(heap[0]), winner) == 0) {
+                    pop();
+                }
+                if (!dropped.test(winner)) {
+                    next = winner;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Moves the top source to its next element.
+         */
+        private void pop() {
+            final int source = heap[0];
+            if (sources[source].hasNext()) {
+                heads[source] = sources[source].next();
+            } else {
+                heads[source] = null;
+                heap[0] = heap[--size];
+            }
+            siftDown(0);
+        }
+
+        private void siftDown(final int from) {
+            int i = from;
+            while (true) {
+                final int left = 2 * i + 1;
+                if (left >= size) {
+                    return;
+                }
+                final int right = left + 1;
+                final int child = right < size && less(heap[right], heap[left]) ? right : left;
+                if (!less(heap[child], heap[i])) {
+                    return;
+                }
+                final int tmp = heap[i];
+                heap[i] = heap[child];
+                heap[child] = tmp;
+                i = child;
+            }
+        }
+
+        private boolean less(
+                final int a,
+                final int b) {
+            final int cmp = comparator.compare(head(a), head(b));
+            if (cmp != 0) {
+                return cmp < 0;
+            }
+            return generations[a] > generations[b];
+        }
+
+        @SuppressWarnings("unchecked")
+        private E head(final int source) {
+            return (E) heads[source];
+        }
+    }
 }
@@ -0,0 +1,160 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, e.g. latencies in nanoseconds, with a relative error
+ * of at most 1/64 in the manner of HdrHistogram.
+ *
+ * <p>Values below 128 are counted exactly, every power of two above is split into 64 equal
+ * buckets. Buckets are {@link LongAdder}s, so concurrent threads record to the same histogram
+ * without contending, while values recorded concurrently with a read may be partially counted.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values below are exact
+    private static final int EXACT = 2 * SUB_COUNT;
+    private static final int EXACT_BITS = SUB_BITS + 1;
+    private static final int BUCKETS = EXACT + (Long.SIZE - 1 - EXACT_BITS) * SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Counts the value, negative ones are counted as zero.
+     */
+    public void record(final long value) {
+        final long clamped = Math.max(0L, value);
+        counts[index(clamped)].increment();
+        max.accumulate(clamped);
+    }
+
+    /**
+     * Adds the values recorded by the other histogram.
+     */
+    public void add(@NotNull final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i].add(other.counts[i].sum());
+        }
+        max.accumulate(other.max());
+    }
+
+    /**
+     * Number of the values recorded.
+     */
+    public long count() {
+        long total = 0L;
+        for (final LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * The greatest value recorded, zero if none.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * The value {@code quantile} of the recorded values are not greater than, up to the bucket precision.
+     *
+     * @param quantile from 0 to 1, e.g. 0.99 for the 99th percentile
+     */
+    public long percentile(final double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("Bad quantile: " + quantile);
+        }
+        final long[] snapshot = snapshot();
+        return valueAt(snapshot, total(snapshot), quantile, max());
+    }
+
+    /**
+     * Percentiles of the values recorded so far, all taken from the same counts.
+     */
+    @NotNull
+    public Stats.Latency latency() {
+        final long[] snapshot = snapshot();
+        final long total = total(snapshot);
+        final long highest = max();
+        return new Stats.Latency(
+                total,
+                valueAt(snapshot, total, 0.5, highest),
+                valueAt(snapshot, total, 0.99, highest),
+                valueAt(snapshot, total, 0.999, highest),
+                highest);
+    }
+
+    @NotNull
+    private long[] snapshot() {
+        final long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    private static long total(@NotNull final long[] counts) {
+        long result = 0L;
+        for (final long count : counts) {
+            result += count;
+        }
+        return result;
+    }
+
+    private static long valueAt(
+            @NotNull final long[] counts,
+            final long total,
+            final double quantile,
+            final long max) {
+        if (total == 0) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(final long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BITS;
+        final int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+        return EXACT + (exponent - EXACT_BITS) * SUB_COUNT + sub;
+    }
+
+    /**
+     * The highest value counted by the bucket.
+     */
+    private static long highest(final int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        final int exponent = EXACT_BITS + (index - EXACT) / SUB_COUNT;
+        final int shift = exponent - SUB_BITS;
+        final long lowest = (long) (SUB_COUNT + (index - EXACT) % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -35,6 +35,14 @@ public class Record implements Comparable<Record> {
         return value.asReadOnlyBuffer();
     }
 
+    /**
+     * Whether the key of the record starts with the given bytes.
+     */
+    public boolean hasPrefix(@NotNull final ByteBuffer prefix) {
+        final int mismatch = key.mismatch(prefix);
+        return mismatch < 0 || mismatch == prefix.remaining();
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -0,0 +1,94 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of a {@link DAO} as of the moment the snapshot was taken, later writes are not visible.
+ * The storage keeps what the snapshot observes until it is closed.
+ */
+public interface Snapshot extends Closeable {
+
+    /**
+     * Same as {@link DAO#iterator(ByteBuffer)} as of the snapshot.
+     */
+    @NotNull
+    Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Same as {@link DAO#range(ByteBuffer, ByteBuffer)} as of the snapshot.
+     */
+    @NotNull
+    default Iterator<Record> range(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to == null) {
+            return iterator(from);
+        }
+
+        if (from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = new Record(to, ByteBuffer.allocate(0));
+        return Iters.until(iterator(from), bound);
+    }
+
+    /**
+     * Same as {@link DAO#prefix(ByteBuffer)} as of the snapshot.
+     */
+    @NotNull
+    default Iterator<Record> prefix(@NotNull ByteBuffer prefix) throws IOException {
+        return Iters.takeWhile(iterator(prefix), record -> record.hasPrefix(prefix));
+    }
+
+    /**
+     * Same as {@link DAO#descendingIterator(ByteBuffer)} as of the snapshot.
+     *
+     * @throws UnsupportedOperationException if the storage can't iterate in descending order
+     */
+    @NotNull
+    default Iterator<Record> descendingIterator(@Nullable ByteBuffer from) throws IOException {
+        throw new UnsupportedOperationException("Descending iteration is not supported");
+    }
+
+    /**
+     * Same as {@link DAO#descendingRange(ByteBuffer, ByteBuffer)} as of the snapshot.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @Nullable ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to == null) {
+            return descendingIterator(from);
+        }
+
+        if (from != null && from.compareTo(to) < 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = new Record(to, ByteBuffer.allocate(0));
+        return Iters.until(descendingIterator(from), bound, Comparator.reverseOrder());
+    }
+
+    /**
+     * Same as {@link DAO#get(ByteBuffer)} as of the snapshot.
+     *
+     * @throws NoSuchElementException if no such record
+     */
+    @NotNull
+    ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException;
+
+    /**
+     * Releases the snapshot, so that the storage may drop what only the snapshot observes.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,399 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Point-in-time statistics of a {@link DAO} returned by {@link DAO#stats()}, use {@link #builder()}
+ * to make one. Counters and latencies cover the time since the storage was opened.
+ */
+public final class Stats {
+    private final long memTableBytes;
+    private final int frozenMemTables;
+    private final List<Level> levels;
+    private final long flushedBytes;
+    private final long compactedBytes;
+    private final long compactionBacklogBytes;
+    private final double writeAmplification;
+    private final double readAmplification;
+    private final long blockCacheHits;
+    private final long blockCacheMisses;
+    private final long valueLogBytes;
+    private final long valueLogLiveBytes;
+    private final long scrubbedBytes;
+    private final int corruptTables;
+    private final Map<String, Latency> operations;
+
+    private Stats(@NotNull final Builder builder) {
+        this.memTableBytes = builder.memTableBytes;
+        this.frozenMemTables = builder.frozenMemTables;
+        this.levels = Collections.unmodifiableList(new ArrayList<>(builder.levels));
+        this.flushedBytes = builder.flushedBytes;
+        this.compactedBytes = builder.compactedBytes;
+        this.compactionBacklogBytes = builder.compactionBacklogBytes;
+        this.writeAmplification = builder.writeAmplification;
+        this.readAmplification = builder.readAmplification;
+        this.blockCacheHits = builder.blockCacheHits;
+        this.blockCacheMisses = builder.blockCacheMisses;
+        this.valueLogBytes = builder.valueLogBytes;
+        this.valueLogLiveBytes = builder.valueLogLiveBytes;
+        this.scrubbedBytes = builder.scrubbedBytes;
+        this.corruptTables = builder.corruptTables;
+        this.operations = Collections.unmodifiableMap(new LinkedHashMap<>(builder.operations));
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Bytes buffered in memory by the current and the frozen memtables.
+     */
+    public long memTableBytes() {
+        return memTableBytes;
+    }
+
+    /**
+     * Memtables waiting to be flushed.
+     */
+    public int frozenMemTables() {
+        return frozenMemTables;
+    }
+
+    /**
+     * Persisted tables by level, levels without tables are omitted.
+     */
+    @NotNull
+    public List<Level> levels() {
+        return levels;
+    }
+
+    public long flushedBytes() {
+        return flushedBytes;
+    }
+
+    public long compactedBytes() {
+        return compactedBytes;
+    }
+
+    /**
+     * Bytes the compactions due right now have to read, zero if the tables are in shape.
+     */
+    public long compactionBacklogBytes() {
+        return compactionBacklogBytes;
+    }
+
+    /**
+     * Bytes flushed and compacted per byte flushed, {@code NaN} if nothing was flushed.
+     */
+    public double writeAmplification() {
+        return writeAmplification;
+    }
+
+    /**
+     * Persisted tables read per point lookup on average, the ones Bloom filters rule out do not count.
+     */
+    public double readAmplification() {
+        return readAmplification;
+    }
+
+    public long blockCacheHits() {
+        return blockCacheHits;
+    }
+
+    public long blockCacheMisses() {
+        return blockCacheMisses;
+    }
+
+    /**
+     * Bytes of the value logs holding separated values, garbage included.
+     */
+    public long valueLogBytes() {
+        return valueLogBytes;
+    }
+
+    /**
+     * Bytes of the separated values which are not garbage.
+     */
+    public long valueLogLiveBytes() {
+        return valueLogLiveBytes;
+    }
+
+    /**
+     * Bytes of tables verified by the background scrubber.
+     */
+    public long scrubbedBytes() {
+        return scrubbedBytes;
+    }
+
+    /**
+     * Live tables the background scrubber found corrupted.
+     */
+    public int corruptTables() {
+        return corruptTables;
+    }
+
+    /**
+     * Latencies by operation name, e.g. {@code get} or {@code upsert}.
+     */
+    @NotNull
+    public Map<String, Latency> operations() {
+        return operations;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder(256)
+                .append("memtables: ").append(memTableBytes).append(" bytes, ")
+                .append(frozenMemTables).append(" frozen\n");
+        for (final Level level : levels) {
+            result.append("level ").append(level.level()).append(": ")
+                    .append(level.tables()).append(" tables, ")
+                    .append(level.bytes()).append(" bytes\n");
+        }
+        result.append(String.format(
+                Locale.ROOT,
+                "flushed: %d bytes, compacted: %d bytes, backlog: %d bytes\n"
+                        + "write amplification: %.2f, read amplification: %.2f\n"
+                        + "block cache: %d hits, %d misses\n"
+                        + "value logs: %d bytes, %d live\n"
+                        + "scrubbed: %d bytes, %d corrupt tables\n",
+                flushedBytes,
+                compactedBytes,
+                compactionBacklogBytes,
+                writeAmplification,
+                readAmplification,
+                blockCacheHits,
+                blockCacheMisses,
+                valueLogBytes,
+                valueLogLiveBytes,
+                scrubbedBytes,
+                corruptTables));
+        operations.forEach((name, latency) -> result.append(name).append(": ").append(latency).append('\n'));
+        return result.toString();
+    }
+
+    /**
+     * Persisted tables of a level.
+     */
+    public static final class Level {
+        private final int level;
+        private final int tables;
+        private final long bytes;
+
+        /**
+         * Describes the {@code tables} tables of the level taking {@code bytes} bytes.
+         */
+        public Level(
+                final int level,
+                final int tables,
+                final long bytes) {
+            this.level = level;
+            this.tables = tables;
+            this.bytes = bytes;
+        }
+
+        public int level() {
+            return level;
+        }
+
+        public int tables() {
+            return tables;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Count and latency percentiles in nanoseconds of an operation.
+     */
+    public static final class Latency {
+        private final long count;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        /**
+         * Describes the latencies of an operation done {@code count} times.
+         */
+        public Latency(
+                final long count,
+                final long p50,
+                final long p99,
+                final long p999,
+                final long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long p50() {
+            return p50;
+        }
+
+        public long p99() {
+            return p99;
+        }
+
+        public long p999() {
+            return p999;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "%d ops, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    count,
+                    p50 / 1e3,
+                    p99 / 1e3,
+                    p999 / 1e3,
+                    max / 1e3);
+        }
+    }
+
+    /**
+     * Collects the statistics, anything not set is zero except for write amplification, which is {@code NaN}.
+     */
+    public static final class Builder {
+        private final List<Level> levels = new ArrayList<>();
+        private final Map<String, Latency> operations = new LinkedHashMap<>();
+        private long memTableBytes;
+        private int frozenMemTables;
+        private long flushedBytes;
+        private long compactedBytes;
+        private long compactionBacklogBytes;
+        private double writeAmplification = Double.NaN;
+        private double readAmplification;
+        private long blockCacheHits;
+        private long blockCacheMisses;
+        private long valueLogBytes;
+        private long valueLogLiveBytes;
+        private long scrubbedBytes;
+        private int corruptTables;
+
+        private Builder() {
+            // Use Stats.builder()
+        }
+
+        /**
+         * Sets the bytes buffered by all the memtables and the number of the frozen ones.
+         */
+        @NotNull
+        public Builder memTables(
+                final long bytes,
+                final int frozen) {
+            this.memTableBytes = bytes;
+            this.frozenMemTables = frozen;
+            return this;
+        }
+
+        @NotNull
+        public Builder level(@NotNull final Level level) {
+            this.levels.add(level);
+            return this;
+        }
+
+        /**
+         * Sets the bytes written by flushes and by compactions.
+         */
+        @NotNull
+        public Builder written(
+                final long flushed,
+                final long compacted) {
+            this.flushedBytes = flushed;
+            this.compactedBytes = compacted;
+            return this;
+        }
+
+        @NotNull
+        public Builder compactionBacklogBytes(final long bytes) {
+            this.compactionBacklogBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the write and the read amplification.
+         */
+        @NotNull
+        public Builder amplification(
+                final double write,
+                final double read) {
+            this.writeAmplification = write;
+            this.readAmplification = read;
+            return this;
+        }
+
+        /**
+         * Sets the block cache hits and misses.
+         */
+        @NotNull
+        public Builder blockCache(
+                final long hits,
+                final long misses) {
+            this.blockCacheHits = hits;
+            this.blockCacheMisses = misses;
+            return this;
+        }
+
+        /**
+         * Sets the bytes of the value logs and of the live values in them.
+         */
+        @NotNull
+        public Builder valueLogs(
+                final long bytes,
+                final long liveBytes) {
+            this.valueLogBytes = bytes;
+            this.valueLogLiveBytes = liveBytes;
+            return this;
+        }
+
+        /**
+         * Sets the bytes of tables scrubbed and the number of corrupt tables found.
+         */
+        @NotNull
+        public Builder scrub(
+                final long bytes,
+                final int corrupt) {
+            this.scrubbedBytes = bytes;
+            this.corruptTables = corrupt;
+            return this;
+        }
+
+        /**
+         * Adds the latencies of an operation.
+         */
+        @NotNull
+        public Builder operation(
+                @NotNull final String name,
+                @NotNull final Latency latency) {
+            this.operations.put(name, latency);
+            return this;
+        }
+
+        @NotNull
+        public Stats build() {
+            return new Stats(this);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The core YCSB workloads as proportions of operations and the default key distribution.
+ */
+enum Workload {
+    /**
+     * Update heavy, e.g. a session store recording recent actions.
+     */
+    A(0.5, 0.5, 0.0, 0.0, 0.0, Distribution.ZIPFIAN),
+    /**
+     * Read mostly, e.g. photo tagging.
+     */
+    B(0.95, 0.05, 0.0, 0.0, 0.0, Distribution.ZIPFIAN),
+    /**
+     * Read only, e.g. a user profile cache.
+     */
+    C(1.0, 0.0, 0.0, 0.0, 0.0, Distribution.ZIPFIAN),
+    /**
+     * Read latest, e.g. user status updates.
+     */
+    D(0.95, 0.0, 0.05, 0.0, 0.0, Distribution.LATEST),
+    /**
+     * Short ranges, e.g. threaded conversations.
+     */
+    E(0.0, 0.0, 0.05, 0.95, 0.0, Distribution.ZIPFIAN),
+    /**
+     * Read-modify-write, e.g. a user database.
+     */
+    F(0.5, 0.0, 0.0, 0.0, 0.5, Distribution.ZIPFIAN);
+
+    /**
+     * How the keys of reads, updates and scans are chosen among the inserted ones.
+     */
+    enum Distribution {
+        UNIFORM,
+        ZIPFIAN,
+        // Recently inserted keys are the most popular
+        LATEST
+    }
+
+    /**
+     * What a workload is made of.
+     */
+    enum Operation {
+        READ,
+        UPDATE,
+        INSERT,
+        SCAN,
+        READ_MODIFY_WRITE
+    }
+
+    // Cumulative
+    private final double[] thresholds;
+    private final Distribution distribution;
+
+    Workload(
+            final double read,
+            final double update,
+            final double insert,
+            final double scan,
+            final double readModifyWrite,
+            @NotNull final Distribution distribution) {
+        assert Math.abs(read + update + insert + scan + readModifyWrite - 1.0) < 1e-9;
+        this.thresholds = new double[] {
+                read,
+                read + update,
+                read + update + insert,
+                read + update + insert + scan};
+        this.distribution = distribution;
+    }
+
+    @NotNull
+    Distribution distribution() {
+        return distribution;
+    }
+
+    /**
+     * Picks an operation by a uniformly distributed value from 0 to 1.
+     */
+    @NotNull
+    Operation operation(final double random) {
+        final Operation[] operations = Operation.values();
+        for (int i = 0; i < thresholds.length; i++) {
+            if (random < thresholds[i]) {
+                return operations[i];
+            }
+        }
+        return Operation.READ_MODIFY_WRITE;
+    }
+}
@@ -0,0 +1,73 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upserts and removals written together by {@link DAO#write(WriteBatch)}.
+ * Keys and values are not copied, so they must not be modified until the batch is written.
+ */
+public final class WriteBatch {
+    private final List<ByteBuffer> keys = new ArrayList<>();
+    // Null for removals
+    private final List<ByteBuffer> values = new ArrayList<>();
+
+    /**
+     * Adds an upsert of the given key.
+     */
+    @NotNull
+    public WriteBatch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        keys.add(key.duplicate());
+        values.add(value.duplicate());
+        return this;
+    }
+
+    /**
+     * Adds a removal of the given key.
+     */
+    @NotNull
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        keys.add(key.duplicate());
+        values.add(null);
+        return this;
+    }
+
+    /**
+     * Number of upserts and removals added so far.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * Forgets everything added, so that the batch can be reused.
+     */
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+
+    @NotNull
+    public ByteBuffer key(final int index) {
+        return keys.get(index).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the value of an upsert or {@code null} for a removal.
+     */
+    @Nullable
+    public ByteBuffer value(final int index) {
+        final ByteBuffer value = values.get(index);
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.mail.polis;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Zipfian distribution over {@code [0, items)} with 0 being the most popular item, generated
+ * as in YCSB after "Quickly Generating Billion-Record Synthetic Databases" by Gray et al.
+ * Thread-safe.
+ */
+final class Zipfian {
+    // The skew YCSB uses
+    static final double THETA = 0.99;
+
+    private final long items;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+    private final double half;
+
+    Zipfian(final long items) {
+        if (items <= 0) {
+            throw new IllegalArgumentException("Non-positive item count: " + items);
+        }
+        this.items = items;
+        this.zetan = zeta(items);
+        this.alpha = 1.0 / (1.0 - THETA);
+        this.eta = (1.0 - Math.pow(2.0 / items, 1.0 - THETA)) / (1.0 - zeta(2) / zetan);
+        this.half = 1.0 + Math.pow(0.5, THETA);
+    }
+
+    long next() {
+        final double u = ThreadLocalRandom.current().nextDouble();
+        final double uz = u * zetan;
+        if (uz < 1.0) {
+            return 0L;
+        }
+        if (uz < half) {
+            return Math.min(1L, items - 1);
+        }
+        final long result = (long) (items * Math.pow(eta * u - eta + 1.0, alpha));
+        return Math.min(result, items - 1);
+    }
+
+    /**
+     * Spreads the popular items over the whole range like YCSB's scrambled Zipfian does.
+     */
+    long nextScrambled() {
+        return Long.remainderUnsigned(fnv(next()), items);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the bytes of the value.
+     */
+    static long fnv(final long value) {
+        long result = 0xCBF29CE484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            result ^= (value >>> (i * Byte.SIZE)) & 0xFF;
+            result *= 0x100000001B3L;
+        }
+        return result;
+    }
+
+    private static double zeta(final long n) {
+        double result = 0.0;
+        for (long i = 1; i <= n; i++) {
+            result += 1.0 / Math.pow(i, THETA);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,176 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only off-heap memory carved out of large direct slabs.
+ *
+ * <p>An address packs the slab number into the high 32 bits and the offset inside the slab
+ * into the low 32 bits. Every allocation is 8-byte aligned, so {@code long} fields
+ * can be published with release/acquire semantics and updated with compare-and-set.
+ *
+ * <p>Allocation is lock-free: threads bump a shared cursor with compare-and-set and only
+ * take the lock to add a slab once the current one is exhausted.
+ *
+ * @see MemTable
+ */
+final class Arena {
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int ALIGNMENT = Long.BYTES;
+
+    private final int slabSize;
+
+    // Address of the next free byte of the current slab, starts past the end of no slab
+    private final AtomicLong cursor;
+
+    // Replaced on growth, so readers always observe fully initialized slabs
+    private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+    private final AtomicLong capacity = new AtomicLong();
+
+    // Guarded by this
+    private int slabCount;
+
+    Arena(final int slabSize) {
+        assert slabSize > 0 && slabSize % ALIGNMENT == 0;
+        this.slabSize = slabSize;
+        this.cursor = new AtomicLong(address(-1, slabSize));
+    }
+
+    /**
+     * Reserves {@code size} zeroed bytes and returns their address.
+     * Chunks larger than half of a slab get a dedicated slab of their own.
+     */
+    long allocate(final int size) {
+        final int aligned = align(size);
+        if (aligned > slabSize / 2) {
+            synchronized (this) {
+                return address(addSlab(aligned), 0);
+            }
+        }
+
+        while (true) {
+            final long current = cursor.get();
+            if (offset(current) + aligned <= slabSize) {
+                if (cursor.compareAndSet(current, current + aligned)) {
+                    return current;
+                }
+            } else {
+                synchronized (this) {
+                    // Unless somebody has already started a fresh slab
+                    if (cursor.get() == current) {
+                        cursor.set(address(addSlab(slabSize), 0));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Total off-heap bytes held by this arena.
+     */
+    long sizeInBytes() {
+        return capacity.get();
+    }
+
+    int getInt(final long address) {
+        return slab(address).getInt(offset(address));
+    }
+
+    void putInt(
+            final long address,
+            final int value) {
+        slab(address).putInt(offset(address), value);
+    }
+
+    long getLong(final long address) {
+        return slab(address).getLong(offset(address));
+    }
+
+    void putLong(
+            final long address,
+            final long value) {
+        slab(address).putLong(offset(address), value);
+    }
+
+    boolean compareAndSetLong(
+            final long address,
+            final long expected,
+            final long value) {
+        return LONGS.compareAndSet(slab(address), offset(address), expected, value);
+    }
+
+    long getLongAcquire(final long address) {
+        return (long) LONGS.getAcquire(slab(address), offset(address));
+    }
+
+    void setLongRelease(
+            final long address,
+            final long value) {
+        LONGS.setRelease(slab(address), offset(address), value);
+    }
+
+    /**
+     * Copies the remaining bytes of {@code src} to the given address without moving {@code src} position.
+     */
+    void put(
+            final long address,
+            @NotNull final ByteBuffer src) {
+        final ByteBuffer dst = slab(address).duplicate();
+        dst.position(offset(address));
+        dst.put(src.duplicate());
+    }
+
+    /**
+     * Returns a view of {@code length} bytes at the given address, no copying is involved.
+     */
+    @NotNull
+    ByteBuffer slice(
+            final long address,
+            final int length) {
+        final int offset = offset(address);
+        final ByteBuffer result = slab(address).duplicate();
+        result.limit(offset + length).position(offset);
+        return result.slice();
+    }
+
+    private int addSlab(final int size) {
+        assert Thread.holdsLock(this);
+
+        final ByteBuffer slab = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        ByteBuffer[] array = slabs;
+        if (slabCount == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[slabCount] = slab;
+        slabs = array;
+        capacity.addAndGet(size);
+        return slabCount++;
+    }
+
+    @NotNull
+    private ByteBuffer slab(final long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    private static int offset(final long address) {
+        return (int) address;
+    }
+
+    private static long address(
+            final int slab,
+            final int offset) {
+        return ((long) slab << 32) | offset;
+    }
+
+    private static int align(final int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
@@ -0,0 +1,167 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of decoded table blocks shared by all tables of a storage.
+ *
+ * <p>Every block lives in its own direct buffer, so the cache does not take heap and an evicted
+ * block stays valid for the readers still holding its cells. Lookups are lock-free,
+ * insertions evict blocks with the CLOCK algorithm: a hit marks the block as referenced and
+ * the clock hand gives referenced blocks a second chance before evicting them.
+ *
+ * <p>Blocks are keyed by table generation, which is never reused, so blocks of deleted tables
+ * are simply never referenced again and go first.
+ */
+final class BlockCache {
+    private final long capacity;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Guarded by this
+    private final List<Entry> clock = new ArrayList<>();
+    private int hand;
+    private long size;
+
+    BlockCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Whether blocks can be cached at all.
+     */
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Returns the cached block or {@code null} which the caller is expected
+     * to follow with {@link #put(long, int, ByteBuffer)}.
+     */
+    @Nullable
+    ByteBuffer get(
+            final long table,
+            final int block) {
+        final Entry entry = entries.get(new Key(table, block));
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.referenced = true;
+        return entry.block.duplicate();
+    }
+
+    /**
+     * Caches a decoded block, which should be a direct buffer nobody modifies anymore.
+     *
+     * @return the block to read from
+     */
+    @NotNull
+    ByteBuffer put(
+            final long table,
+            final int block,
+            @NotNull final ByteBuffer content) {
+        if (content.capacity() > capacity) {
+            return content;
+        }
+
+        final Entry entry = new Entry(new Key(table, block), content);
+        synchronized (this) {
+            if (entries.putIfAbsent(entry.key, entry) != null) {
+                // Loaded concurrently
+                return content;
+            }
+            size += content.capacity();
+            while (size > capacity) {
+                evict();
+            }
+            clock.add(entry);
+        }
+        return content.duplicate();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private void evict() {
+        assert Thread.holdsLock(this);
+
+        while (true) {
+            if (hand >= clock.size()) {
+                hand = 0;
+            }
+            final Entry candidate = clock.get(hand);
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                hand++;
+                continue;
+            }
+
+            // Keep the ring dense, the moved entry gets checked right away
+            final Entry last = clock.remove(clock.size() - 1);
+            if (hand < clock.size()) {
+                clock.set(hand, last);
+            }
+            entries.remove(candidate.key);
+            size -= candidate.block.capacity();
+            return;
+        }
+    }
+
+    private static final class Key {
+        private final long table;
+        private final int block;
+
+        Key(
+                final long table,
+                final int block) {
+            this.table = table;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return table == other.table && block == other.block;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(table) * 31 + block;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final ByteBuffer block;
+        volatile boolean referenced;
+
+        Entry(
+                @NotNull final Key key,
+                @NotNull final ByteBuffer block) {
+            this.key = key;
+            this.block = block;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.mail.polis.medalexey;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the keys of a table.
+ *
+ * <p>A key is hashed once with murmur3, the probed bits are derived from the two 32-bit halves
+ * of the first hash word with double hashing. A filter without bits admits every key.
+ */
+final class BloomFilter {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] words;
+    private final int hashes;
+
+    BloomFilter(
+            @NotNull final long[] words,
+            final int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Hash of the key to pass to {@link #build(long[], int, int)}.
+     */
+    static long hash(@NotNull final ByteBuffer key) {
+        return HASH.hashBytes(key.duplicate()).asLong();
+    }
+
+    /**
+     * Number of bits probed per key which minimizes false positives for the given filter density.
+     */
+    static int hashes(final int bitsPerKey) {
+        return Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+    }
+
+    /**
+     * Sets the bits of the first {@code count} key hashes.
+     *
+     * @return filter words, empty if {@code bitsPerKey} is zero
+     */
+    @NotNull
+    static long[] build(
+            @NotNull final long[] keyHashes,
+            final int count,
+            final int bitsPerKey) {
+        final long bits = (long) count * bitsPerKey;
+        final long[] result = new long[(int) ((bits + Long.SIZE - 1) / Long.SIZE)];
+        if (result.length == 0) {
+            return result;
+        }
+
+        final int hashes = hashes(bitsPerKey);
+        final long size = (long) result.length * Long.SIZE;
+        for (int i = 0; i < count; i++) {
+            final long hash = keyHashes[i];
+            for (int probe = 0; probe < hashes; probe++) {
+                final long bit = bit(hash, probe, size);
+                result[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether the key may have been added, false positives are possible.
+     */
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        if (words.length == 0) {
+            return true;
+        }
+
+        final long hash = hash(key);
+        final long size = (long) words.length * Long.SIZE;
+        for (int probe = 0; probe < hashes; probe++) {
+            final long bit = bit(hash, probe, size);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long bit(
+            final long hash,
+            final int probe,
+            final long size) {
+        final long combined = (int) hash + (long) probe * (int) (hash >>> 32);
+        return (combined & Long.MAX_VALUE) % size;
+    }
+}
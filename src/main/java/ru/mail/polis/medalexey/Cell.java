@@ -0,0 +1,249 @@
+package ru.mail.polis.medalexey;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Iters;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Version of a key with either a value or a tombstone, as stored in tables.
+ *
+ * <p>Every write is stamped with a sequence number, so the versions of a key are ordered
+ * and a reader as of some sequence number observes the newest version not newer than that.
+ *
+ * <p>The value of a cell read from a table may be stored in a {@link ValueLog}, such a cell
+ * only reads it when asked for the value, so that compaction moves the pointer alone.
+ */
+final class Cell {
+    private static final Comparator<Cell> BY_KEY = Comparator.comparing(Cell::getKey);
+    /**
+     * Order of all the versions, newest first within a key.
+     */
+    static final Comparator<Cell> BY_VERSION =
+            BY_KEY.thenComparing(Comparator.comparingLong(Cell::sequence).reversed());
+
+    private final ByteBuffer key;
+    private final long sequence;
+    @Nullable
+    private final ByteBuffer value;
+    @Nullable
+    private final ValueLog.Pointer pointer;
+
+    private Cell(
+            @NotNull final ByteBuffer key,
+            final long sequence,
+            @Nullable final ByteBuffer value,
+            @Nullable final ValueLog.Pointer pointer) {
+        this.key = key;
+        this.sequence = sequence;
+        this.value = value;
+        this.pointer = pointer;
+    }
+
+    @NotNull
+    static Cell of(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long sequence) {
+        return new Cell(key, sequence, value, null);
+    }
+
+    @NotNull
+    static Cell tombstone(
+            @NotNull final ByteBuffer key,
+            final long sequence) {
+        return new Cell(key, sequence, null, null);
+    }
+
+    @NotNull
+    static Cell separated(
+            @NotNull final ByteBuffer key,
+            @NotNull final ValueLog.Pointer pointer,
+            final long sequence) {
+        return new Cell(key, sequence, null, pointer);
+    }
+
+    /**
+     * Merges sorted sources keeping only the cell from the source with the highest precedence
+     * for every key.
+     *
+     * @param sources cells of tables
+     * @param precedences {@link Table#precedence()} of every source
+     * @param dropTombstones whether to skip the keys whose newest cell is a tombstone
+     */
+    @NotNull
+    static Iterator<Cell> merge(
+            @NotNull final List<Iterator<Cell>> sources,
+            @NotNull final long[] precedences,
+            final boolean dropTombstones) {
+        return Iters.merge(sources, precedences, BY_KEY, cell -> dropTombstones && cell.isTombstone());
+    }
+
+    /**
+     * Merges the cells of tables ordered newest first as a reader as of {@code snapshot} observes them.
+     * Cells shadowed by the {@link Table#rangeTombstones()} of their own table or of newer tables are
+     * skipped, so are the keys whose newest cell is a tombstone.
+     */
+    @NotNull
+    static Iterator<Cell> merge(
+            @NotNull final List<? extends Table> tables,
+            @NotNull final ByteBuffer from,
+            final long snapshot) {
+        return merge(tables, from, snapshot, false);
+    }
+
+    @NotNull
+    private static Iterator<Cell> merge(
+            @NotNull final List<? extends Table> tables,
+            @Nullable final ByteBuffer from,
+            final long snapshot,
+            final boolean descending) {
+        assert descending || from != null;
+        final List<Iterator<Cell>> sources = new ArrayList<>(tables.size());
+        final long[] precedences = new long[tables.size()];
+        RangeTombstones shadow = RangeTombstones.EMPTY;
+        for (final Table table : tables) {
+            assert sources.isEmpty() || precedences[sources.size() - 1] > table.precedence();
+            final RangeTombstones own = table.rangeTombstones().visibleAt(snapshot);
+            final Function<ByteBuffer, Iterator<Cell>> seek = descending
+                    ? key -> table.descendingIterator(key, snapshot)
+                    : key -> table.iterator(key, snapshot);
+            final Function<ByteBuffer, Iterator<Cell>> visible = own.isEmpty()
+                    ? seek
+                    : key -> Iterators.filter(seek.apply(key), cell -> !own.hides(cell));
+            precedences[sources.size()] = table.precedence();
+            sources.add(descending ? shadow.skipDescending(visible, from) : shadow.skip(visible, from));
+            shadow = shadow.union(own);
+        }
+        return Iters.merge(sources, precedences, descending ? BY_KEY.reversed() : BY_KEY, Cell::isTombstone);
+    }
+
+    /**
+     * Same as {@link #merge(List, ByteBuffer, long)} in descending key order starting from the keys
+     * not greater than {@code from}, or from the greatest key if it is {@code null}.
+     */
+    @NotNull
+    static Iterator<Cell> mergeDescending(
+            @NotNull final List<? extends Table> tables,
+            @Nullable final ByteBuffer from,
+            final long snapshot) {
+        return merge(tables, from, snapshot, true);
+    }
+
+    /**
+     * Merges every version of the cells of tables in {@link #BY_VERSION} order.
+     */
+    @NotNull
+    static Iterator<Cell> versions(@NotNull final List<? extends Table> tables) {
+        final List<Iterator<Cell>> sources = new ArrayList<>(tables.size());
+        final long[] precedences = new long[tables.size()];
+        for (final Table table : tables) {
+            precedences[sources.size()] = table.precedence();
+            sources.add(table.scan(ByteBuffer.allocate(0)));
+        }
+        // Versions never compare equal, so nothing is dropped
+        return Iters.merge(sources, precedences, BY_VERSION, cell -> false);
+    }
+
+    /**
+     * Picks the newest version not newer than {@code snapshot} of every key.
+     *
+     * @param versions cells grouped by key, e.g. in {@link #BY_VERSION} order or in the reverse of it
+     */
+    @NotNull
+    static Iterator<Cell> visible(
+            @NotNull final Iterator<Cell> versions,
+            final long snapshot) {
+        return new VisibleIterator(Iterators.peekingIterator(versions), snapshot);
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value of a live cell.
+     *
+     * @throws IllegalStateException if the cell is a tombstone
+     */
+    @NotNull
+    ByteBuffer getValue() {
+        if (value != null) {
+            return value;
+        }
+        if (pointer == null) {
+            throw new IllegalStateException("Tombstone has no value");
+        }
+        return pointer.read();
+    }
+
+    boolean isTombstone() {
+        return value == null && pointer == null;
+    }
+
+    /**
+     * Where the value is stored unless the cell holds it itself or is a tombstone.
+     */
+    @Nullable
+    ValueLog.Pointer pointer() {
+        return pointer;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    private static final class VisibleIterator implements Iterator<Cell> {
+        private final PeekingIterator<Cell> versions;
+        private final long snapshot;
+        private Cell next;
+
+        VisibleIterator(
+                @NotNull final PeekingIterator<Cell> versions,
+                final long snapshot) {
+            this.versions = versions;
+            this.snapshot = snapshot;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && versions.hasNext()) {
+                final Cell first = versions.next();
+                next = first.sequence <= snapshot ? first : null;
+                // Skip the other versions of the key keeping the newest visible one
+                while (versions.hasNext() && versions.peek().key.equals(first.key)) {
+                    final Cell cell = versions.next();
+                    if (cell.sequence <= snapshot && (next == null || cell.sequence > next.sequence)) {
+                        next = cell;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block compression algorithm.
+ *
+ * <p>Buffers are addressed from their current positions, which are left intact.
+ */
+interface Codec {
+    /**
+     * Upper bound of the compressed size of {@code length} bytes.
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses the remaining bytes of {@code src} to the beginning of {@code dst}.
+     *
+     * @return compressed length
+     */
+    int compress(
+            @NotNull ByteBuffer src,
+            @NotNull ByteBuffer dst);
+
+    /**
+     * Decompresses the remaining bytes of {@code src} filling exactly the remaining bytes of {@code dst}.
+     *
+     * @throws IllegalStateException if the compressed data is corrupted
+     */
+    void decompress(
+            @NotNull ByteBuffer src,
+            @NotNull ByteBuffer dst);
+
+    /**
+     * Creates a compressor, which may keep state between calls and is not thread-safe,
+     * or returns {@code null} if blocks are not compressed.
+     */
+    @Nullable
+    static Codec compressor(@NotNull final Compression compression) {
+        switch (compression) {
+            case NONE:
+                return null;
+            case LZ:
+                return new LzCodec();
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    /**
+     * Finds the decompressor of tables written with the given {@link Compression#id()},
+     * {@code null} if their blocks are not compressed.
+     *
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    @Nullable
+    static Codec decompressor(final int id) {
+        if (id == Compression.NONE.id()) {
+            return null;
+        }
+        if (id == Compression.LZ.id()) {
+            return LzCodec.DECOMPRESSOR;
+        }
+        throw new IllegalArgumentException("Unknown compression: " + id);
+    }
+}
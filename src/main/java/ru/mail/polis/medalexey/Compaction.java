@@ -0,0 +1,231 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Merges a set of tables into new non-overlapping tables of a single level.
+ *
+ * <p>Level 0 tables may overlap each other, so a compaction into level 0 produces a single table
+ * which takes the {@link SSTable#origin()} of the newest input. The inputs must then be adjacent
+ * in level 0, otherwise the output would shadow or be shadowed by the wrong tables.
+ *
+ * <p>Versions of cells and range tombstones are kept as the {@link Retention} taken when
+ * the compaction starts decides, the range tombstones are carried over to the outputs,
+ * each output taking the part within its key range. All the versions of a key go
+ * to a single output.
+ *
+ * <p>Values the inputs point to stay in their {@link ValueLog}s, only the pointers are rewritten,
+ * unless the compaction relocates the logs. A compaction of a single table into its own level
+ * relocating logs is how {@link ValueLogs#collection} reclaims their garbage.
+ *
+ * <p>Outputs are first written under temporary names and renamed once complete. The compaction
+ * takes effect when the caller records the replacement of the inputs with the outputs in the {@link Manifest},
+ * only then the inputs may be deleted. Outputs of an interrupted compaction are not in the manifest
+ * and are deleted on the next start along with {@link #recover(Path) temporary files}.
+ */
+final class Compaction {
+    private static final Pattern TEMP_TABLE = Pattern.compile("\\d{1,18}" + Pattern.quote(SSTable.SUFFIX + ".tmp"));
+
+    private final List<SSTable> inputs;
+    private final int level;
+    private final boolean dropTombstones;
+    private final Set<Long> relocated;
+
+    Compaction(
+            @NotNull final List<SSTable> inputs,
+            final int level,
+            final boolean dropTombstones) {
+        this(inputs, level, dropTombstones, Collections.emptySet());
+    }
+
+    /**
+     * Describes a compaction.
+     *
+     * @param inputs tables to merge
+     * @param level level of the produced tables
+     * @param dropTombstones whether no deeper table may contain the keys of the inputs,
+     *                       so that tombstones nobody observes may be dropped
+     * @param relocated generations of the logs whose values the inputs point to are to be moved to a new log
+     */
+    Compaction(
+            @NotNull final List<SSTable> inputs,
+            final int level,
+            final boolean dropTombstones,
+            @NotNull final Set<Long> relocated) {
+        assert !inputs.isEmpty();
+        this.inputs = inputs;
+        this.level = level;
+        this.dropTombstones = dropTombstones;
+        this.relocated = relocated;
+    }
+
+    @NotNull
+    List<SSTable> inputs() {
+        return inputs;
+    }
+
+    int level() {
+        return level;
+    }
+
+    /**
+     * Bytes the compaction has to read.
+     */
+    long inputBytes() {
+        return inputs.stream().mapToLong(SSTable::sizeInBytes).sum();
+    }
+
+    /**
+     * Writes the merged inputs to tables of at most about {@link Config#targetFileSize()} bytes,
+     * or to a single table for level 0, and puts them in place along with the log of the relocated values.
+     * The inputs stay on disk until {@link #finish(Path)}, the outputs are not live until they are
+     * in the manifest.
+     *
+     * @param opener how to open the outputs
+     * @param retention versions to keep
+     */
+    @NotNull
+    List<SSTable> run(
+            @NotNull final Path dir,
+            @NotNull final LongSupplier generations,
+            @NotNull final Config config,
+            @NotNull final Opener opener,
+            @NotNull final Retention retention) throws IOException {
+        RangeTombstones merged = RangeTombstones.EMPTY;
+        for (final SSTable input : inputs) {
+            merged = merged.union(input.rangeTombstones());
+        }
+        final Iterator<Cell> cells = retention.filter(Cell.versions(inputs), merged, dropTombstones);
+        final RangeTombstones rangeTombstones = retention.prune(merged, dropTombstones);
+
+        final long maxFileSize = level == 0 ? Long.MAX_VALUE : config.targetFileSize();
+        final List<Long> outputs = new ArrayList<>();
+        final ValueLog.Writer values = relocated.isEmpty()
+                ? null
+                : ValueLog.writer(dir, generations.getAsLong(), relocated);
+        SSTable.Writer writer = null;
+        // Outputs split at their first keys, which bound the range tombstones of the previous ones
+        ByteBuffer lower = null;
+        ByteBuffer previous = null;
+        boolean full = false;
+        try {
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                if (full && !cell.getKey().equals(previous)) {
+                    writer.finish(rangeTombstones.clip(lower, cell.getKey()));
+                    writer.close();
+                    writer = null;
+                    lower = cell.getKey();
+                }
+                if (writer == null) {
+                    writer = start(dir, generations.getAsLong(), config, values, outputs);
+                }
+                writer.append(cell);
+                previous = cell.getKey();
+                full = writer.sizeInBytes() >= maxFileSize;
+            }
+            if (writer == null && !rangeTombstones.isEmpty()) {
+                writer = start(dir, generations.getAsLong(), config, values, outputs);
+            }
+            if (writer != null) {
+                writer.finish(rangeTombstones.clip(lower, null));
+            }
+            if (values != null) {
+                values.finish();
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            if (values != null) {
+                values.close();
+            }
+        }
+
+        final List<SSTable> result = new ArrayList<>(outputs.size());
+        for (final long generation : outputs) {
+            final Path file = table(dir, generation);
+            Files.move(SSTable.temp(file), file, StandardCopyOption.ATOMIC_MOVE);
+            result.add(opener.open(file, generation));
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the inputs, which must be removed from the manifest and not visible to new readers anymore.
+     */
+    void finish(@NotNull final Path dir) throws IOException {
+        for (final SSTable input : inputs) {
+            Files.deleteIfExists(table(dir, input.generation()));
+        }
+    }
+
+    /**
+     * Removes tables that were never completed.
+     */
+    static void recover(@NotNull final Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (TEMP_TABLE.matcher(name).matches() && Files.isRegularFile(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final String result = inputs.size() + " tables to level " + level;
+        return relocated.isEmpty() ? result : result + " relocating values of " + relocated;
+    }
+
+    @NotNull
+    private SSTable.Writer start(
+            @NotNull final Path dir,
+            final long generation,
+            @NotNull final Config config,
+            @Nullable final ValueLog.Writer values,
+            @NotNull final List<Long> outputs) throws IOException {
+        outputs.add(generation);
+        return SSTable.writer(
+                SSTable.temp(table(dir, generation)),
+                level,
+                level == 0 ? inputs.stream().mapToLong(SSTable::origin).max().getAsLong() : generation,
+                config,
+                values);
+    }
+
+    @NotNull
+    private static Path table(
+            @NotNull final Path dir,
+            final long generation) {
+        return dir.resolve(generation + SSTable.SUFFIX);
+    }
+
+    /**
+     * Opens the tables a compaction has put in place.
+     */
+    @FunctionalInterface
+    interface Opener {
+        @NotNull
+        SSTable open(
+                @NotNull Path file,
+                long generation) throws IOException;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides which tables to merge next.
+ */
+interface CompactionStrategy {
+    /**
+     * Finds the most urgent compaction if any.
+     */
+    @Nullable
+    Compaction pick(@NotNull TableSet tableSet);
+
+    /**
+     * Creates the strategy selected by the config.
+     */
+    @NotNull
+    static CompactionStrategy of(@NotNull final Config config) {
+        switch (config.compactionStyle()) {
+            case LEVELED:
+                return new LeveledCompaction(config);
+            case SIZE_TIERED:
+                return new SizeTieredCompaction(config);
+            default:
+                throw new IllegalArgumentException("Unknown compaction style: " + config.compactionStyle());
+        }
+    }
+}
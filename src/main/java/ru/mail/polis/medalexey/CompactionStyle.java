@@ -0,0 +1,18 @@
+package ru.mail.polis.medalexey;
+
+/**
+ * How {@link LsmDAO} merges flushed tables.
+ */
+public enum CompactionStyle {
+    /**
+     * Keeps every level but the first one a single sorted run.
+     * Reads consult few tables, but every byte is rewritten about ten times per level.
+     */
+    LEVELED,
+
+    /**
+     * Merges runs of similarly sized tables into one, so every byte is rewritten
+     * about once per size tier at the cost of more tables for reads to consult.
+     */
+    SIZE_TIERED
+}
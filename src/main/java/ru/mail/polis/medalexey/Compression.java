@@ -0,0 +1,30 @@
+package ru.mail.polis.medalexey;
+
+/**
+ * How {@link LsmDAO} compresses table blocks.
+ */
+public enum Compression {
+    /**
+     * Blocks are stored as is and read without copying.
+     */
+    NONE(0),
+
+    /**
+     * Blocks are compressed with a byte-oriented LZ77 codec, which is fast enough
+     * to be decompressed on every block cache miss.
+     */
+    LZ(1);
+
+    private final int id;
+
+    Compression(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * Identifies the compression in table files.
+     */
+    int id() {
+        return id;
+    }
+}
@@ -0,0 +1,387 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunables of {@link LsmDAO}, use {@link #builder()} to override the defaults.
+ */
+public final class Config {
+    private static final Config DEFAULT = builder().build();
+
+    private final long flushThreshold;
+    private final SyncPolicy syncPolicy;
+    private final int level0Trigger;
+    private final long[] levelSizeTargets;
+    private final long targetFileSize;
+    private final CompactionStyle compactionStyle;
+    private final int mergeWidth;
+    private final int bloomBitsPerKey;
+    private final int blockSize;
+    private final long blockCacheSize;
+    private final Compression compression;
+    private final double traceSampleRate;
+    private final long traceThresholdNanos;
+    private final int minSeparatedValue;
+    private final double valueLogGarbageRatio;
+    private final long scrubRate;
+    private final int scrubThreads;
+    @Nullable
+    private final PrefixExtractor prefixExtractor;
+
+    private Config(@NotNull final Builder builder) {
+        this.flushThreshold = builder.flushThreshold;
+        this.syncPolicy = builder.syncPolicy;
+        this.level0Trigger = builder.level0Trigger;
+        this.levelSizeTargets = builder.levelSizeTargets.clone();
+        this.targetFileSize = builder.targetFileSize;
+        this.compactionStyle = builder.compactionStyle;
+        this.mergeWidth = builder.mergeWidth;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.blockSize = builder.blockSize;
+        this.blockCacheSize = builder.blockCacheSize;
+        this.compression = builder.compression;
+        this.traceSampleRate = builder.traceSampleRate;
+        this.traceThresholdNanos = builder.traceThresholdNanos;
+        this.minSeparatedValue = builder.minSeparatedValue;
+        this.valueLogGarbageRatio = builder.valueLogGarbageRatio;
+        this.scrubRate = builder.scrubRate;
+        this.scrubThreads = builder.scrubThreads;
+        this.prefixExtractor = builder.prefixExtractor;
+    }
+
+    @NotNull
+    public static Config defaults() {
+        return DEFAULT;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    long flushThreshold() {
+        return flushThreshold;
+    }
+
+    @NotNull
+    SyncPolicy syncPolicy() {
+        return syncPolicy;
+    }
+
+    int level0Trigger() {
+        return level0Trigger;
+    }
+
+    @NotNull
+    long[] levelSizeTargets() {
+        return levelSizeTargets.clone();
+    }
+
+    long targetFileSize() {
+        return targetFileSize;
+    }
+
+    @NotNull
+    CompactionStyle compactionStyle() {
+        return compactionStyle;
+    }
+
+    int mergeWidth() {
+        return mergeWidth;
+    }
+
+    int bloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    int blockSize() {
+        return blockSize;
+    }
+
+    long blockCacheSize() {
+        return blockCacheSize;
+    }
+
+    @NotNull
+    Compression compression() {
+        return compression;
+    }
+
+    double traceSampleRate() {
+        return traceSampleRate;
+    }
+
+    long traceThresholdNanos() {
+        return traceThresholdNanos;
+    }
+
+    /**
+     * Values of at least that many bytes are flushed to {@link ValueLog}s, {@link Integer#MAX_VALUE}
+     * if values are not separated.
+     */
+    int minSeparatedValue() {
+        return minSeparatedValue;
+    }
+
+    double valueLogGarbageRatio() {
+        return valueLogGarbageRatio;
+    }
+
+    /**
+     * Bytes per second the {@link Scrubber} reads, {@code 0} if tables are not scrubbed.
+     */
+    long scrubRate() {
+        return scrubRate;
+    }
+
+    int scrubThreads() {
+        return scrubThreads;
+    }
+
+    @Nullable
+    PrefixExtractor prefixExtractor() {
+        return prefixExtractor;
+    }
+
+    /**
+     * Accumulates {@link Config} settings.
+     */
+    public static final class Builder {
+        private long flushThreshold = 16L * 1024 * 1024;
+        private SyncPolicy syncPolicy = SyncPolicy.periodic(100L);
+        private int level0Trigger = 4;
+        private long[] levelSizeTargets = {64L * 1024 * 1024, 640L * 1024 * 1024, 6400L * 1024 * 1024};
+        private long targetFileSize = 32L * 1024 * 1024;
+        private CompactionStyle compactionStyle = CompactionStyle.LEVELED;
+        private int mergeWidth = 4;
+        private int bloomBitsPerKey = 10;
+        private int blockSize = 4 * 1024;
+        private long blockCacheSize = 16L * 1024 * 1024;
+        private Compression compression = Compression.LZ;
+        private double traceSampleRate;
+        private long traceThresholdNanos = Long.MAX_VALUE;
+        private int minSeparatedValue = Integer.MAX_VALUE;
+        private double valueLogGarbageRatio = 0.5;
+        private long scrubRate;
+        private int scrubThreads = 1;
+        private PrefixExtractor prefixExtractor;
+
+        private Builder() {
+            // Use Config.builder()
+        }
+
+        /**
+         * Off-heap bytes a memtable may take before it is flushed to disk.
+         */
+        @NotNull
+        public Builder flushThreshold(final long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive flush threshold: " + bytes);
+            }
+            this.flushThreshold = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Builder syncPolicy(@NotNull final SyncPolicy syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * Number of flushed tables which triggers their compaction into level 1.
+         */
+        @NotNull
+        public Builder level0Trigger(final int tables) {
+            if (tables <= 0) {
+                throw new IllegalArgumentException("Non-positive level 0 trigger: " + tables);
+            }
+            this.level0Trigger = tables;
+            return this;
+        }
+
+        /**
+         * Size targets of levels starting from level 1, the last one applies to all deeper levels.
+         */
+        @NotNull
+        public Builder levelSizeTargets(final long... bytes) {
+            if (bytes.length == 0) {
+                throw new IllegalArgumentException("No level size targets");
+            }
+            for (final long target : bytes) {
+                if (target <= 0) {
+                    throw new IllegalArgumentException("Non-positive level size target: " + target);
+                }
+            }
+            this.levelSizeTargets = bytes.clone();
+            return this;
+        }
+
+        /**
+         * Approximate size of tables produced by compaction.
+         */
+        @NotNull
+        public Builder targetFileSize(final long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive target file size: " + bytes);
+            }
+            this.targetFileSize = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Builder compactionStyle(@NotNull final CompactionStyle compactionStyle) {
+            this.compactionStyle = compactionStyle;
+            return this;
+        }
+
+        /**
+         * Number of similarly sized tables which size-tiered compaction merges into one.
+         */
+        @NotNull
+        public Builder mergeWidth(final int tables) {
+            if (tables < 2) {
+                throw new IllegalArgumentException("Merge width less than 2: " + tables);
+            }
+            this.mergeWidth = tables;
+            return this;
+        }
+
+        /**
+         * Size of table Bloom filters, ten bits per key give about one percent of false positives.
+         * Zero disables the filters.
+         */
+        @NotNull
+        public Builder bloomBitsPerKey(final int bits) {
+            if (bits < 0 || bits > 64) {
+                throw new IllegalArgumentException("Bloom filter bits per key out of [0, 64]: " + bits);
+            }
+            this.bloomBitsPerKey = bits;
+            return this;
+        }
+
+        /**
+         * Approximate size of table blocks, a block is the unit of reading and caching.
+         * A cell bigger than that takes a block of its own.
+         */
+        @NotNull
+        public Builder blockSize(final int bytes) {
+            if (bytes < 64) {
+                throw new IllegalArgumentException("Block size less than 64 bytes: " + bytes);
+            }
+            this.blockSize = bytes;
+            return this;
+        }
+
+        /**
+         * Off-heap bytes of blocks kept in memory between reads, zero disables the cache.
+         */
+        @NotNull
+        public Builder blockCacheSize(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative block cache size: " + bytes);
+            }
+            this.blockCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Compression of blocks in new tables, existing tables are read whatever they use.
+         */
+        @NotNull
+        public Builder compression(@NotNull final Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Traces {@code get} and {@code iterator} calls, the given share of them and the ones
+         * taking at least {@code thresholdMicros}, see {@link LsmDAO#traces()}. Disabled by default.
+         *
+         * @param sampleRate share of the calls to trace from 0 to 1
+         * @param thresholdMicros duration of the calls to trace whether sampled or not,
+         *                        {@link Long#MAX_VALUE} to trace by sampling only
+         */
+        @NotNull
+        public Builder tracing(
+                final double sampleRate,
+                final long thresholdMicros) {
+            if (!(sampleRate >= 0.0 && sampleRate <= 1.0)) {
+                throw new IllegalArgumentException("Trace sample rate out of [0, 1]: " + sampleRate);
+            }
+            if (thresholdMicros < 0) {
+                throw new IllegalArgumentException("Negative trace threshold: " + thresholdMicros);
+            }
+            this.traceSampleRate = sampleRate;
+            this.traceThresholdNanos = thresholdMicros == Long.MAX_VALUE
+                    ? Long.MAX_VALUE
+                    : TimeUnit.MICROSECONDS.toNanos(thresholdMicros);
+            return this;
+        }
+
+        /**
+         * Keeps values of at least {@code minValueBytes} out of tables in value logs, so that compaction
+         * rewrites small pointers to them instead of the values. A log is collected once the given share
+         * of it is garbage, that is values overwritten or removed. Disabled by default.
+         *
+         * @param minValueBytes size of the values to separate
+         * @param garbageRatio share of garbage in a log from 0 exclusive to 1 which makes it collected
+         */
+        @NotNull
+        public Builder valueSeparation(
+                final int minValueBytes,
+                final double garbageRatio) {
+            if (minValueBytes <= 0) {
+                throw new IllegalArgumentException("Non-positive separated value size: " + minValueBytes);
+            }
+            if (!(garbageRatio > 0.0 && garbageRatio <= 1.0)) {
+                throw new IllegalArgumentException("Value log garbage ratio out of (0, 1]: " + garbageRatio);
+            }
+            this.minSeparatedValue = minValueBytes;
+            this.valueLogGarbageRatio = garbageRatio;
+            return this;
+        }
+
+        /**
+         * Verifies the checksums of whole tables in the background over and over, reading at most
+         * {@code bytesPerSecond} in total. Corrupted tables are reported in {@link LsmDAO#stats()}.
+         * Disabled by default, blocks are verified anyway when read from disk.
+         *
+         * @param bytesPerSecond read rate of all the threads together
+         * @param threads how many tables to verify at once
+         */
+        @NotNull
+        public Builder scrubbing(
+                final long bytesPerSecond,
+                final int threads) {
+            if (bytesPerSecond <= 0) {
+                throw new IllegalArgumentException("Non-positive scrub rate: " + bytesPerSecond);
+            }
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Non-positive scrub threads: " + threads);
+            }
+            this.scrubRate = bytesPerSecond;
+            this.scrubThreads = threads;
+            return this;
+        }
+
+        /**
+         * Prefixes of the keys new tables keep a filter of besides the whole keys, so that
+         * {@link ru.mail.polis.DAO#prefix} skips the tables without the prefix. The filter takes as many bits
+         * per prefix as {@link #bloomBitsPerKey(int)} per key. Disabled by default.
+         */
+        @NotNull
+        public Builder prefixExtractor(@NotNull final PrefixExtractor extractor) {
+            this.prefixExtractor = extractor;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            return new Config(this);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Stats;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Exports the statistics of a storage to the platform MBean server.
+ *
+ * <p>Gathering the statistics picks a compaction and walks every table, so the attributes are read
+ * from a snapshot taken at most {@link #TTL_NANOS} ago rather than a fresh one each. A monitoring tool
+ * polling every attribute thus gathers them once and gets them consistent with each other.
+ */
+final class JmxStats implements StatsMXBean {
+    private static final Logger log = LoggerFactory.getLogger(JmxStats.class);
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Supplier<Stats> source;
+
+    // Guarded by this
+    @Nullable
+    private Stats cached;
+    private long cachedAt;
+
+    private JmxStats(@NotNull final Supplier<Stats> source) {
+        this.source = source;
+    }
+
+    /**
+     * Registers the statistics of the storage in the directory.
+     * A failure is only logged, since the storage works without JMX too.
+     *
+     * @return the name to {@link #unregister(ObjectName)} or {@code null} if not registered
+     */
+    @Nullable
+    static ObjectName register(
+            @NotNull final Path dir,
+            @NotNull final Supplier<Stats> stats) {
+        try {
+            final ObjectName name = new ObjectName(
+                    "ru.mail.polis:type=LsmDAO,dir=" + ObjectName.quote(dir.toAbsolutePath().toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxStats(stats), name);
+            return name;
+        } catch (JMException e) {
+            log.warn("Can't export statistics of {} to JMX", dir, e);
+            return null;
+        }
+    }
+
+    static void unregister(@Nullable final ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            log.warn("Can't unregister {}", name, e);
+        }
+    }
+
+    @Override
+    public long getMemTableBytes() {
+        return stats().memTableBytes();
+    }
+
+    @Override
+    public int getFrozenMemTables() {
+        return stats().frozenMemTables();
+    }
+
+    @Override
+    public int[] getLevelTables() {
+        final int[] result = new int[Table.LEVELS];
+        for (final Stats.Level level : stats().levels()) {
+            result[level.level()] = level.tables();
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getLevelBytes() {
+        final long[] result = new long[Table.LEVELS];
+        for (final Stats.Level level : stats().levels()) {
+            result[level.level()] = level.bytes();
+        }
+        return result;
+    }
+
+    @Override
+    public long getFlushedBytes() {
+        return stats().flushedBytes();
+    }
+
+    @Override
+    public long getCompactedBytes() {
+        return stats().compactedBytes();
+    }
+
+    @Override
+    public long getCompactionBacklogBytes() {
+        return stats().compactionBacklogBytes();
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        return stats().writeAmplification();
+    }
+
+    @Override
+    public double getReadAmplification() {
+        return stats().readAmplification();
+    }
+
+    @Override
+    public long getBlockCacheHits() {
+        return stats().blockCacheHits();
+    }
+
+    @Override
+    public long getBlockCacheMisses() {
+        return stats().blockCacheMisses();
+    }
+
+    @Override
+    public long getValueLogBytes() {
+        return stats().valueLogBytes();
+    }
+
+    @Override
+    public long getValueLogLiveBytes() {
+        return stats().valueLogLiveBytes();
+    }
+
+    @Override
+    public long getScrubbedBytes() {
+        return stats().scrubbedBytes();
+    }
+
+    @Override
+    public int getCorruptTables() {
+        return stats().corruptTables();
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        return operations(Stats.Latency::count);
+    }
+
+    @Override
+    public Map<String, Long> getP50LatencyNanos() {
+        return operations(Stats.Latency::p50);
+    }
+
+    @Override
+    public Map<String, Long> getP99LatencyNanos() {
+        return operations(Stats.Latency::p99);
+    }
+
+    @Override
+    public Map<String, Long> getP999LatencyNanos() {
+        return operations(Stats.Latency::p999);
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyNanos() {
+        return operations(Stats.Latency::max);
+    }
+
+    @NotNull
+    private synchronized Stats stats() {
+        final long now = System.nanoTime();
+        if (cached == null || now - cachedAt >= TTL_NANOS) {
+            cached = source.get();
+            cachedAt = now;
+        }
+        return cached;
+    }
+
+    @NotNull
+    private Map<String, Long> operations(@NotNull final ToLongFunction<Stats.Latency> metric) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        stats().operations().forEach((name, latency) -> result.put(name, metric.applyAsLong(latency)));
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks compactions keeping every level but the first one a single sorted run.
+ *
+ * <p>Level 0 is compacted into level 1 as a whole once it holds enough tables.
+ * A deeper level which exceeds its size target pushes one table to the next level,
+ * the one overlapping the fewest bytes there, so every compaction rewrites as little as possible.
+ */
+final class LeveledCompaction implements CompactionStrategy {
+    private final int level0Trigger;
+    private final long[] levelTargets;
+
+    LeveledCompaction(@NotNull final Config config) {
+        this.level0Trigger = config.level0Trigger();
+        this.levelTargets = config.levelSizeTargets();
+    }
+
+    @Nullable
+    @Override
+    public Compaction pick(@NotNull final TableSet tableSet) {
+        final List<SSTable> level0 = tableSet.level(0);
+        double bestScore = (double) level0.size() / level0Trigger;
+        int bestLevel = 0;
+        for (int level = 1; level < Table.LEVELS - 1; level++) {
+            final double score = (double) bytes(tableSet.level(level)) / target(level);
+            if (score > bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        if (bestScore < 1.0) {
+            return null;
+        }
+
+        final List<SSTable> inputs = new ArrayList<>();
+        if (bestLevel == 0) {
+            inputs.addAll(level0);
+        } else {
+            inputs.add(leastOverlapping(tableSet.level(bestLevel), tableSet.level(bestLevel + 1)));
+        }
+        final ByteBuffer from = smallest(inputs);
+        final ByteBuffer to = largest(inputs);
+        inputs.addAll(overlapping(tableSet.level(bestLevel + 1), from, to));
+
+        boolean bottom = true;
+        for (int level = bestLevel + 2; level < Table.LEVELS && bottom; level++) {
+            bottom = overlapping(tableSet.level(level), from, to).isEmpty();
+        }
+        return new Compaction(inputs, bestLevel + 1, bottom);
+    }
+
+    private long target(final int level) {
+        return levelTargets[Math.min(level, levelTargets.length) - 1];
+    }
+
+    @NotNull
+    private static SSTable leastOverlapping(
+            @NotNull final List<SSTable> candidates,
+            @NotNull final List<SSTable> next) {
+        SSTable best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (final SSTable candidate : candidates) {
+            final long overlap = bytes(overlapping(next, candidate.firstKey(), candidate.lastKey()));
+            final double score = (double) overlap / candidate.sizeInBytes();
+            if (score < bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        assert best != null;
+        return best;
+    }
+
+    @NotNull
+    private static List<SSTable> overlapping(
+            @NotNull final List<SSTable> tables,
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        final List<SSTable> result = new ArrayList<>();
+        for (final SSTable table : tables) {
+            if (table.overlaps(from, to)) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    private static long bytes(@NotNull final List<SSTable> tables) {
+        return tables.stream().mapToLong(SSTable::sizeInBytes).sum();
+    }
+
+    @NotNull
+    private static ByteBuffer smallest(@NotNull final List<SSTable> tables) {
+        ByteBuffer result = tables.get(0).firstKey();
+        for (final SSTable table : tables) {
+            if (table.firstKey().compareTo(result) < 0) {
+                result = table.firstKey();
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    private static ByteBuffer largest(@NotNull final List<SSTable> tables) {
+        ByteBuffer result = tables.get(0).lastKey();
+        for (final SSTable table : tables) {
+            if (table.lastKey().compareTo(result) > 0) {
+                result = table.lastKey();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,1103 @@
+package ru.mail.polis.medalexey;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Iters;
+import ru.mail.polis.Record;
+import ru.mail.polis.Snapshot;
+import ru.mail.polis.Stats;
+import ru.mail.polis.WriteBatch;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Log-structured {@link DAO} buffering writes in an off-heap {@link MemTable}
+ * and flushing them to immutable {@link SSTable}s.
+ *
+ * <p>Every write is first appended to the {@link WriteAheadLog} of the current memtable,
+ * the log is deleted once the memtable is flushed and replayed if the storage
+ * was not closed properly.
+ *
+ * <p>Flushes and compactions take effect when recorded in the {@link Manifest}, which lists
+ * the live tables along with their key ranges. Opening the storage only replays the manifest:
+ * a table file is mapped and its filter is read on the first access, reads touching many tables
+ * at once load them in parallel. Prefix scans skip the tables the key range of which misses the prefix
+ * without loading them, as well as the ones the prefix filter rules out if a {@link PrefixExtractor} is set.
+ *
+ * <p>A full memtable is frozen and persisted by a background flusher while a fresh one
+ * takes writes, so writers do not wait for the disk unless the flusher falls behind.
+ * Flushed tables are then merged in the background by the {@link CompactionStrategy}
+ * selected with {@link Config.Builder#compactionStyle(CompactionStyle)}.
+ *
+ * <p>Writers only serialize on a short sequencer section, which stamps the write with the next
+ * sequence number and appends it to the log, and then put it to the lock-free memtable
+ * concurrently. A write becomes visible to readers all at once after it is applied to the memtable
+ * and all the preceding writes are visible, reads never block. Reads observe the tables as of the latest
+ * visible sequence number, a {@link Snapshot} as of the one it was taken at, and flushes
+ * and compactions keep the versions open snapshots still observe.
+ *
+ * <p>Values of at least {@link Config#minSeparatedValue()} bytes may be flushed to {@link ValueLog}s
+ * rather than to the tables, so compactions move small pointers around instead of big values.
+ * Logs are collected by rewriting the tables pointing to them, which is done by the compactor
+ * when no compaction is due, see {@link ValueLogs#collection}.
+ *
+ * <p>Blocks are checksummed and verified when read from disk, a {@link Scrubber} may verify whole
+ * tables in the background, see {@link Config.Builder#scrubbing}.
+ *
+ * <p>Operation latencies, table sizes and amplification are available from {@link #stats()},
+ * which is also exported over JMX by a {@link StatsMXBean}.
+ */
+public final class LsmDAO implements DAO {
+    private static final Logger log = LoggerFactory.getLogger(LsmDAO.class);
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_FLUSHING = 2;
+    private static final Pattern FILE_NAME = Pattern.compile(
+            "(\\d{1,18})(" + Pattern.quote(SSTable.SUFFIX) + "|" + Pattern.quote(WriteAheadLog.SUFFIX) + ")");
+
+    private final Path dir;
+    private final Config config;
+    private final CompactionStrategy compactionStrategy;
+    private final BlockCache blockCache;
+    private final ValueLogs valueLogs;
+    private final Manifest manifest;
+    private final AtomicLong nextGeneration;
+    private final AtomicLong flushedBytes = new AtomicLong();
+    private final AtomicLong compactedBytes = new AtomicLong();
+    private final ExecutorService flusher;
+    private final ExecutorService compactor;
+    private final ExecutorService loader;
+    @Nullable
+    private final ScheduledExecutorService syncer;
+    @Nullable
+    private final ScheduledFuture<?> syncTask;
+    @Nullable
+    private final Scrubber scrubber;
+
+    // Replaced under both this and the sequencer
+    private volatile TableSet tableSet;
+    private volatile WriteAheadLog wal;
+    private volatile long visibleSequence;
+    @Nullable
+    private volatile IOException flushFailure;
+
+    // Keeps the log in sequence number order and pairs every write with the memtable of its log
+    private final Object sequencer = new Object();
+    private final Metrics metrics = new Metrics();
+    @Nullable
+    private final ObjectName mbean;
+    @Nullable
+    private final Tracer tracer;
+    // Guarded by sequencer
+    private long lastSequence;
+
+    // Guarded by this
+    private final Map<MemTable, WriteAheadLog> frozenLogs = new IdentityHashMap<>();
+    private final Set<LsmSnapshot> snapshots = new HashSet<>();
+    private boolean compacting;
+    // Written under the sequencer too
+    private boolean closed;
+
+    public LsmDAO(@NotNull final File dir) throws IOException {
+        this(dir, Config.defaults());
+    }
+
+    /**
+     * Opens storage in the given directory picking up the tables listed in the manifest
+     * and replaying logs left by an unclean shutdown. Tables are not read until accessed.
+     */
+    public LsmDAO(
+            @NotNull final File dir,
+            @NotNull final Config config) throws IOException {
+        this.dir = dir.toPath();
+        this.config = config;
+        this.compactionStrategy = CompactionStrategy.of(config);
+        this.tracer = Tracer.of(config);
+        this.blockCache = new BlockCache(config.blockCacheSize());
+        this.valueLogs = new ValueLogs(this.dir);
+
+        Compaction.recover(this.dir);
+        final NavigableMap<Long, Path> tableFiles = new TreeMap<>();
+        final NavigableMap<Long, Path> logFiles = new TreeMap<>();
+        try (Stream<Path> files = Files.list(this.dir)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                final Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Files.isRegularFile(file)) {
+                    final boolean table = SSTable.SUFFIX.equals(matcher.group(2));
+                    (table ? tableFiles : logFiles).put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+
+        final Manifest.State state = Manifest.read(this.dir);
+        final List<SSTable> loaded = new ArrayList<>(tableFiles.size() + logFiles.size());
+        if (state == null) {
+            // Written before there was a manifest, every complete table is live
+            for (final Map.Entry<Long, Path> entry : tableFiles.entrySet()) {
+                loaded.add(open(entry.getValue(), entry.getKey()));
+            }
+        } else {
+            for (final ByteBuffer description : state.tables().values()) {
+                final SSTable table = SSTable.openLazily(this.dir, description, blockCache, valueLogs);
+                if (!tableFiles.containsKey(table.generation())) {
+                    throw new IOException("Missing table " + table.generation() + " of manifest version "
+                            + state.version());
+                }
+                loaded.add(table);
+            }
+            for (final Map.Entry<Long, Path> entry : tableFiles.entrySet()) {
+                if (!state.tables().containsKey(entry.getKey())) {
+                    log.info("Deleting table {} missing from the manifest", entry.getValue());
+                    Files.delete(entry.getValue());
+                }
+            }
+        }
+        this.manifest = Manifest.open(this.dir, state, loaded);
+        final Set<Long> live = new HashSet<>();
+        for (final SSTable table : loaded) {
+            live.add(table.generation());
+        }
+        long sequence = loaded.stream().mapToLong(SSTable::maxSequence).max().orElse(0L);
+        for (final Map.Entry<Long, Path> entry : logFiles.entrySet()) {
+            if (!live.contains(entry.getKey())) {
+                final Optional<SSTable> recovered = recover(entry.getValue(), entry.getKey(), sequence);
+                if (recovered.isPresent()) {
+                    loaded.add(recovered.get());
+                    sequence = recovered.get().maxSequence();
+                }
+            }
+            Files.delete(entry.getValue());
+        }
+        valueLogs.deleteUnreferenced(loaded);
+        this.lastSequence = sequence;
+        this.visibleSequence = sequence;
+        loaded.sort(Comparator.comparingLong(SSTable::precedence).reversed());
+
+        final long generation = Math.max(
+                Math.max(
+                        loaded.stream().mapToLong(SSTable::generation).max().orElse(-1L),
+                        tableFiles.isEmpty() ? -1L : tableFiles.lastKey()),
+                logFiles.isEmpty() ? -1L : logFiles.lastKey()) + 1;
+        this.nextGeneration = new AtomicLong(generation + 1);
+        this.tableSet = new TableSet(new MemTable(generation, SLAB_SIZE), new ArrayList<>(), loaded);
+        this.wal = WriteAheadLog.create(logFile(generation), config.syncPolicy());
+        this.flusher = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("lsm-flusher-%d").setDaemon(true).build());
+        this.compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("lsm-compactor-%d").setDaemon(true).build());
+        this.loader = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setNameFormat("lsm-loader-%d").setDaemon(true).build());
+
+        final SyncPolicy policy = config.syncPolicy();
+        if (policy.mode() == SyncPolicy.Mode.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("lsm-wal-sync-%d").setDaemon(true).build());
+            this.syncTask = syncer.scheduleWithFixedDelay(
+                    this::syncLog,
+                    policy.intervalMillis(),
+                    policy.intervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+            this.syncTask = null;
+        }
+
+        this.scrubber = config.scrubRate() == 0
+                ? null
+                : new Scrubber(() -> tableSet.tables, config.scrubRate(), config.scrubThreads());
+        this.mbean = JmxStats.register(this.dir, this::stats);
+        scheduleCompaction();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+        final long start = System.nanoTime();
+        try {
+            return traced("iterator", from, () -> {
+                // Tables first, so that they hold everything up to the sequence number
+                final List<Table> tables = tableSet.all();
+                load(tables);
+                return records(Cell.merge(tables, from, visibleSequence));
+            });
+        } finally {
+            metrics.record(Metrics.Operation.ITERATOR, start);
+        }
+    }
+
+    /**
+     * Skips the tables the key ranges and the prefix filters of which rule the prefix out,
+     * see {@link Config.Builder#prefixExtractor}.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> prefix(@NotNull final ByteBuffer prefix) {
+        final long start = System.nanoTime();
+        try {
+            return traced("prefix", prefix, () -> prefixed(tableSet.all(), prefix, visibleSequence));
+        } finally {
+            metrics.record(Metrics.Operation.PREFIX, start);
+        }
+    }
+
+    /**
+     * Seeks backwards in every table, so taking the last few records of a range reads just as many cells.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> descendingIterator(@Nullable final ByteBuffer from) {
+        final long start = System.nanoTime();
+        try {
+            return traced("descendingIterator", from == null ? ByteBuffer.allocate(0) : from, () -> {
+                final List<Table> tables = tableSet.all();
+                load(tables);
+                return records(Cell.mergeDescending(tables, from, visibleSequence));
+            });
+        } finally {
+            metrics.record(Metrics.Operation.DESCENDING_ITERATOR, start);
+        }
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
+        final long start = System.nanoTime();
+        final Tracer.Recorder trace = tracer == null ? null : tracer.start("get", key);
+        try {
+            final List<Table> tables = tableSet.all();
+            return lookup(tables, key, visibleSequence, metrics);
+        } finally {
+            if (trace != null) {
+                tracer.finish(trace);
+            }
+            metrics.record(Metrics.Operation.GET, start);
+        }
+    }
+
+    /**
+     * Resolves the key by the memtables only, which is the case for recent writes and removals.
+     */
+    @Nullable
+    @Override
+    public ByteBuffer tryGet(@NotNull final ByteBuffer key) throws NoSuchElementException {
+        final Cell cell = resolve(tableSet.inMemory(), key, visibleSequence, null);
+        if (cell == null) {
+            return null;
+        }
+        if (cell.isTombstone()) {
+            throw new NoSuchElementException("Not found");
+        }
+        return cell.getValue();
+    }
+
+    /**
+     * Looks the keys up in ascending order, so that every table is consulted once for all of them
+     * and the keys of a single table block share a single block read. A key is resolved by
+     * the newest table having a cell or a range tombstone for it.
+     */
+    @NotNull
+    @Override
+    public Map<ByteBuffer, ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) {
+        final long start = System.nanoTime();
+        // Keyed by the first key asked for, the steps tell the rest apart by the tables
+        final Tracer.Recorder trace = tracer == null || keys.isEmpty()
+                ? null
+                : tracer.start("getAll", keys.iterator().next());
+        try {
+            return lookupAll(keys);
+        } finally {
+            if (trace != null) {
+                tracer.finish(trace);
+            }
+            metrics.record(Metrics.Operation.GET_ALL, start);
+        }
+    }
+
+    /**
+     * Collects what the storage has for the keys, a key with the newest cell being a tombstone
+     * or covered by a newer range tombstone has nothing.
+     */
+    @NotNull
+    private Map<ByteBuffer, ByteBuffer> lookupAll(@NotNull final Collection<ByteBuffer> keys) {
+        final List<Table> tables = tableSet.all();
+        load(tables);
+        final long snapshot = visibleSequence;
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        List<ByteBuffer> pending = new ArrayList<>(new TreeSet<>(keys));
+        for (final Table table : tables) {
+            if (pending.isEmpty()) {
+                break;
+            }
+            final boolean persisted = table instanceof SSTable;
+            Tracer.step(
+                    persisted ? Trace.Kind.TABLE : Trace.Kind.MEMTABLE,
+                    table.generation(),
+                    persisted ? ((SSTable) table).level() : 0);
+            final Cell[] cells = table.get(pending, snapshot);
+            final RangeTombstones rangeTombstones = table.rangeTombstones();
+            final List<ByteBuffer> unresolved = new ArrayList<>(pending.size());
+            for (int i = 0; i < cells.length; i++) {
+                final ByteBuffer key = pending.get(i);
+                final long removed = rangeTombstones.newest(key, snapshot);
+                if (cells[i] == null || cells[i].sequence() < removed) {
+                    if (removed < 0) {
+                        unresolved.add(key);
+                    }
+                } else if (!cells[i].isTombstone()) {
+                    result.put(key, cells[i].getValue());
+                }
+            }
+            pending = unresolved;
+        }
+        return result;
+    }
+
+    /**
+     * Takes a snapshot as of the latest visible write, the snapshot reads the current tables
+     * and keeps flushes and compactions from dropping what it observes until it is closed.
+     */
+    @NotNull
+    @Override
+    public synchronized Snapshot snapshot() {
+        if (closed) {
+            throw new IllegalStateException("Storage is closed");
+        }
+        final LsmSnapshot snapshot = new LsmSnapshot(visibleSequence);
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            mutate(
+                    target -> target.append(key, value),
+                    (memTable, sequence) -> memTable.put(Cell.of(key, value, sequence)));
+        } finally {
+            metrics.record(Metrics.Operation.UPSERT, start);
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            mutate(
+                    target -> target.append(key, null),
+                    (memTable, sequence) -> memTable.put(Cell.tombstone(key, sequence)));
+        } finally {
+            metrics.record(Metrics.Operation.REMOVE, start);
+        }
+    }
+
+    /**
+     * Logs the whole batch as a single record and puts it to the memtable in key order
+     * under a single sequence number, so it is recovered and becomes visible either
+     * completely or not at all.
+     */
+    @Override
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            final int[] order = latestInKeyOrder(batch);
+            mutate(
+                    target -> target.appendBatch(batch, order),
+                    (memTable, sequence) -> {
+                        final List<Cell> cells = new ArrayList<>(order.length);
+                        for (final int i : order) {
+                            final ByteBuffer value = batch.value(i);
+                            final ByteBuffer key = batch.key(i);
+                            cells.add(value == null ? Cell.tombstone(key, sequence) : Cell.of(key, value, sequence));
+                        }
+                        memTable.apply(cells);
+                    });
+        } finally {
+            metrics.record(Metrics.Operation.WRITE, start);
+        }
+    }
+
+    /**
+     * Writes a single range tombstone however many keys the range holds. Reads skip the whole
+     * range with a single seek, compaction drops the covered cells.
+     */
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        if (from.compareTo(to) >= 0) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            mutate(
+                    target -> target.appendRangeRemoval(from, to),
+                    (memTable, sequence) -> memTable.removeRange(from, to, sequence));
+        } finally {
+            metrics.record(Metrics.Operation.REMOVE_RANGE, start);
+        }
+    }
+
+    /**
+     * Takes the statistics, the compaction backlog being the input of the compaction
+     * the strategy would start right now.
+     */
+    @NotNull
+    @Override
+    public Stats stats() {
+        final TableSet tables = tableSet;
+        final Stats.Builder result = Stats.builder();
+        long memTableBytes = tables.memTable.sizeInBytes();
+        for (final MemTable frozen : tables.flushing) {
+            memTableBytes += frozen.sizeInBytes();
+        }
+        result.memTables(memTableBytes, tables.flushing.size());
+        for (int level = 0; level < Table.LEVELS; level++) {
+            final List<SSTable> persisted = tables.level(level);
+            if (!persisted.isEmpty()) {
+                final long bytes = persisted.stream().mapToLong(SSTable::sizeInBytes).sum();
+                result.level(new Stats.Level(level, persisted.size(), bytes));
+            }
+        }
+        final Map<ValueLog, Long> liveValues = ValueLogs.liveBytes(tables.tables);
+        result.valueLogs(
+                liveValues.keySet().stream().mapToLong(ValueLog::sizeInBytes).sum(),
+                liveValues.values().stream().mapToLong(Long::longValue).sum());
+        final Compaction due = compactionStrategy.pick(tables);
+        result.written(flushedBytes.get(), compactedBytes.get())
+                .compactionBacklogBytes(due == null ? 0L : due.inputBytes())
+                .amplification(writeAmplification(), metrics.readAmplification())
+                .blockCache(blockCache.hits(), blockCache.misses());
+        if (scrubber != null) {
+            result.scrub(scrubber.scrubbedBytes(), scrubber.corruptTables());
+        }
+        metrics.report(result);
+        return result.build();
+    }
+
+    /**
+     * Bytes flushed and compacted to disk per byte flushed since the storage was opened,
+     * {@code 1.0} means nothing was rewritten by compaction yet.
+     *
+     * @return {@link Double#NaN} until something is flushed, since bytes compacted before that
+     *         have nothing to be compared to
+     */
+    public double writeAmplification() {
+        final long flushed = flushedBytes.get();
+        return flushed == 0 ? Double.NaN : (double) (flushed + compactedBytes.get()) / flushed;
+    }
+
+    /**
+     * Table block reads served from the block cache since the storage was opened.
+     */
+    public long blockCacheHits() {
+        return blockCache.hits();
+    }
+
+    /**
+     * Table block reads which missed the block cache since the storage was opened.
+     */
+    public long blockCacheMisses() {
+        return blockCache.misses();
+    }
+
+    /**
+     * Traces of the latest sampled or slow reads, oldest first, if enabled by {@link Config.Builder#tracing}.
+     */
+    @NotNull
+    public List<Trace> traces() {
+        return tracer == null ? Collections.emptyList() : tracer.traces();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            synchronized (sequencer) {
+                closed = true;
+            }
+        }
+        JmxStats.unregister(mbean);
+        if (tracer != null) {
+            tracer.close();
+        }
+        if (scrubber != null) {
+            scrubber.close();
+        }
+
+        if (syncTask != null) {
+            syncTask.cancel(false);
+            syncer.shutdown();
+        }
+
+        // Let background flushes and the running compaction finish
+        await(flusher);
+        await(compactor);
+        await(loader);
+
+        synchronized (this) {
+            // Retry whatever failed in the background, oldest first
+            final List<MemTable> frozen = new ArrayList<>(tableSet.flushing);
+            Collections.reverse(frozen);
+            final Retention retention = retention();
+            for (final MemTable memTable : frozen) {
+                persist(memTable, frozenLogs.remove(memTable), retention);
+            }
+            persist(tableSet.memTable, wal, retention);
+        }
+        manifest.close();
+        log.info(
+                "{} compaction achieved write amplification {} ({} bytes flushed, {} bytes compacted)",
+                config.compactionStyle(),
+                String.format(Locale.ROOT, "%.2f", writeAmplification()),
+                flushedBytes.get(),
+                compactedBytes.get());
+    }
+
+    private void mutate(
+            @NotNull final Append append,
+            @NotNull final Apply apply) throws IOException {
+        final WriteAheadLog target;
+        final MemTable memTable;
+        final long position;
+        final long sequence;
+        synchronized (sequencer) {
+            if (closed) {
+                throw new IllegalStateException("Storage is closed");
+            }
+            final IOException failure = flushFailure;
+            if (failure != null) {
+                throw new IOException("Background flush failed", failure);
+            }
+
+            target = wal;
+            memTable = tableSet.memTable;
+            position = append.to(target);
+            sequence = ++lastSequence;
+            memTable.acquire();
+        }
+        try {
+            apply.to(memTable, sequence);
+            // Outside of the lock, so that concurrent writers share a sync, but before publishing,
+            // so that readers never observe a write the policy has not yet made durable
+            target.commit(position);
+        } finally {
+            // Even a write whose commit failed is published, not to stall the later ones,
+            // which the broken log refuses anyway
+            publish(sequence);
+            memTable.release();
+        }
+
+        if (memTable.sizeInBytes() >= config.flushThreshold()) {
+            synchronized (this) {
+                freeze(memTable);
+            }
+        }
+    }
+
+    /**
+     * Makes the write visible once all the preceding ones are, so that readers never observe a gap.
+     */
+    private void publish(final long sequence) {
+        while (visibleSequence != sequence - 1) {
+            Thread.yield();
+        }
+        visibleSequence = sequence;
+    }
+
+    /**
+     * Indices of the batch writes sorted by key, only the last write of every key is kept.
+     */
+    @NotNull
+    private static int[] latestInKeyOrder(@NotNull final WriteBatch batch) {
+        final List<Integer> indices = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            indices.add(i);
+        }
+        // Stable, so the writes of a key keep their order
+        indices.sort(Comparator.comparing(batch::key));
+
+        final List<Integer> result = new ArrayList<>(indices.size());
+        for (int i = 0; i < indices.size(); i++) {
+            if (i + 1 == indices.size() || !batch.key(indices.get(i)).equals(batch.key(indices.get(i + 1)))) {
+                result.add(indices.get(i));
+            }
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @NotNull
+    private static Iterator<Record> records(@NotNull final Iterator<Cell> cells) {
+        return Iterators.transform(cells, cell -> Record.of(cell.getKey(), cell.getValue()));
+    }
+
+    /**
+     * Opens the iterator traced until it is exhausted if tracing is enabled.
+     */
+    @NotNull
+    private Iterator<Record> traced(
+            @NotNull final String operation,
+            @NotNull final ByteBuffer key,
+            @NotNull final Supplier<Iterator<Record>> open) {
+        return tracer == null ? open.get() : tracer.iterate(operation, key, open);
+    }
+
+    @NotNull
+    private Iterator<Record> prefixed(
+            @NotNull final List<Table> all,
+            @NotNull final ByteBuffer prefix,
+            final long snapshot) {
+        final List<Table> tables = new ArrayList<>(all.size());
+        for (final Table table : all) {
+            if (table.mightContainPrefix(prefix, config.prefixExtractor())) {
+                tables.add(table);
+            }
+        }
+        load(tables);
+        return Iters.takeWhile(records(Cell.merge(tables, prefix, snapshot)), record -> record.hasPrefix(prefix));
+    }
+
+    /**
+     * Loads the tables not accessed yet in parallel, a single one is left to be loaded on access.
+     *
+     * @throws UncheckedIOException if a table can't be loaded
+     */
+    private void load(@NotNull final List<Table> tables) {
+        final List<SSTable> unloaded = new ArrayList<>();
+        for (final Table table : tables) {
+            if (table instanceof SSTable && !((SSTable) table).isLoaded()) {
+                unloaded.add((SSTable) table);
+            }
+        }
+        if (unloaded.size() < 2) {
+            return;
+        }
+        try {
+            final List<Future<?>> loads = new ArrayList<>(unloaded.size());
+            for (final SSTable table : unloaded) {
+                loads.add(loader.submit(table::load));
+            }
+            for (final Future<?> load : loads) {
+                load.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading tables", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException("Can't load tables", e.getCause());
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Storage is closed", e);
+        }
+    }
+
+    /**
+     * Looks the key up in the tables from the newest to the oldest one.
+     */
+    @NotNull
+    private static ByteBuffer lookup(
+            @NotNull final List<Table> tables,
+            @NotNull final ByteBuffer key,
+            final long snapshot,
+            @NotNull final Metrics metrics) throws NoSuchElementException {
+        final Cell cell = resolve(tables, key, snapshot, metrics);
+        if (cell == null || cell.isTombstone()) {
+            throw new NoSuchElementException("Not found");
+        }
+        return cell.getValue();
+    }
+
+    /**
+     * Finds the cell the key resolves to in the tables from the newest to the oldest one, stopping
+     * at the first hit or at the first range tombstone covering the key, which resolves the key
+     * to a tombstone. Tables whose key ranges or Bloom filters rule the key out are not read at all,
+     * the former are not even loaded.
+     *
+     * @param metrics where to count the persisted tables read if anywhere
+     * @return the cell or {@code null} if none of the tables knows the key
+     */
+    @Nullable
+    private static Cell resolve(
+            @NotNull final List<Table> tables,
+            @NotNull final ByteBuffer key,
+            final long snapshot,
+            @Nullable final Metrics metrics) {
+        int read = 0;
+        try {
+            for (final Table table : tables) {
+                final boolean persisted = table instanceof SSTable;
+                if (persisted && !((SSTable) table).overlaps(key, key)) {
+                    continue;
+                }
+                Tracer.step(
+                        persisted ? Trace.Kind.TABLE : Trace.Kind.MEMTABLE,
+                        table.generation(),
+                        persisted ? ((SSTable) table).level() : 0);
+                final long removed = table.rangeTombstones().newest(key, snapshot);
+                if (table.mightContain(key)) {
+                    if (persisted) {
+                        read++;
+                    }
+                    final Iterator<Cell> cells = table.iterator(key, snapshot);
+                    if (cells.hasNext()) {
+                        final Cell cell = cells.next();
+                        // Cells win over the range tombstones of their table unless written before them
+                        if (cell.getKey().equals(key) && cell.sequence() > removed) {
+                            Tracer.step(Trace.Kind.RESOLVED, table.generation(), 0);
+                            return cell;
+                        }
+                    }
+                } else {
+                    Tracer.step(Trace.Kind.FILTERED, table.generation(), 0);
+                }
+                if (removed >= 0) {
+                    Tracer.step(Trace.Kind.RESOLVED, table.generation(), 0);
+                    return Cell.tombstone(key, removed);
+                }
+            }
+            return null;
+        } finally {
+            if (metrics != null) {
+                metrics.lookup(read);
+            }
+        }
+    }
+
+    /**
+     * What the open snapshots observe.
+     */
+    @NotNull
+    private Retention retention() {
+        assert Thread.holdsLock(this);
+
+        final List<Long> sequences = new ArrayList<>(snapshots.size());
+        for (final LsmSnapshot snapshot : snapshots) {
+            sequences.add(snapshot.sequence);
+        }
+        return Retention.of(sequences);
+    }
+
+    /**
+     * Hands the full memtable over to the flusher and starts a fresh one with its own log.
+     * Blocks only if the flusher lags behind by too many memtables.
+     */
+    private void freeze(@NotNull final MemTable full) throws IOException {
+        assert Thread.holdsLock(this);
+
+        while (tableSet.flushing.size() >= MAX_FLUSHING && flushFailure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for flush");
+            }
+        }
+        if (closed || tableSet.memTable != full) {
+            // Somebody has frozen it while we were waiting or it is persisted on close
+            return;
+        }
+
+        final long generation = nextGeneration.getAndIncrement();
+        final WriteAheadLog fresh = WriteAheadLog.create(logFile(generation), config.syncPolicy());
+        synchronized (sequencer) {
+            frozenLogs.put(full, wal);
+            wal = fresh;
+            tableSet = tableSet.freeze(new MemTable(generation, SLAB_SIZE));
+        }
+        final Retention retention = retention();
+        flusher.execute(() -> flush(full, retention));
+    }
+
+    private void flush(
+            @NotNull final MemTable frozen,
+            @NotNull final Retention retention) {
+        try {
+            frozen.awaitWriters();
+            final SSTable table = writeTable(frozen, retention);
+            final WriteAheadLog frozenLog;
+            synchronized (this) {
+                tableSet = tableSet.flushed(frozen, table);
+                frozenLog = frozenLogs.remove(frozen);
+                notifyAll();
+            }
+            frozenLog.close();
+            Files.delete(logFile(frozen.generation()));
+        } catch (IOException e) {
+            log.error("Can't flush memtable {}", frozen.generation(), e);
+            synchronized (this) {
+                flushFailure = e;
+                notifyAll();
+            }
+            return;
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Starts the most urgent compaction unless one is already running.
+     */
+    private synchronized void scheduleCompaction() {
+        if (closed || compacting) {
+            return;
+        }
+
+        final Compaction due = compactionStrategy.pick(tableSet);
+        final Compaction compaction = due == null
+                ? ValueLogs.collection(tableSet.tables, config.valueLogGarbageRatio())
+                : due;
+        if (compaction != null) {
+            compacting = true;
+            final Retention retention = retention();
+            compactor.execute(() -> compact(compaction, retention));
+        }
+    }
+
+    private void compact(
+            @NotNull final Compaction compaction,
+            @NotNull final Retention retention) {
+        try {
+            final List<SSTable> outputs = compaction.run(
+                    dir,
+                    nextGeneration::getAndIncrement,
+                    config,
+                    this::open,
+                    retention);
+            compactedBytes.addAndGet(outputs.stream().mapToLong(SSTable::sizeInBytes).sum()
+                    + ValueLogs.writtenBytes(compaction.inputs(), outputs));
+            manifest.apply(compaction.inputs(), outputs);
+            synchronized (this) {
+                tableSet = tableSet.compacted(compaction.inputs(), outputs);
+            }
+            compaction.finish(dir);
+            valueLogs.release(compaction.inputs(), tableSet.tables);
+        } catch (IOException e) {
+            log.error("Can't compact {}", compaction, e);
+            synchronized (this) {
+                compacting = false;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            compacting = false;
+        }
+        scheduleCompaction();
+    }
+
+    private static void await(@NotNull final ExecutorService executor) throws InterruptedIOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Still waiting for background tasks to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for background tasks");
+        }
+    }
+
+    /**
+     * Synchronously writes the memtable to disk and drops its log.
+     */
+    private void persist(
+            @NotNull final MemTable memTable,
+            @NotNull final WriteAheadLog memTableLog,
+            @NotNull final Retention retention) throws IOException {
+        memTable.awaitWriters();
+        if (!memTable.isEmpty()) {
+            writeTable(memTable, retention);
+        }
+        memTableLog.close();
+        Files.delete(logFile(memTable.generation()));
+    }
+
+    @NotNull
+    private SSTable writeTable(
+            @NotNull final MemTable source,
+            @NotNull final Retention retention) throws IOException {
+        final Path file = dir.resolve(source.generation() + SSTable.SUFFIX);
+        SSTable.write(file, config, source, retention);
+        final SSTable table = open(file, source.generation());
+        final List<SSTable> written = Collections.singletonList(table);
+        manifest.apply(Collections.emptyList(), written);
+        flushedBytes.addAndGet(table.sizeInBytes() + ValueLogs.writtenBytes(Collections.emptyList(), written));
+        return table;
+    }
+
+    @NotNull
+    private SSTable open(
+            @NotNull final Path file,
+            final long generation) throws IOException {
+        return SSTable.open(file, generation, blockCache, valueLogs);
+    }
+
+    @NotNull
+    private Optional<SSTable> recover(
+            @NotNull final Path file,
+            final long generation,
+            final long sequence) throws IOException {
+        final MemTable recovered = new MemTable(generation, SLAB_SIZE);
+        WriteAheadLog.replay(file, recovered, sequence);
+        if (recovered.isEmpty()) {
+            return Optional.empty();
+        }
+        log.info("Recovered unflushed writes from {}", file);
+        // Nobody could take a snapshot yet
+        return Optional.of(writeTable(recovered, Retention.LATEST));
+    }
+
+    /**
+     * Forces the current log and the frozen ones, the latter stay the only copy of their writes
+     * until the background flush is done.
+     */
+    private void syncLog() {
+        final List<WriteAheadLog> logs;
+        synchronized (this) {
+            logs = new ArrayList<>(frozenLogs.values());
+        }
+        logs.add(wal);
+        for (final WriteAheadLog target : logs) {
+            try {
+                target.sync();
+            } catch (IOException e) {
+                log.error("Can't sync log", e);
+            }
+        }
+    }
+
+    @NotNull
+    private Path logFile(final long generation) {
+        return dir.resolve(generation + WriteAheadLog.SUFFIX);
+    }
+
+    /**
+     * Logs a write, which is done under the sequencer.
+     */
+    @FunctionalInterface
+    private interface Append {
+        /**
+         * Returns the log position to commit.
+         */
+        long to(@NotNull WriteAheadLog target) throws IOException;
+    }
+
+    /**
+     * Applies a logged write to the memtable concurrently with the other writers.
+     */
+    @FunctionalInterface
+    private interface Apply {
+        /**
+         * Puts the write to the memtable.
+         *
+         * @param sequence the sequence number to stamp the write with
+         */
+        void to(
+                @NotNull MemTable memTable,
+                long sequence);
+    }
+
+    private final class LsmSnapshot implements Snapshot {
+        private final long sequence;
+        private volatile boolean released;
+
+        LsmSnapshot(final long sequence) {
+            this.sequence = sequence;
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+            checkOpen();
+            final List<Table> tables = tableSet.all();
+            load(tables);
+            return records(Cell.merge(tables, from, sequence));
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Record> prefix(@NotNull final ByteBuffer prefix) {
+            checkOpen();
+            return prefixed(tableSet.all(), prefix, sequence);
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Record> descendingIterator(@Nullable final ByteBuffer from) {
+            checkOpen();
+            final List<Table> tables = tableSet.all();
+            load(tables);
+            return records(Cell.mergeDescending(tables, from, sequence));
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
+            checkOpen();
+            return lookup(tableSet.all(), key, sequence, metrics);
+        }
+
+        @Override
+        public void close() {
+            released = true;
+            synchronized (LsmDAO.this) {
+                snapshots.remove(this);
+            }
+        }
+
+        private void checkOpen() {
+            if (released) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LZ77 codec in the spirit of LZ4: a sequence of literal runs each followed by a back reference.
+ *
+ * <p>Format:
+ * <pre>
+ * block    := sequence* last
+ * sequence := [token][literal length+]?[literals][offset][match length+]?
+ * last     := [token][literal length+]?[literals]
+ * </pre>
+ * The high and low nibbles of the token are the literal length and the match length minus
+ * {@link #MIN_MATCH}, a nibble of 15 is continued by bytes up to the first one less than 255.
+ * Offsets are little-endian unsigned shorts, a match may overlap the bytes it produces.
+ *
+ * <p>Matches are found through a single-entry hash table of 4-byte sequences, so compression
+ * is one pass and decompression is a plain copy loop.
+ */
+final class LzCodec implements Codec {
+    static final LzCodec DECOMPRESSOR = new LzCodec();
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    // The tail is always emitted as literals, so that matching never reads past the end
+    private static final int TAIL = 12;
+    private static final int HASH_BITS = 12;
+    private static final int SKIP_SHIFT = 6;
+
+    private final int[] table = new int[1 << HASH_BITS];
+
+    @Override
+    public int maxCompressedLength(final int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) {
+        final int base = src.position();
+        final int length = src.remaining();
+        final int limit = length - TAIL;
+        final ByteBuffer out = dst.duplicate();
+        Arrays.fill(table, -1);
+
+        int anchor = 0;
+        int i = 0;
+        while (i < limit) {
+            final int sequence = src.getInt(base + i);
+            final int slot = hash(sequence);
+            final int candidate = table[slot];
+            table[slot] = i;
+            if (candidate < 0 || i - candidate > MAX_OFFSET || src.getInt(base + candidate) != sequence) {
+                // Speed up over incompressible data
+                i += 1 + ((i - anchor) >>> SKIP_SHIFT);
+                continue;
+            }
+
+            int match = MIN_MATCH;
+            while (i + match < limit && src.get(base + candidate + match) == src.get(base + i + match)) {
+                match++;
+            }
+            literals(src, base + anchor, i - anchor, match - MIN_MATCH, out);
+            final int offset = i - candidate;
+            out.put((byte) offset).put((byte) (offset >>> 8));
+            if (match - MIN_MATCH >= 15) {
+                length(match - MIN_MATCH - 15, out);
+            }
+            i += match;
+            anchor = i;
+        }
+        literals(src, base + anchor, length - anchor, 0, out);
+        return out.position() - dst.position();
+    }
+
+    @Override
+    public void decompress(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) {
+        final int end = src.limit();
+        final int outEnd = dst.limit();
+        int in = src.position();
+        int out = dst.position();
+        try {
+            while (true) {
+                final int token = src.get(in++) & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int next;
+                    do {
+                        next = src.get(in++) & 0xFF;
+                        literals += next;
+                    } while (next == 255);
+                }
+                if (out + literals > outEnd || in + literals > end) {
+                    throw new IllegalStateException("Corrupted block");
+                }
+                for (int j = 0; j < literals; j++) {
+                    dst.put(out++, src.get(in++));
+                }
+                if (in == end) {
+                    break;
+                }
+
+                final int offset = (src.get(in++) & 0xFF) | (src.get(in++) & 0xFF) << 8;
+                int match = token & 0x0F;
+                if (match == 15) {
+                    int next;
+                    do {
+                        next = src.get(in++) & 0xFF;
+                        match += next;
+                    } while (next == 255);
+                }
+                match += MIN_MATCH;
+                if (offset == 0 || out - offset < dst.position() || out + match > outEnd) {
+                    throw new IllegalStateException("Corrupted block");
+                }
+                for (int j = 0; j < match; j++) {
+                    dst.put(out, dst.get(out - offset));
+                    out++;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Corrupted block", e);
+        }
+        if (out != outEnd) {
+            throw new IllegalStateException("Corrupted block");
+        }
+    }
+
+    private static int hash(final int sequence) {
+        return (sequence * -1640531535) >>> (Integer.SIZE - HASH_BITS);
+    }
+
+    /**
+     * Writes the token, the literal length and the literals.
+     */
+    private static void literals(
+            @NotNull final ByteBuffer src,
+            final int from,
+            final int count,
+            final int matchNibble,
+            @NotNull final ByteBuffer out) {
+        out.put((byte) ((Math.min(count, 15) << 4) | Math.min(matchNibble, 15)));
+        if (count >= 15) {
+            length(count - 15, out);
+        }
+        for (int j = 0; j < count; j++) {
+            out.put(src.get(from + j));
+        }
+    }
+
+    private static void length(
+            final int remainder,
+            @NotNull final ByteBuffer out) {
+        int left = remainder;
+        while (left >= 255) {
+            out.put((byte) 255);
+            left -= 255;
+        }
+        out.put((byte) left);
+    }
+}
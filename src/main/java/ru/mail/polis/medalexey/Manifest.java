@@ -0,0 +1,306 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned log of the edits of the live table set, so that a storage opens without listing
+ * or reading its tables.
+ *
+ * <p>Record layout is {@code [payload length][crc32 of payload][payload]}, where payload is
+ * {@code [version][removed count][generation]*[added count]([description length][description])*}
+ * and a description is what {@link SSTable#describe()} returns. Every record bumps the version by one,
+ * replay stops at a torn or corrupted record as well as at a version gap, so a flush or a compaction
+ * is either entirely in the table set or not at all.
+ *
+ * <p>A table is put in place before it is added to the manifest and deleted after it is removed,
+ * so the tables found on disk and missing from the manifest are left by an interrupted flush
+ * or compaction. On open and once the log has many more records than there are live tables, it is
+ * atomically replaced by a single record adding all of them, so a storage left open by a crashed
+ * process keeps appending to a file nobody reads anymore.
+ */
+final class Manifest implements Closeable {
+    static final String NAME = "MANIFEST";
+
+    private static final Logger log = LoggerFactory.getLogger(Manifest.class);
+    private static final String TEMP = ".tmp";
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int MIN_RECORDS = 64;
+
+    private final Path file;
+    private final CRC32 crc = new CRC32();
+
+    // Guarded by this, replaced only once the change is durable
+    private Map<Long, ByteBuffer> tables;
+    private FileChannel channel;
+    private long version;
+    private int records;
+    // A failed append may leave a torn record, which would hide whatever is appended after it
+    private boolean torn;
+
+    private Manifest(
+            @NotNull final Path file,
+            @NotNull final Map<Long, ByteBuffer> tables,
+            final long version) {
+        this.file = file;
+        this.tables = tables;
+        this.version = version;
+    }
+
+    /**
+     * Replays the manifest of the storage, a torn tail is ignored.
+     *
+     * @return the live table set or {@code null} if there is no manifest yet
+     */
+    @Nullable
+    static State read(@NotNull final Path dir) throws IOException {
+        final Path file = dir.resolve(NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        final ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final CRC32 crc = new CRC32();
+        final Map<Long, ByteBuffer> tables = new TreeMap<>();
+        long version = 0L;
+        while (mapped.remaining() >= HEADER) {
+            final int length = mapped.getInt(mapped.position());
+            final int checksum = mapped.getInt(mapped.position() + Integer.BYTES);
+            if (length < Long.BYTES || length > mapped.remaining() - HEADER) {
+                break;
+            }
+
+            final ByteBuffer payload = mapped.duplicate();
+            payload.position(mapped.position() + HEADER).limit(mapped.position() + HEADER + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            final long recordVersion = payload.getLong(payload.position());
+            if ((int) crc.getValue() != checksum
+                    || recordVersion <= 0
+                    || (version > 0 && recordVersion != version + 1)) {
+                break;
+            }
+
+            replay(payload.slice(), tables, file);
+            version = recordVersion;
+            mapped.position(payload.limit());
+        }
+
+        if (mapped.hasRemaining()) {
+            log.warn("Ignoring {} bytes of torn manifest tail in {}", mapped.remaining(), file);
+        }
+        return new State(Collections.unmodifiableMap(tables), version);
+    }
+
+    /**
+     * Starts a new version of the manifest listing the given live tables.
+     *
+     * @param state what {@link #read(Path)} returned
+     * @param live the tables the state lists or the tables found on disk if there is no manifest yet
+     */
+    @NotNull
+    static Manifest open(
+            @NotNull final Path dir,
+            @Nullable final State state,
+            @NotNull final List<SSTable> live) throws IOException {
+        final Map<Long, ByteBuffer> tables = new TreeMap<>();
+        for (final SSTable table : live) {
+            tables.put(table.generation(), table.describe());
+        }
+        final Manifest result = new Manifest(dir.resolve(NAME), tables, state == null ? 0L : state.version);
+        synchronized (result) {
+            result.rewrite(tables);
+        }
+        return result;
+    }
+
+    /**
+     * Durably records the replacement of some live tables with new ones, either may be empty.
+     */
+    synchronized void apply(
+            @NotNull final List<SSTable> removed,
+            @NotNull final List<SSTable> added) throws IOException {
+        if (channel == null) {
+            throw new IOException("Manifest is closed");
+        }
+        final Map<Long, ByteBuffer> next = new TreeMap<>(tables);
+        for (final SSTable table : removed) {
+            next.remove(table.generation());
+        }
+        final Map<Long, ByteBuffer> descriptions = new TreeMap<>();
+        for (final SSTable table : added) {
+            descriptions.put(table.generation(), table.describe());
+        }
+        next.putAll(descriptions);
+
+        if (torn || isBloated(records + 1, next)) {
+            rewrite(next);
+        } else {
+            final long[] generations = removed.stream().mapToLong(SSTable::generation).toArray();
+            torn = true;
+            write(channel, record(version + 1, generations, descriptions));
+            channel.force(false);
+            torn = false;
+            version++;
+            records++;
+        }
+        tables = next;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static boolean isBloated(
+            final int count,
+            @NotNull final Map<Long, ByteBuffer> tables) {
+        return count > Math.max(MIN_RECORDS, 2 * tables.size());
+    }
+
+    /**
+     * Atomically replaces the manifest with a single record adding the live tables.
+     */
+    private void rewrite(@NotNull final Map<Long, ByteBuffer> tables) throws IOException {
+        assert Thread.holdsLock(this);
+
+        final Path temp = file.resolveSibling(NAME + TEMP);
+        try (FileChannel out = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            write(out, record(version + 1, new long[0], tables));
+            out.force(false);
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        version++;
+        records = 1;
+        torn = false;
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @NotNull
+    private ByteBuffer record(
+            final long recordVersion,
+            @NotNull final long[] removed,
+            @NotNull final Map<Long, ByteBuffer> added) throws IOException {
+        long length = Long.BYTES + 2L * Integer.BYTES + (long) removed.length * Long.BYTES;
+        for (final ByteBuffer description : added.values()) {
+            length += Integer.BYTES + description.remaining();
+        }
+        if (length > Integer.MAX_VALUE - HEADER) {
+            throw new IOException("Manifest record is too big: " + length);
+        }
+
+        final ByteBuffer result = ByteBuffer.allocate(HEADER + (int) length);
+        result.position(HEADER);
+        result.putLong(recordVersion);
+        result.putInt(removed.length);
+        for (final long generation : removed) {
+            result.putLong(generation);
+        }
+        result.putInt(added.size());
+        for (final ByteBuffer description : added.values()) {
+            result.putInt(description.remaining()).put(description.duplicate());
+        }
+
+        final ByteBuffer payload = result.duplicate();
+        payload.flip().position(HEADER);
+        crc.reset();
+        crc.update(payload);
+        result.putInt(0, (int) length);
+        result.putInt(Integer.BYTES, (int) crc.getValue());
+        return result.flip();
+    }
+
+    private static void write(
+            @NotNull final FileChannel channel,
+            @NotNull final ByteBuffer record) throws IOException {
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    private static void replay(
+            @NotNull final ByteBuffer payload,
+            @NotNull final Map<Long, ByteBuffer> tables,
+            @NotNull final Path file) throws IOException {
+        try {
+            payload.getLong();
+            final int removed = payload.getInt();
+            for (int i = 0; i < removed; i++) {
+                final long generation = payload.getLong();
+                if (tables.remove(generation) == null) {
+                    throw new IOException("Manifest removes unknown table " + generation + ": " + file);
+                }
+            }
+            final int added = payload.getInt();
+            for (int i = 0; i < added; i++) {
+                final ByteBuffer description = payload.slice();
+                description.limit(payload.getInt(payload.position()) + Integer.BYTES).position(Integer.BYTES);
+                payload.position(payload.position() + description.limit());
+                tables.put(description.getLong(description.position()), description.slice());
+            }
+            if (removed < 0 || added < 0 || payload.hasRemaining()) {
+                throw new IOException("Corrupted manifest record: " + file);
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupted manifest record: " + file, e);
+        }
+    }
+
+    /**
+     * Live table set replayed from a manifest.
+     */
+    static final class State {
+        private final Map<Long, ByteBuffer> tables;
+        private final long version;
+
+        private State(
+                @NotNull final Map<Long, ByteBuffer> tables,
+                final long version) {
+            this.tables = tables;
+            this.version = version;
+        }
+
+        /**
+         * Descriptions of the live tables by generation.
+         */
+        @NotNull
+        Map<Long, ByteBuffer> tables() {
+            return tables;
+        }
+
+        long version() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sorted write buffer living entirely in an off-heap {@link Arena}.
+ *
+ * <p>Records form a skip list inside the arena, so the heap footprint does not depend
+ * on the amount of buffered data. A node is laid out as
+ * {@code [version address][key length][height][next pointers][key bytes]},
+ * a version as {@code [sequence][previous version address][length | -1][bytes]}.
+ * Updates prepend a new version to the chain of the existing node, so readers as of
+ * older sequence numbers still find the versions they observe.
+ *
+ * <p>Removed key ranges are kept on heap as {@link RangeTombstones} replaced on every removal.
+ *
+ * <p>Writes are lock-free and may run concurrently with each other and with reads. Nodes are
+ * linked bottom-up with compare-and-set and never unlinked, versions are inserted into the chains
+ * in sequence number order with compare-and-set, so a writer losing a race just retries.
+ * Writers register with {@link #acquire()} for the memtable to be flushed only once they are done.
+ */
+final class MemTable implements Table {
+    private static final int MAX_HEIGHT = 12;
+    private static final long NIL = 0L;
+    private static final int TOMBSTONE = -1;
+
+    // Node fields
+    private static final int VERSION = 0;
+    private static final int KEY_LENGTH = 8;
+    private static final int HEIGHT = 12;
+    private static final int NEXT = 16;
+
+    // Version fields
+    private static final int SEQUENCE = 0;
+    private static final int PREVIOUS = 8;
+    private static final int LENGTH = 16;
+    private static final int BYTES = 20;
+
+    private final Arena arena;
+    private final long generation;
+    private final long precedence;
+    private final long head;
+    private final AtomicInteger height = new AtomicInteger(1);
+    private final AtomicReference<RangeTombstones> rangeTombstones = new AtomicReference<>(RangeTombstones.EMPTY);
+    private final AtomicInteger writers = new AtomicInteger();
+
+    MemTable(
+            final long generation,
+            final int slabSize) {
+        this.arena = new Arena(slabSize);
+        this.generation = generation;
+        this.precedence = Table.rank(-1, generation);
+        // The head is the very first allocation, so its address doubles as NIL
+        this.head = allocateNode(ByteBuffer.allocate(0), MAX_HEIGHT);
+        assert head == NIL;
+    }
+
+    /**
+     * Puts the cell, which must have a sequence number of its own.
+     */
+    void put(@NotNull final Cell cell) {
+        final ByteBuffer value = cell.isTombstone() ? null : cell.getValue();
+        final long version = arena.allocate(BYTES + (value == null ? 0 : value.remaining()));
+        arena.putLong(version + SEQUENCE, cell.sequence());
+        if (value == null) {
+            arena.putInt(version + LENGTH, TOMBSTONE);
+        } else {
+            arena.putInt(version + LENGTH, value.remaining());
+            arena.put(version + BYTES, value);
+        }
+        link(cell.getKey(), version);
+    }
+
+    /**
+     * Puts the cells of a batch in order.
+     */
+    void apply(@NotNull final List<Cell> cells) {
+        for (final Cell cell : cells) {
+            put(cell);
+        }
+    }
+
+    /**
+     * Removes the keys from {@code from} inclusive to {@code to} exclusive, which must be a non-empty range.
+     */
+    void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        assert from.compareTo(to) < 0;
+        final ByteBuffer fromCopy = copy(from);
+        final ByteBuffer toCopy = copy(to);
+        rangeTombstones.updateAndGet(current -> current.with(fromCopy, toCopy, sequence));
+    }
+
+    /**
+     * Registers a writer, which must call {@link #release()} once it is done with the memtable.
+     */
+    void acquire() {
+        writers.incrementAndGet();
+    }
+
+    void release() {
+        writers.decrementAndGet();
+    }
+
+    /**
+     * Waits for the registered writers to finish, which takes no longer than a few puts.
+     */
+    void awaitWriters() {
+        while (writers.get() > 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Off-heap bytes occupied by keys, values and the index.
+     */
+    @Override
+    public long sizeInBytes() {
+        return arena.sizeInBytes();
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long precedence() {
+        return precedence;
+    }
+
+    boolean isEmpty() {
+        return next(head, 0) == NIL && rangeTombstones.get().isEmpty();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            final long snapshot) {
+        return new CellIterator(seek(from), snapshot, false);
+    }
+
+    /**
+     * Nodes have no back links, so every step re-seeks to the predecessor in {@code O(log n)}.
+     */
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(
+            @Nullable final ByteBuffer from,
+            final long snapshot) {
+        return new DescendingCellIterator(floor(from, true), snapshot);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> scan(@NotNull final ByteBuffer from) {
+        return new CellIterator(seek(from), Long.MAX_VALUE, true);
+    }
+
+    @NotNull
+    @Override
+    public RangeTombstones rangeTombstones() {
+        return rangeTombstones.get();
+    }
+
+    private void link(
+            @NotNull final ByteBuffer key,
+            final long version) {
+        final long[] preds = new long[MAX_HEIGHT];
+        final long[] succs = new long[MAX_HEIGHT];
+        long node = NIL;
+        int nodeHeight = 0;
+        while (true) {
+            final long found = seek(key, preds, succs);
+            if (found != NIL && compare(found, key) == 0) {
+                // Either the key was there or a concurrent writer has just linked it, the node is wasted then
+                insertVersion(found, version);
+                return;
+            }
+            if (node == NIL) {
+                nodeHeight = randomHeight();
+                node = allocateNode(key, nodeHeight);
+                arena.putLong(node + VERSION, version);
+            }
+            arena.putLong(nextAddress(node, 0), succs[0]);
+            if (arena.compareAndSetLong(nextAddress(preds[0], 0), succs[0], node)) {
+                break;
+            }
+        }
+
+        // The node is in the list now, the upper levels are mere shortcuts
+        height.accumulateAndGet(nodeHeight, Math::max);
+        for (int level = 1; level < nodeHeight; level++) {
+            while (true) {
+                arena.setLongRelease(nextAddress(node, level), succs[level]);
+                if (arena.compareAndSetLong(nextAddress(preds[level], level), succs[level], node)) {
+                    break;
+                }
+                seek(key, preds, succs);
+            }
+        }
+    }
+
+    /**
+     * Inserts the version into the chain of the node keeping the chain sorted newest first.
+     */
+    private void insertVersion(
+            final long node,
+            final long version) {
+        final long sequence = arena.getLong(version + SEQUENCE);
+        long link = node + VERSION;
+        while (true) {
+            final long current = arena.getLongAcquire(link);
+            if (current != NIL && arena.getLong(current + SEQUENCE) > sequence) {
+                link = current + PREVIOUS;
+                continue;
+            }
+            arena.putLong(version + PREVIOUS, current);
+            if (arena.compareAndSetLong(link, current, version)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the first node with key not less than {@code key}.
+     */
+    private long seek(@NotNull final ByteBuffer key) {
+        long node = head;
+        for (int level = height.get() - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != NIL && compare(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return next(node, 0);
+    }
+
+    /**
+     * Finds the first node with key not less than {@code key} remembering the predecessors
+     * and the successors at every level.
+     */
+    private long seek(
+            @NotNull final ByteBuffer key,
+            @NotNull final long[] preds,
+            @NotNull final long[] succs) {
+        long node = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != NIL && compare(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+            preds[level] = node;
+            succs[level] = next;
+        }
+        return succs[0];
+    }
+
+    /**
+     * Finds the last node with key less than {@code key}, or not greater than it if {@code inclusive},
+     * the last node if the key is {@code null} and {@code NIL} if there is no such node.
+     */
+    private long floor(
+            @Nullable final ByteBuffer key,
+            final boolean inclusive) {
+        final int bound = inclusive ? 1 : 0;
+        long node = head;
+        for (int level = height.get() - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != NIL && (key == null || compare(next, key) < bound)) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        // The head is NIL itself
+        return node;
+    }
+
+    private long allocateNode(
+            @NotNull final ByteBuffer key,
+            final int nodeHeight) {
+        final int keyOffset = NEXT + nodeHeight * Long.BYTES;
+        final long node = arena.allocate(keyOffset + key.remaining());
+        arena.putInt(node + KEY_LENGTH, key.remaining());
+        arena.putInt(node + HEIGHT, nodeHeight);
+        arena.put(node + keyOffset, key);
+        return node;
+    }
+
+    private long next(
+            final long node,
+            final int level) {
+        return arena.getLongAcquire(nextAddress(node, level));
+    }
+
+    private static long nextAddress(
+            final long node,
+            final int level) {
+        return node + NEXT + (long) level * Long.BYTES;
+    }
+
+    @NotNull
+    private ByteBuffer key(final long node) {
+        final int nodeHeight = arena.getInt(node + HEIGHT);
+        return arena.slice(node + NEXT + (long) nodeHeight * Long.BYTES, arena.getInt(node + KEY_LENGTH));
+    }
+
+    private int compare(
+            final long node,
+            @NotNull final ByteBuffer key) {
+        return key(node).compareTo(key);
+    }
+
+    /**
+     * Finds the newest version of the node not newer than {@code snapshot} or {@code NIL}.
+     */
+    private long version(
+            final long node,
+            final long snapshot) {
+        long version = arena.getLongAcquire(node + VERSION);
+        while (version != NIL && arena.getLong(version + SEQUENCE) > snapshot) {
+            version = arena.getLongAcquire(version + PREVIOUS);
+        }
+        return version;
+    }
+
+    @NotNull
+    private Cell cell(
+            @NotNull final ByteBuffer key,
+            final long version) {
+        final long sequence = arena.getLong(version + SEQUENCE);
+        final int length = arena.getInt(version + LENGTH);
+        if (length == TOMBSTONE) {
+            return Cell.tombstone(key, sequence);
+        }
+        return Cell.of(key, arena.slice(version + BYTES, length), sequence);
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer key) {
+        final ByteBuffer result = ByteBuffer.allocate(key.remaining());
+        result.put(key.duplicate()).flip();
+        return result.asReadOnlyBuffer();
+    }
+
+    private static int randomHeight() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        int result = 1;
+        // Branching factor of 4 keeps towers short
+        while (result < MAX_HEIGHT && random.nextInt(4) == 0) {
+            result++;
+        }
+        return result;
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final long snapshot;
+        private final boolean allVersions;
+        private long node;
+        private long version;
+
+        CellIterator(
+                final long node,
+                final long snapshot,
+                final boolean allVersions) {
+            this.snapshot = snapshot;
+            this.allVersions = allVersions;
+            this.node = node;
+            this.version = node == NIL ? NIL : version(node, snapshot);
+            skipInvisible();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != NIL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+
+            final Cell result = cell(key(node), version);
+            version = allVersions ? arena.getLongAcquire(version + PREVIOUS) : NIL;
+            skipInvisible();
+            return result;
+        }
+
+        /**
+         * Moves on to the next node having a version to return unless the current one has.
+         */
+        private void skipInvisible() {
+            while (node != NIL && version == NIL) {
+                node = MemTable.this.next(node, 0);
+                if (node != NIL) {
+                    version = version(node, snapshot);
+                }
+            }
+        }
+    }
+
+    private final class DescendingCellIterator implements Iterator<Cell> {
+        private final long snapshot;
+        private long node;
+        private long version;
+
+        DescendingCellIterator(
+                final long node,
+                final long snapshot) {
+            this.snapshot = snapshot;
+            this.node = node;
+            this.version = node == NIL ? NIL : version(node, snapshot);
+            skipInvisible();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != NIL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+
+            final ByteBuffer key = key(node);
+            final Cell result = cell(key, version);
+            node = floor(key, false);
+            version = node == NIL ? NIL : version(node, snapshot);
+            skipInvisible();
+            return result;
+        }
+
+        /**
+         * Moves on to the previous node having a version to return unless the current one has.
+         */
+        private void skipInvisible() {
+            while (node != NIL && version == NIL) {
+                node = floor(key(node), false);
+                if (node != NIL) {
+                    version = version(node, snapshot);
+                }
+            }
+        }
+    }
+}
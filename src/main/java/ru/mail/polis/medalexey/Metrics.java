@@ -0,0 +1,82 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.LatencyHistogram;
+import ru.mail.polis.Stats;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the {@link LsmDAO} operations.
+ *
+ * <p>Everything is recorded to {@link LongAdder}s, which spread concurrent updates over
+ * striped cells, so recording on the hot path does not make the threads contend.
+ */
+final class Metrics {
+    /**
+     * Operations with latencies of their own.
+     */
+    enum Operation {
+        GET("get"),
+        GET_ALL("getAll"),
+        ITERATOR("iterator"),
+        DESCENDING_ITERATOR("descendingIterator"),
+        PREFIX("prefix"),
+        UPSERT("upsert"),
+        REMOVE("remove"),
+        WRITE("write"),
+        REMOVE_RANGE("removeRange");
+
+        private final String title;
+
+        Operation(@NotNull final String title) {
+            this.title = title;
+        }
+    }
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder tablesRead = new LongAdder();
+
+    Metrics() {
+        for (final Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records an operation started at {@code start} as returned by {@link System#nanoTime()}.
+     */
+    void record(
+            @NotNull final Operation operation,
+            final long start) {
+        latencies.get(operation).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records a point lookup which read {@code tables} tables.
+     */
+    void lookup(final int tables) {
+        lookups.increment();
+        tablesRead.add(tables);
+    }
+
+    double readAmplification() {
+        final long count = lookups.sum();
+        return count == 0 ? 0.0 : (double) tablesRead.sum() / count;
+    }
+
+    /**
+     * Adds the latencies of the operations done at least once.
+     */
+    void report(@NotNull final Stats.Builder stats) {
+        for (final Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            final Stats.Latency latency = entry.getValue().latency();
+            if (latency.count() > 0) {
+                stats.operation(entry.getKey().title, latency);
+            }
+        }
+    }
+}
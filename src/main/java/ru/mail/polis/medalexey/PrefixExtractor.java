@@ -0,0 +1,88 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Defines the part of a key the tables keep a prefix filter of, so that prefix scans skip the tables
+ * without keys starting with the scanned prefix.
+ *
+ * <p>Every key starting with a key that has a prefix has the same prefix, so a scan of any prefix long
+ * enough to have a prefix of its own is answered by the filter of that prefix. Tables record the
+ * {@link #name()} of the extractor they were written with and are not filtered by any other one.
+ */
+public final class PrefixExtractor {
+    private final int length;
+    private final byte delimiter;
+    private final boolean delimited;
+
+    private PrefixExtractor(
+            final int length,
+            final byte delimiter,
+            final boolean delimited) {
+        this.length = length;
+        this.delimiter = delimiter;
+        this.delimited = delimited;
+    }
+
+    /**
+     * Takes the first {@code length} bytes, shorter keys have no prefix.
+     */
+    @NotNull
+    public static PrefixExtractor fixedLength(final int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Non-positive prefix length: " + length);
+        }
+        return new PrefixExtractor(length, (byte) 0, false);
+    }
+
+    /**
+     * Takes the bytes up to the first {@code delimiter} inclusive, keys without it have no prefix.
+     */
+    @NotNull
+    public static PrefixExtractor delimited(final byte delimiter) {
+        return new PrefixExtractor(0, delimiter, true);
+    }
+
+    /**
+     * Identifies the extractor in table files.
+     */
+    @NotNull
+    String name() {
+        return toString();
+    }
+
+    /**
+     * Extracts the prefix of the key.
+     *
+     * @return a slice of the key or {@code null} if the key has no prefix
+     */
+    @Nullable
+    public ByteBuffer prefix(@NotNull final ByteBuffer key) {
+        if (!delimited) {
+            return key.remaining() < length ? null : slice(key, length);
+        }
+        for (int i = 0; i < key.remaining(); i++) {
+            if (key.get(key.position() + i) == delimiter) {
+                return slice(key, i + 1);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return delimited ? "delimited(" + delimiter + ")" : "fixedLength(" + length + ")";
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer key,
+            final int length) {
+        final ByteBuffer result = key.duplicate();
+        result.limit(result.position() + length);
+        return result.slice();
+    }
+}
@@ -0,0 +1,344 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable set of removed key ranges {@code [from, to)} of a table, each removal stamped
+ * with its sequence number.
+ *
+ * <p>Removals are kept as sorted disjoint fragments, every fragment lists the sequence numbers
+ * of the removals covering it newest first. A removal hides the cells of its key range written
+ * before it, so a reader as of some sequence number ignores the newer removals.
+ */
+final class RangeTombstones {
+    static final RangeTombstones EMPTY = new RangeTombstones(new ByteBuffer[0], new ByteBuffer[0], new long[0][]);
+
+    private final ByteBuffer[] froms;
+    private final ByteBuffer[] tos;
+    private final long[][] sequences;
+    private final long newest;
+
+    private RangeTombstones(
+            @NotNull final ByteBuffer[] froms,
+            @NotNull final ByteBuffer[] tos,
+            @NotNull final long[][] sequences) {
+        this.froms = froms;
+        this.tos = tos;
+        this.sequences = sequences;
+        this.newest = Arrays.stream(sequences).mapToLong(covering -> covering[0]).max().orElse(-1L);
+    }
+
+    /**
+     * Builds the set from arbitrary non-empty removals.
+     */
+    @NotNull
+    static RangeTombstones of(
+            @NotNull final List<ByteBuffer> froms,
+            @NotNull final List<ByteBuffer> tos,
+            @NotNull final long[] sequences) {
+        // Sweep the boundaries keeping the sequence numbers of the removals in effect
+        final TreeMap<ByteBuffer, List<Long>> starts = new TreeMap<>();
+        final TreeMap<ByteBuffer, List<Long>> ends = new TreeMap<>();
+        for (int i = 0; i < sequences.length; i++) {
+            starts.computeIfAbsent(froms.get(i), k -> new ArrayList<>()).add(sequences[i]);
+            ends.computeIfAbsent(tos.get(i), k -> new ArrayList<>()).add(sequences[i]);
+        }
+        final NavigableSet<ByteBuffer> boundaries = new TreeSet<>(starts.keySet());
+        boundaries.addAll(ends.keySet());
+
+        final List<ByteBuffer> resultFroms = new ArrayList<>();
+        final List<ByteBuffer> resultTos = new ArrayList<>();
+        final List<long[]> resultSequences = new ArrayList<>();
+        final TreeMap<Long, Integer> active = new TreeMap<>();
+        ByteBuffer previous = null;
+        for (final ByteBuffer boundary : boundaries) {
+            if (previous != null && !active.isEmpty()) {
+                final long[] covering = active.descendingKeySet().stream().mapToLong(Long::longValue).toArray();
+                final int last = resultTos.size() - 1;
+                if (last >= 0 && resultTos.get(last).equals(previous)
+                        && Arrays.equals(resultSequences.get(last), covering)) {
+                    resultTos.set(last, boundary);
+                } else {
+                    resultFroms.add(previous);
+                    resultTos.add(boundary);
+                    resultSequences.add(covering);
+                }
+            }
+            for (final long sequence : ends.getOrDefault(boundary, List.of())) {
+                active.computeIfPresent(sequence, (k, count) -> count == 1 ? null : count - 1);
+            }
+            for (final long sequence : starts.getOrDefault(boundary, List.of())) {
+                active.merge(sequence, 1, Integer::sum);
+            }
+            previous = boundary;
+        }
+        return new RangeTombstones(
+                resultFroms.toArray(new ByteBuffer[0]),
+                resultTos.toArray(new ByteBuffer[0]),
+                resultSequences.toArray(new long[0][]));
+    }
+
+    /**
+     * Adds a non-empty removal.
+     */
+    @NotNull
+    RangeTombstones with(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        return union(of(List.of(from), List.of(to), new long[]{sequence}));
+    }
+
+    @NotNull
+    RangeTombstones union(@NotNull final RangeTombstones other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        final List<ByteBuffer> allFroms = new ArrayList<>();
+        final List<ByteBuffer> allTos = new ArrayList<>();
+        final List<Long> allSequences = new ArrayList<>();
+        for (final RangeTombstones set : List.of(this, other)) {
+            for (int i = 0; i < set.size(); i++) {
+                for (final long sequence : set.sequences[i]) {
+                    allFroms.add(set.froms[i]);
+                    allTos.add(set.tos[i]);
+                    allSequences.add(sequence);
+                }
+            }
+        }
+        return of(allFroms, allTos, allSequences.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * Intersects the ranges with {@code [lower, upper)}, {@code null} bounds are infinite.
+     */
+    @NotNull
+    RangeTombstones clip(
+            @Nullable final ByteBuffer lower,
+            @Nullable final ByteBuffer upper) {
+        final List<ByteBuffer> clippedFroms = new ArrayList<>(froms.length);
+        final List<ByteBuffer> clippedTos = new ArrayList<>(tos.length);
+        final List<long[]> clippedSequences = new ArrayList<>(tos.length);
+        for (int i = 0; i < froms.length; i++) {
+            final ByteBuffer from = lower == null || froms[i].compareTo(lower) >= 0 ? froms[i] : lower;
+            final ByteBuffer to = upper == null || tos[i].compareTo(upper) <= 0 ? tos[i] : upper;
+            if (from.compareTo(to) < 0) {
+                clippedFroms.add(from);
+                clippedTos.add(to);
+                clippedSequences.add(sequences[i]);
+            }
+        }
+        return new RangeTombstones(
+                clippedFroms.toArray(new ByteBuffer[0]),
+                clippedTos.toArray(new ByteBuffer[0]),
+                clippedSequences.toArray(new long[0][]));
+    }
+
+    /**
+     * Removals a reader as of the given sequence number observes.
+     */
+    @NotNull
+    RangeTombstones visibleAt(final long snapshot) {
+        if (snapshot >= newest) {
+            return this;
+        }
+        return retain(covering -> Arrays.stream(covering).filter(sequence -> sequence <= snapshot).toArray());
+    }
+
+    /**
+     * Replaces the sequence numbers of every fragment, dropping the fragments left without any.
+     *
+     * @param retained maps the sequence numbers of a fragment to the ones to keep, both newest first
+     */
+    @NotNull
+    RangeTombstones retain(@NotNull final UnaryOperator<long[]> retained) {
+        final List<ByteBuffer> retainedFroms = new ArrayList<>(froms.length);
+        final List<ByteBuffer> retainedTos = new ArrayList<>(tos.length);
+        final List<long[]> retainedSequences = new ArrayList<>(tos.length);
+        for (int i = 0; i < froms.length; i++) {
+            final long[] kept = retained.apply(sequences[i].clone());
+            if (kept.length > 0) {
+                retainedFroms.add(froms[i]);
+                retainedTos.add(tos[i]);
+                retainedSequences.add(kept);
+            }
+        }
+        return new RangeTombstones(
+                retainedFroms.toArray(new ByteBuffer[0]),
+                retainedTos.toArray(new ByteBuffer[0]),
+                retainedSequences.toArray(new long[0][]));
+    }
+
+    boolean isEmpty() {
+        return froms.length == 0;
+    }
+
+    /**
+     * Number of fragments.
+     */
+    int size() {
+        return froms.length;
+    }
+
+    @NotNull
+    ByteBuffer from(final int index) {
+        return froms[index].duplicate();
+    }
+
+    @NotNull
+    ByteBuffer to(final int index) {
+        return tos[index].duplicate();
+    }
+
+    /**
+     * Sequence numbers of the removals covering the fragment, newest first.
+     */
+    @NotNull
+    long[] sequences(final int index) {
+        return sequences[index].clone();
+    }
+
+    /**
+     * Index of the fragment containing the key or {@code -1}.
+     */
+    int find(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = froms.length - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (froms[mid].compareTo(key) <= 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return right >= 0 && key.compareTo(tos[right]) < 0 ? right : -1;
+    }
+
+    boolean covers(@NotNull final ByteBuffer key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Sequence number of the newest removal covering the key a reader as of {@code snapshot} observes
+     * or {@code -1}.
+     */
+    long newest(
+            @NotNull final ByteBuffer key,
+            final long snapshot) {
+        final int fragment = find(key);
+        if (fragment >= 0) {
+            for (final long sequence : sequences[fragment]) {
+                if (sequence <= snapshot) {
+                    return sequence;
+                }
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Whether the cell was written before a removal covering it.
+     */
+    boolean hides(@NotNull final Cell cell) {
+        return newest(cell.getKey(), Long.MAX_VALUE) > cell.sequence();
+    }
+
+    /**
+     * Skips the cells within the ranges, re-seeking past every range instead of walking it.
+     *
+     * @param seek provides the cells starting from the given key
+     */
+    @NotNull
+    Iterator<Cell> skip(
+            @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+            @NotNull final ByteBuffer from) {
+        if (isEmpty()) {
+            return seek.apply(from);
+        }
+        final int covering = find(from);
+        return new SkippingIterator(seek, seek.apply(covering < 0 ? from : to(covering)), false);
+    }
+
+    /**
+     * Same as {@link #skip} for cells in descending key order, re-seeking to the start of every range.
+     *
+     * @param seek provides the cells starting from the given key or from the greatest one if it is {@code null}
+     */
+    @NotNull
+    Iterator<Cell> skipDescending(
+            @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+            @Nullable final ByteBuffer from) {
+        if (isEmpty()) {
+            return seek.apply(from);
+        }
+        final int covering = from == null ? -1 : find(from);
+        return new SkippingIterator(seek, seek.apply(covering < 0 ? from : from(covering)), true);
+    }
+
+    private final class SkippingIterator implements Iterator<Cell> {
+        private final Function<ByteBuffer, Iterator<Cell>> seek;
+        private final boolean descending;
+        private Iterator<Cell> cells;
+        private Cell next;
+
+        SkippingIterator(
+                @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+                @NotNull final Iterator<Cell> cells,
+                final boolean descending) {
+            this.seek = seek;
+            this.descending = descending;
+            this.cells = cells;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                final int covering = find(cell.getKey());
+                if (covering < 0) {
+                    next = cell;
+                    return;
+                }
+                if (!descending) {
+                    cells = seek.apply(to(covering));
+                } else if (!cell.getKey().equals(froms[covering])) {
+                    // Seeks are inclusive, so the start of the range comes first and is skipped as is
+                    cells = seek.apply(from(covering));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ru.mail.polis.medalexey;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Decides which versions of cells and range tombstones a flush or a compaction keeps.
+ *
+ * <p>Besides the latest state, readers as of the sequence numbers of live snapshots must find
+ * what they observe. A version superseded by a newer version or by a removal of its key is
+ * kept only if a snapshot was taken in between, so without snapshots a single version of a key
+ * survives.
+ */
+final class Retention {
+    /**
+     * Keeps the latest state only.
+     */
+    static final Retention LATEST = new Retention(new long[0]);
+
+    // Ascending
+    private final long[] snapshots;
+
+    private Retention(@NotNull final long[] snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Keeps what readers as of the given sequence numbers observe.
+     */
+    @NotNull
+    static Retention of(@NotNull final Collection<Long> snapshots) {
+        final long[] sorted = snapshots.stream().mapToLong(Long::longValue).sorted().toArray();
+        return sorted.length == 0 ? LATEST : new Retention(sorted);
+    }
+
+    /**
+     * Whether a version written at {@code sequence} and superseded at {@code superseded}
+     * is observed by anyone, {@link Long#MAX_VALUE} meaning the version is the latest.
+     */
+    boolean needed(
+            final long sequence,
+            final long superseded) {
+        if (superseded == Long.MAX_VALUE) {
+            return true;
+        }
+        final int index = Arrays.binarySearch(snapshots, sequence);
+        final int oldest = index >= 0 ? index : -index - 1;
+        return oldest < snapshots.length && snapshots[oldest] < superseded;
+    }
+
+    /**
+     * Drops the versions nobody observes.
+     *
+     * @param versions cells in {@link Cell#BY_VERSION} order
+     * @param rangeTombstones all the removals the cells may be hidden by
+     * @param bottom whether no older versions of the keys exist elsewhere, so that tombstones
+     *               nobody needs to shadow anything with may be dropped too
+     */
+    @NotNull
+    Iterator<Cell> filter(
+            @NotNull final Iterator<Cell> versions,
+            @NotNull final RangeTombstones rangeTombstones,
+            final boolean bottom) {
+        return new FilteringIterator(Iterators.peekingIterator(versions), rangeTombstones, bottom);
+    }
+
+    /**
+     * Drops the range removals nobody observes, which are the ones superseded by a newer removal
+     * of the same keys before any snapshot and, at the bottom, the ones older than every snapshot.
+     */
+    @NotNull
+    RangeTombstones prune(
+            @NotNull final RangeTombstones rangeTombstones,
+            final boolean bottom) {
+        final long oldest = snapshots.length == 0 ? Long.MAX_VALUE : snapshots[0];
+        return rangeTombstones.retain(covering -> {
+            final long[] kept = new long[covering.length];
+            int count = 0;
+            for (int i = 0; i < covering.length; i++) {
+                final long superseded = i == 0 ? Long.MAX_VALUE : covering[i - 1];
+                if ((!bottom || covering[i] > oldest) && needed(covering[i], superseded)) {
+                    kept[count++] = covering[i];
+                }
+            }
+            return Arrays.copyOf(kept, count);
+        });
+    }
+
+    private final class FilteringIterator implements Iterator<Cell> {
+        private final PeekingIterator<Cell> versions;
+        private final RangeTombstones rangeTombstones;
+        private final boolean bottom;
+        private final Deque<Cell> kept = new ArrayDeque<>();
+
+        FilteringIterator(
+                @NotNull final PeekingIterator<Cell> versions,
+                @NotNull final RangeTombstones rangeTombstones,
+                final boolean bottom) {
+            this.versions = versions;
+            this.rangeTombstones = rangeTombstones;
+            this.bottom = bottom;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !kept.isEmpty();
+        }
+
+        @Override
+        public Cell next() {
+            if (kept.isEmpty()) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = kept.removeFirst();
+            if (kept.isEmpty()) {
+                advance();
+            }
+            return result;
+        }
+
+        /**
+         * Collects the kept versions of the next key having any.
+         */
+        private void advance() {
+            while (kept.isEmpty() && versions.hasNext()) {
+                final Cell newest = versions.peek();
+                final int fragment = rangeTombstones.find(newest.getKey());
+                final long[] removals = fragment < 0 ? new long[0] : rangeTombstones.sequences(fragment);
+                long superseded = Long.MAX_VALUE;
+                while (versions.hasNext() && versions.peek().getKey().equals(newest.getKey())) {
+                    final Cell cell = versions.next();
+                    final long sequence = cell.sequence();
+                    long removed = Long.MAX_VALUE;
+                    for (final long removal : removals) {
+                        if (removal > sequence) {
+                            removed = removal;
+                        }
+                    }
+                    if (needed(sequence, Math.min(superseded, removed))) {
+                        kept.addLast(cell);
+                    }
+                    superseded = sequence;
+                }
+                // Nothing is left for the bottom tombstones to shadow
+                while (bottom && !kept.isEmpty() && kept.peekLast().isTombstone()) {
+                    kept.removeLast();
+                }
+            }
+        }
+    }
+}
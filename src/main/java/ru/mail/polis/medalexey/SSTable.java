@@ -0,0 +1,1447 @@
+package ru.mail.polis.medalexey;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Immutable sorted table persisted to a memory-mapped file.
+ *
+ * <p>File layout:
+ * <pre>
+ * data   := stored*                stored := [block length][checksum][block | compressed block]
+ * block  := cell* [cell offset]* [cell count]
+ * cell   := [key length][key][sequence][value length | -1 | -2][value | pointer]
+ * pointer := [log][value offset][value length]
+ * keys   := ([key length][key])*   index  := ([stored offset][first key offset])*
+ * ranges := [fragment count]([from length][from][to length][to][sequence count][sequence]*)*
+ * logs   := [log count]([log][value bytes])*
+ * filter := [word]*
+ * prefixes := [extractor length][extractor][hashes][word]*
+ * footer := [index offset][block count][cell count][level][origin][max sequence][ranges offset]
+ *           [logs offset][filter offset][hashes][prefixes offset][compression][checksum][magic]
+ * </pre>
+ * The origin, the sequence numbers, the {@link ValueLog} generations, the value bytes and the {@link BloomFilter}
+ * words are {@code long}s, all the other numbers are big-endian {@code int}s. Blocks hold whole cells and
+ * are about {@link Config#blockSize()} bytes, offsets of cells are relative to their block. The filter
+ * is read into memory when the table is loaded.
+ *
+ * <p>Cells are sorted in {@link Cell#BY_VERSION} order, so the versions of a key follow each other
+ * newest first and may span adjacent blocks. The filter holds every key once.
+ *
+ * <p>The prefix filter holds every prefix the {@link PrefixExtractor} named in the prefixes section extracts
+ * from the keys, it is empty and the name is too if there was no extractor.
+ *
+ * <p>A cell either holds its value, is a tombstone or points to its value in a {@link ValueLog}.
+ * The logs section lists the logs the table points to in ascending order along with the bytes
+ * of the values in each.
+ *
+ * <p>Blocks are compressed with the {@link Codec} of the table {@link Compression}, a block
+ * which does not get shorter is stored as is. Blocks are decompressed when read.
+ *
+ * <p>The checksum of a stored block is the {@link CRC32C} of what follows it, which is verified
+ * whenever the block is read from the file rather than from the {@link BlockCache}. The footer
+ * checksum covers everything between the last block and the footer and is verified on load.
+ * {@link #scrub} verifies the whole file.
+ *
+ * <p>Seeking binary searches the first keys of the blocks in the index and then the cell offsets
+ * of a single block. Blocks are read through the {@link BlockCache}, returned keys and values
+ * are slices of the decoded block. Descending iteration seeks the same way and walks the cell offsets
+ * of a block and then the preceding blocks backwards.
+ *
+ * <p>The origin orders the table among the other tables of its level, see {@link #origin()}.
+ *
+ * <p>The removed key ranges are read into {@link RangeTombstones} when the table is loaded. A table may
+ * consist of range tombstones only, its key range then covers the tombstones as well as the cells.
+ *
+ * <p>A table opened from its {@link #describe() description} knows its key range, level and logs
+ * without reading the file, which is only mapped and checked against the description on the first
+ * access to the cells, see {@link #load()}.
+ */
+final class SSTable implements Table {
+    static final String SUFFIX = ".db";
+    private static final String TEMP = ".tmp";
+    private static final int MAGIC = 0x4C534D3B;
+    private static final int FOOTER = 12 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int STORED_HEADER = 2 * Integer.BYTES;
+    private static final int TOMBSTONE = -1;
+    private static final int SEPARATED = -2;
+    private static final int POINTER = Long.BYTES + 2 * Integer.BYTES;
+
+    private final Path file;
+    private final long generation;
+    private final BlockCache cache;
+    private final int level;
+    private final long origin;
+    private final long maxSequence;
+    private final long precedence;
+    private final long size;
+    private final ByteBuffer firstKey;
+    private final ByteBuffer lastKey;
+    // Sorted by generation
+    private final ValueLog[] logs;
+    private final Map<ValueLog, Long> valueBytes;
+    @Nullable
+    private volatile Contents contents;
+
+    private SSTable(
+            @NotNull final Path file,
+            final long generation,
+            @NotNull final Contents contents,
+            @NotNull final BlockCache cache,
+            @NotNull final ValueLogs valueLogs) throws IOException {
+        this.file = file;
+        this.generation = generation;
+        this.cache = cache;
+        this.level = contents.level;
+        this.origin = contents.origin;
+        this.maxSequence = contents.maxSequence;
+        this.precedence = Table.rank(level, origin);
+        this.size = contents.data.capacity();
+        this.firstKey = contents.firstKey;
+        this.lastKey = contents.lastKey;
+        this.logs = new ValueLog[contents.logGenerations.length];
+        final Map<ValueLog, Long> bytes = new LinkedHashMap<>();
+        for (int i = 0; i < logs.length; i++) {
+            logs[i] = valueLogs.open(contents.logGenerations[i]);
+            bytes.put(logs[i], contents.logBytes[i]);
+        }
+        this.valueBytes = Collections.unmodifiableMap(bytes);
+        this.contents = contents;
+    }
+
+    private SSTable(
+            @NotNull final Path dir,
+            @NotNull final ByteBuffer description,
+            @NotNull final BlockCache cache,
+            @NotNull final ValueLogs valueLogs) throws IOException {
+        final ByteBuffer input = description.duplicate();
+        try {
+            this.generation = input.getLong();
+            this.file = dir.resolve(generation + SUFFIX);
+            this.cache = cache;
+            this.level = input.getInt();
+            this.origin = input.getLong();
+            this.maxSequence = input.getLong();
+            this.size = input.getLong();
+            this.firstKey = copy(readKey(input));
+            this.lastKey = copy(readKey(input));
+            this.logs = new ValueLog[input.getInt()];
+            final Map<ValueLog, Long> bytes = new LinkedHashMap<>();
+            for (int i = 0; i < logs.length; i++) {
+                final long logGeneration = input.getLong();
+                final long logSize = input.getLong();
+                final long logBytes = input.getLong();
+                if ((i > 0 && logGeneration <= logs[i - 1].generation()) || logBytes <= 0 || logBytes > logSize) {
+                    throw new IOException("Corrupted value logs of table " + generation);
+                }
+                logs[i] = valueLogs.open(logGeneration, logSize);
+                bytes.put(logs[i], logBytes);
+            }
+            this.valueBytes = Collections.unmodifiableMap(bytes);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupted table description", e);
+        }
+        if (input.hasRemaining()
+                || level < 0
+                || level >= Table.LEVELS
+                || origin < 0
+                || origin > generation
+                || maxSequence < 0
+                || size < FOOTER
+                || size > Integer.MAX_VALUE
+                || firstKey.compareTo(lastKey) > 0) {
+            throw new IOException("Corrupted description of table " + generation);
+        }
+        this.precedence = Table.rank(level, origin);
+    }
+
+    /**
+     * Maps an existing table file into memory.
+     */
+    @NotNull
+    static SSTable open(
+            @NotNull final Path file,
+            final long generation,
+            @NotNull final BlockCache cache,
+            @NotNull final ValueLogs valueLogs) throws IOException {
+        return new SSTable(file, generation, Contents.map(file, generation), cache, valueLogs);
+    }
+
+    /**
+     * Restores a table from its {@link #describe() description} without touching the file, which is only
+     * mapped on the first access to the cells, the filter or the range tombstones.
+     *
+     * @param dir where the table file is
+     */
+    @NotNull
+    static SSTable openLazily(
+            @NotNull final Path dir,
+            @NotNull final ByteBuffer description,
+            @NotNull final BlockCache cache,
+            @NotNull final ValueLogs valueLogs) throws IOException {
+        return new SSTable(dir, description, cache, valueLogs);
+    }
+
+    /**
+     * Durably writes the versions of the memtable the retention keeps to the given file as a level 0 table,
+     * the file appears atomically. Separated values go to a log of the memtable generation, which is put
+     * in place before the table.
+     */
+    static void write(
+            @NotNull final Path file,
+            @NotNull final Config config,
+            @NotNull final MemTable source,
+            @NotNull final Retention retention) throws IOException {
+        final Path temp = temp(file);
+        try (ValueLog.Writer values = ValueLog.writer(file.getParent(), source.generation(), Collections.emptySet());
+             Writer writer = writer(temp, 0, source.generation(), config, values)) {
+            final Iterator<Cell> cells = retention.filter(
+                    source.scan(ByteBuffer.allocate(0)),
+                    source.rangeTombstones(),
+                    false);
+            while (cells.hasNext()) {
+                writer.append(cells.next());
+            }
+            writer.finish(retention.prune(source.rangeTombstones(), false));
+            values.finish();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts a table in the given file, the caller is responsible for putting it in place.
+     *
+     * @param values where to separate values to, nothing is separated or relocated if {@code null}
+     */
+    @NotNull
+    static Writer writer(
+            @NotNull final Path file,
+            final int level,
+            final long origin,
+            @NotNull final Config config,
+            @Nullable final ValueLog.Writer values) throws IOException {
+        return new Writer(
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE),
+                level,
+                origin,
+                config,
+                values);
+    }
+
+    /**
+     * Where a table is written before it appears under its own name.
+     */
+    @NotNull
+    static Path temp(@NotNull final Path file) {
+        return file.resolveSibling(file.getFileName() + TEMP);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            final long snapshot) {
+        final Contents contents = contents();
+        if (contents.blocks == 0) {
+            return Collections.emptyIterator();
+        }
+        final int blockIndex = Math.max(contents.blockOf(from), 0);
+        final Block block = cached(blockIndex);
+        return Cell.visible(new CellIterator(blockIndex, block, block.position(from), true), snapshot);
+    }
+
+    /**
+     * Walks the cells of the blocks backwards, so the versions of a key come oldest first.
+     */
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(
+            @Nullable final ByteBuffer from,
+            final long snapshot) {
+        final Contents contents = contents();
+        final int blockIndex = from == null ? contents.blocks - 1 : contents.lastBlockOf(from);
+        if (blockIndex < 0) {
+            return Collections.emptyIterator();
+        }
+        final Block block = cached(blockIndex);
+        final int index = from == null ? block.count : block.end(from);
+        return Cell.visible(new DescendingCellIterator(blockIndex, block, index), snapshot);
+    }
+
+    /**
+     * Reads bypassing the block cache, so that a one-off scan does not evict blocks of the hot key ranges.
+     */
+    @NotNull
+    @Override
+    public Iterator<Cell> scan(@NotNull final ByteBuffer from) {
+        final Contents contents = contents();
+        if (contents.blocks == 0) {
+            return Collections.emptyIterator();
+        }
+        final int blockIndex = Math.max(contents.blockOf(from), 0);
+        final Block block = new Block(contents.decode(blockIndex, false));
+        return new CellIterator(blockIndex, block, block.position(from), false);
+    }
+
+    @NotNull
+    @Override
+    public RangeTombstones rangeTombstones() {
+        return contents().rangeTombstones;
+    }
+
+    /**
+     * Reads every block only once for all the keys it may contain.
+     */
+    @NotNull
+    @Override
+    public Cell[] get(
+            @NotNull final List<ByteBuffer> keys,
+            final long snapshot) {
+        final Contents contents = contents();
+        final Cell[] result = new Cell[keys.size()];
+        int blockIndex = -1;
+        Block block = null;
+        for (int i = 0; i < result.length; i++) {
+            final ByteBuffer key = keys.get(i);
+            if (contents.blocks == 0 || !contents.filter.mightContain(key)) {
+                continue;
+            }
+            final int keyBlock = Math.max(contents.blockOf(key), 0);
+            if (keyBlock != blockIndex) {
+                blockIndex = keyBlock;
+                block = cached(blockIndex);
+            }
+            // Walk the versions of the key newest first, they may continue in the next blocks
+            int position = block.position(key);
+            while (true) {
+                if (position == block.count) {
+                    if (blockIndex + 1 == contents.blocks) {
+                        break;
+                    }
+                    block = cached(++blockIndex);
+                    position = 0;
+                }
+                final int offset = block.offset(position);
+                if (!block.key(offset).equals(key)) {
+                    break;
+                }
+                final Cell cell = block.cell(offset);
+                if (cell.sequence() <= snapshot) {
+                    result[i] = cell;
+                    break;
+                }
+                position++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        return contents().filter.mightContain(key);
+    }
+
+    /**
+     * Checks the key range without loading the table and then the prefix filter if it was built by the same
+     * extractor. A table removing key ranges is not filtered, as they may hide older cells with the prefix.
+     */
+    @Override
+    public boolean mightContainPrefix(
+            @NotNull final ByteBuffer prefix,
+            @Nullable final PrefixExtractor extractor) {
+        if (lastKey.compareTo(prefix) < 0 || (firstKey.compareTo(prefix) > 0 && !startsWith(firstKey, prefix))) {
+            return false;
+        }
+        final ByteBuffer extracted = extractor == null ? null : extractor.prefix(prefix);
+        if (extracted == null) {
+            return true;
+        }
+        final Contents contents = contents();
+        return !contents.rangeTombstones.isEmpty()
+                || !contents.prefixExtractor.equals(extractor.name())
+                || contents.prefixFilter.mightContain(extracted);
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long precedence() {
+        return precedence;
+    }
+
+    int level() {
+        return level;
+    }
+
+    /**
+     * Bytes of the values the table points to by log.
+     */
+    @NotNull
+    Map<ValueLog, Long> valueBytes() {
+        return valueBytes;
+    }
+
+    /**
+     * The largest sequence number of the cells and the range tombstones of the table.
+     */
+    long maxSequence() {
+        return maxSequence;
+    }
+
+    /**
+     * Generation of the newest memtable whose cells may have ended up in the table.
+     *
+     * <p>Tables of a level are ranked by their origins, which is how a table merged from
+     * adjacent level 0 tables keeps its place among the other level 0 tables.
+     */
+    long origin() {
+        return origin;
+    }
+
+    /**
+     * The smallest key of the cells and the range tombstones of the table.
+     */
+    @NotNull
+    ByteBuffer firstKey() {
+        return firstKey.duplicate();
+    }
+
+    /**
+     * The largest key of the cells and the range tombstones of the table, the latter being exclusive.
+     */
+    @NotNull
+    ByteBuffer lastKey() {
+        return lastKey.duplicate();
+    }
+
+    /**
+     * Whether the table may contain keys from the given inclusive range.
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return firstKey.compareTo(to) <= 0 && lastKey.compareTo(from) >= 0;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+
+    /**
+     * Whether the file of the table is mapped already.
+     */
+    boolean isLoaded() {
+        return contents != null;
+    }
+
+    /**
+     * Maps the file of the table and reads its filter and range tombstones unless done already.
+     *
+     * @throws UncheckedIOException if the file is missing or does not match the description of the table
+     */
+    void load() {
+        contents();
+    }
+
+    /**
+     * Metadata of the table enough to {@link #openLazily} it without reading the file.
+     */
+    @NotNull
+    ByteBuffer describe() {
+        final ByteBuffer result = ByteBuffer.allocate(
+                4 * Long.BYTES + 4 * Integer.BYTES
+                        + firstKey.remaining() + lastKey.remaining()
+                        + logs.length * 3 * Long.BYTES);
+        result.putLong(generation)
+                .putInt(level)
+                .putLong(origin)
+                .putLong(maxSequence)
+                .putLong(size);
+        result.putInt(firstKey.remaining()).put(firstKey.duplicate());
+        result.putInt(lastKey.remaining()).put(lastKey.duplicate());
+        result.putInt(logs.length);
+        for (final ValueLog valueLog : logs) {
+            result.putLong(valueLog.generation())
+                    .putLong(valueLog.sizeInBytes())
+                    .putLong(valueBytes.get(valueLog));
+        }
+        return result.flip();
+    }
+
+    /**
+     * Reads the whole file verifying its checksums and that it matches the table, regardless of what
+     * was loaded already, so that readers are not affected.
+     *
+     * @param limiter paces the reads by bytes
+     * @return the bytes verified
+     * @throws IOException if the file is corrupted
+     */
+    long scrub(@NotNull final RateLimiter limiter) throws IOException {
+        final Contents scrubbed;
+        try {
+            scrubbed = Contents.map(file, generation);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupted table: " + file, e);
+        }
+        verify(scrubbed);
+        final long blockBytes = scrubbed.scrub(limiter);
+        // The rest was verified on map
+        limiter.acquire((int) Math.max(size - blockBytes, 1L));
+        return size;
+    }
+
+    @NotNull
+    private Contents contents() {
+        Contents result = contents;
+        if (result == null) {
+            synchronized (this) {
+                result = contents;
+                if (result == null) {
+                    try {
+                        result = Contents.map(file, generation);
+                        verify(result);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Can't open table " + file, e);
+                    }
+                    contents = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void verify(@NotNull final Contents loaded) throws IOException {
+        final long[] logGenerations = new long[logs.length];
+        final long[] logBytes = new long[logs.length];
+        for (int i = 0; i < logs.length; i++) {
+            logGenerations[i] = logs[i].generation();
+            logBytes[i] = valueBytes.get(logs[i]);
+        }
+        if (loaded.level != level
+                || loaded.origin != origin
+                || loaded.maxSequence != maxSequence
+                || loaded.data.capacity() != size
+                || !loaded.firstKey.equals(firstKey)
+                || !loaded.lastKey.equals(lastKey)
+                || !Arrays.equals(loaded.logGenerations, logGenerations)
+                || !Arrays.equals(loaded.logBytes, logBytes)) {
+            throw new IOException("Table does not match its description: " + file);
+        }
+    }
+
+    @NotNull
+    private Block cached(final int block) {
+        if (!cache.isEnabled()) {
+            Tracer.step(Trace.Kind.BLOCK_READ, generation, block);
+            return new Block(contents().decode(block, false));
+        }
+        final ByteBuffer hit = cache.get(generation, block);
+        Tracer.step(hit == null ? Trace.Kind.CACHE_MISS : Trace.Kind.CACHE_HIT, generation, block);
+        return new Block(hit == null ? cache.put(generation, block, contents().decode(block, true)) : hit);
+    }
+
+    @NotNull
+    private ValueLog log(final long logGeneration) {
+        int left = 0;
+        int right = logs.length - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final long midGeneration = logs[mid].generation();
+            if (midGeneration == logGeneration) {
+                return logs[mid];
+            } else if (midGeneration < logGeneration) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        throw new IllegalStateException("Table " + generation + " points to unknown value log " + logGeneration);
+    }
+
+    @NotNull
+    private static RangeTombstones readRangeTombstones(
+            @NotNull final Path file,
+            @NotNull final ByteBuffer data,
+            final int offset,
+            final int end) throws IOException {
+        final ByteBuffer ranges = slice(data, offset, end - offset);
+        final int count = ranges.getInt();
+        final List<ByteBuffer> froms = new ArrayList<>();
+        final List<ByteBuffer> tos = new ArrayList<>();
+        final List<Long> sequences = new ArrayList<>();
+        ByteBuffer previous = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer from = readKey(ranges);
+                final ByteBuffer to = readKey(ranges);
+                final int removals = ranges.getInt();
+                if (from.compareTo(to) >= 0 || (previous != null && from.compareTo(previous) < 0) || removals <= 0) {
+                    throw new IOException("Corrupted range tombstones: " + file);
+                }
+                for (int j = 0; j < removals; j++) {
+                    froms.add(from);
+                    tos.add(to);
+                    sequences.add(ranges.getLong());
+                }
+                previous = to;
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupted range tombstones: " + file, e);
+        }
+        return RangeTombstones.of(froms, tos, sequences.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    @NotNull
+    private static ByteBuffer readKey(@NotNull final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final ByteBuffer key = slice(buffer, buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return key;
+    }
+
+    private static int checksum(@NotNull final ByteBuffer bytes) {
+        final CRC32C crc = new CRC32C();
+        crc.update(bytes.duplicate());
+        return (int) crc.getValue();
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate()).flip();
+        return result;
+    }
+
+    private static boolean startsWith(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer prefix) {
+        final int mismatch = key.mismatch(prefix);
+        return mismatch < 0 || mismatch == prefix.remaining();
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final ByteBuffer result = buffer.duplicate();
+        result.limit(offset + length).position(offset);
+        return result.slice();
+    }
+
+    /**
+     * What is read from the mapped file of a table, validated against the footer.
+     */
+    private static final class Contents {
+        private final long generation;
+        private final ByteBuffer data;
+        private final int indexOffset;
+        private final int blocks;
+        private final int level;
+        private final long origin;
+        private final long maxSequence;
+        private final BloomFilter filter;
+        private final String prefixExtractor;
+        private final BloomFilter prefixFilter;
+        @Nullable
+        private final Codec codec;
+        private final RangeTombstones rangeTombstones;
+        private final long[] logGenerations;
+        private final long[] logBytes;
+        private final ByteBuffer firstKey;
+        private final ByteBuffer lastKey;
+
+        private Contents(
+                @NotNull final Path file,
+                final long generation,
+                @NotNull final ByteBuffer data) throws IOException {
+            this.generation = generation;
+            this.data = data;
+
+            final int footer = data.limit() - FOOTER;
+            this.indexOffset = data.getInt(footer);
+            this.blocks = data.getInt(footer + Integer.BYTES);
+            final int cells = data.getInt(footer + 2 * Integer.BYTES);
+            this.level = data.getInt(footer + 3 * Integer.BYTES);
+            this.origin = data.getLong(footer + 4 * Integer.BYTES);
+            this.maxSequence = data.getLong(footer + 4 * Integer.BYTES + Long.BYTES);
+            final int rangesOffset = data.getInt(footer + 4 * Integer.BYTES + 2 * Long.BYTES);
+            final int logsOffset = data.getInt(footer + 5 * Integer.BYTES + 2 * Long.BYTES);
+            final int filterOffset = data.getInt(footer + 6 * Integer.BYTES + 2 * Long.BYTES);
+            final int hashes = data.getInt(footer + 7 * Integer.BYTES + 2 * Long.BYTES);
+            final int prefixesOffset = data.getInt(footer + 8 * Integer.BYTES + 2 * Long.BYTES);
+            final int compression = data.getInt(footer + 9 * Integer.BYTES + 2 * Long.BYTES);
+            final int checksum = data.getInt(footer + 10 * Integer.BYTES + 2 * Long.BYTES);
+            if (data.getInt(footer + 11 * Integer.BYTES + 2 * Long.BYTES) != MAGIC
+                    || indexOffset < 0
+                    || blocks < 0
+                    || cells < blocks
+                    || (blocks == 0) != (cells == 0)
+                    || level < 0
+                    || level >= Table.LEVELS
+                    || origin < 0
+                    || origin > generation
+                    || maxSequence < 0
+                    || (long) indexOffset + (long) blocks * 2 * Integer.BYTES != rangesOffset
+                    || rangesOffset > logsOffset - Integer.BYTES
+                    || logsOffset > filterOffset - Integer.BYTES
+                    || filterOffset > prefixesOffset
+                    || (prefixesOffset - filterOffset) % Long.BYTES != 0
+                    || prefixesOffset > footer - 2 * Integer.BYTES
+                    || hashes < 0) {
+                throw new IOException("Corrupted table: " + file);
+            }
+            // Keys follow the last block
+            final int keysOffset = blocks == 0 ? indexOffset : data.getInt(indexOffset + Integer.BYTES);
+            if (keysOffset < 0
+                    || keysOffset > indexOffset
+                    || checksum(slice(data, keysOffset, footer - keysOffset)) != checksum) {
+                throw new IOException("Corrupted table: " + file);
+            }
+
+            final long[] words = new long[(prefixesOffset - filterOffset) / Long.BYTES];
+            data.duplicate().position(filterOffset).slice().asLongBuffer().get(words);
+            this.filter = new BloomFilter(words, hashes);
+            final ByteBuffer prefixes = slice(data, prefixesOffset, footer - prefixesOffset);
+            final int nameLength = prefixes.getInt();
+            if (nameLength < 0 || nameLength > prefixes.remaining() - Integer.BYTES) {
+                throw new IOException("Corrupted prefix filter: " + file);
+            }
+            this.prefixExtractor = StandardCharsets.UTF_8.decode(slice(prefixes, prefixes.position(), nameLength))
+                    .toString();
+            prefixes.position(prefixes.position() + nameLength);
+            final int prefixHashes = prefixes.getInt();
+            if (prefixHashes < 0 || prefixes.remaining() % Long.BYTES != 0) {
+                throw new IOException("Corrupted prefix filter: " + file);
+            }
+            final long[] prefixWords = new long[prefixes.remaining() / Long.BYTES];
+            prefixes.asLongBuffer().get(prefixWords);
+            this.prefixFilter = new BloomFilter(prefixWords, prefixHashes);
+            try {
+                this.codec = Codec.decompressor(compression);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported table: " + file, e);
+            }
+            this.rangeTombstones = readRangeTombstones(file, data, rangesOffset, logsOffset);
+            final ByteBuffer logsSection = slice(data, logsOffset, filterOffset - logsOffset);
+            final int logCount = logsSection.getInt();
+            if (logCount < 0 || logsSection.remaining() != (long) logCount * 2 * Long.BYTES) {
+                throw new IOException("Corrupted value logs: " + file);
+            }
+            this.logGenerations = new long[logCount];
+            this.logBytes = new long[logCount];
+            for (int i = 0; i < logCount; i++) {
+                logGenerations[i] = logsSection.getLong();
+                logBytes[i] = logsSection.getLong();
+                if ((i > 0 && logGenerations[i] <= logGenerations[i - 1]) || logBytes[i] <= 0) {
+                    throw new IOException("Corrupted value logs: " + file);
+                }
+            }
+            if (blocks == 0 && rangeTombstones.isEmpty()) {
+                throw new IOException("Corrupted table: " + file);
+            }
+
+            ByteBuffer first = null;
+            ByteBuffer last = null;
+            if (blocks > 0) {
+                final ByteBuffer lastBlock;
+                try {
+                    lastBlock = decode(blocks - 1, false);
+                } catch (IllegalStateException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                    throw new IOException("Corrupted table: " + file, e);
+                }
+                final int count = lastBlock.getInt(lastBlock.limit() - Integer.BYTES);
+                final int offset = lastBlock.getInt(lastBlock.limit() - 2 * Integer.BYTES);
+                first = blockKey(0);
+                last = slice(lastBlock, offset + Integer.BYTES, lastBlock.getInt(offset));
+                assert count > 0;
+            }
+            if (!rangeTombstones.isEmpty()) {
+                final ByteBuffer from = rangeTombstones.from(0);
+                final ByteBuffer to = rangeTombstones.to(rangeTombstones.size() - 1);
+                first = first == null || from.compareTo(first) < 0 ? from : first;
+                last = last == null || to.compareTo(last) > 0 ? to : last;
+            }
+            this.firstKey = first;
+            this.lastKey = last;
+        }
+
+        @NotNull
+        static Contents map(
+                @NotNull final Path file,
+                final long generation) throws IOException {
+            final MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size < FOOTER || size > Integer.MAX_VALUE) {
+                    throw new IOException("Unexpected table size " + size + ": " + file);
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return new Contents(file, generation, mapped);
+        }
+
+        /**
+         * Index of the last block with the first key less than {@code key}, which is where the versions
+         * of the key start unless they start a block, {@code -1} if no block has a smaller first key.
+         */
+        int blockOf(@NotNull final ByteBuffer key) {
+            int left = 0;
+            int right = blocks - 1;
+            while (left <= right) {
+                final int mid = (left + right) >>> 1;
+                if (blockKey(mid).compareTo(key) < 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            return left - 1;
+        }
+
+        /**
+         * Index of the last block with the first key not greater than {@code key}, which is where the versions
+         * of the key end, {@code -1} if every block has a greater first key.
+         */
+        int lastBlockOf(@NotNull final ByteBuffer key) {
+            int left = 0;
+            int right = blocks - 1;
+            while (left <= right) {
+                final int mid = (left + right) >>> 1;
+                if (blockKey(mid).compareTo(key) <= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            return right;
+        }
+
+        @NotNull
+        ByteBuffer blockKey(final int block) {
+            final int offset = data.getInt(indexOffset + (2 * block + 1) * Integer.BYTES);
+            return slice(data, offset + Integer.BYTES, data.getInt(offset));
+        }
+
+        /**
+         * Decompresses the block if needed.
+         *
+         * @param owned whether the result must be an off-heap buffer independent of the mapping
+         */
+        @NotNull
+        ByteBuffer decode(
+                final int block,
+                final boolean owned) {
+            final ByteBuffer stored = stored(block);
+            final int length = stored.getInt(0);
+            final ByteBuffer payload = payload(stored);
+            if (checksum(payload) != stored.getInt(Integer.BYTES)) {
+                throw new IllegalStateException("Corrupted block " + block + " of table " + generation);
+            }
+            if (payload.remaining() == length) {
+                if (!owned) {
+                    return payload;
+                }
+                final ByteBuffer copy = ByteBuffer.allocateDirect(length);
+                copy.put(payload).flip();
+                return copy;
+            }
+
+            if (codec == null || payload.remaining() > length) {
+                throw new IllegalStateException("Corrupted block " + block + " of table " + generation);
+            }
+            final ByteBuffer result = owned ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            codec.decompress(payload, result);
+            return result;
+        }
+
+        /**
+         * Verifies the checksums of all the blocks at the pace of the limiter.
+         *
+         * @return the bytes of the stored blocks
+         */
+        long scrub(@NotNull final RateLimiter limiter) throws IOException {
+            long result = 0L;
+            for (int block = 0; block < blocks; block++) {
+                final ByteBuffer stored = stored(block);
+                limiter.acquire(Math.max(stored.remaining(), 1));
+                if (checksum(payload(stored)) != stored.getInt(Integer.BYTES)) {
+                    throw new IOException("Corrupted block " + block + " of table " + generation);
+                }
+                result += stored.remaining();
+            }
+            return result;
+        }
+
+        @NotNull
+        private static ByteBuffer payload(@NotNull final ByteBuffer stored) {
+            return slice(stored, STORED_HEADER, stored.remaining() - STORED_HEADER);
+        }
+
+        @NotNull
+        private ByteBuffer stored(final int block) {
+            final int offset = data.getInt(indexOffset + 2 * block * Integer.BYTES);
+            final int end = block + 1 < blocks
+                    ? data.getInt(indexOffset + 2 * (block + 1) * Integer.BYTES)
+                    // Keys follow the last block
+                    : data.getInt(indexOffset + Integer.BYTES);
+            return slice(data, offset, end - offset);
+        }
+    }
+
+    /**
+     * Cells of a single block.
+     */
+    private final class Block {
+        private final ByteBuffer buffer;
+        private final int count;
+
+        Block(@NotNull final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.count = buffer.getInt(buffer.limit() - Integer.BYTES);
+        }
+
+        /**
+         * Index of the first cell with key not less than {@code key}, which is the newest version of the key.
+         */
+        int position(@NotNull final ByteBuffer key) {
+            int left = 0;
+            int right = count - 1;
+            while (left <= right) {
+                final int mid = (left + right) >>> 1;
+                if (key(offset(mid)).compareTo(key) < 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            return left;
+        }
+
+        /**
+         * Index of the first cell with key greater than {@code key}, which follows the oldest version of the key.
+         */
+        int end(@NotNull final ByteBuffer key) {
+            int left = 0;
+            int right = count - 1;
+            while (left <= right) {
+                final int mid = (left + right) >>> 1;
+                if (key(offset(mid)).compareTo(key) <= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            return left;
+        }
+
+        int offset(final int index) {
+            return buffer.getInt(buffer.limit() - (count + 1 - index) * Integer.BYTES);
+        }
+
+        @NotNull
+        ByteBuffer key(final int offset) {
+            return slice(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+        }
+
+        @NotNull
+        Cell cell(final int offset) {
+            final ByteBuffer key = key(offset);
+            final int sequenceOffset = offset + Integer.BYTES + key.remaining();
+            final long sequence = buffer.getLong(sequenceOffset);
+            final int valueOffset = sequenceOffset + Long.BYTES;
+            final int valueLength = buffer.getInt(valueOffset);
+            if (valueLength == TOMBSTONE) {
+                return Cell.tombstone(key, sequence);
+            }
+            if (valueLength == SEPARATED) {
+                final int pointerOffset = valueOffset + Integer.BYTES;
+                final ValueLog.Pointer pointer = new ValueLog.Pointer(
+                        log(buffer.getLong(pointerOffset)),
+                        buffer.getInt(pointerOffset + Long.BYTES),
+                        buffer.getInt(pointerOffset + Long.BYTES + Integer.BYTES));
+                return Cell.separated(key, pointer, sequence);
+            }
+            return Cell.of(key, slice(buffer, valueOffset + Integer.BYTES, valueLength), sequence);
+        }
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final boolean useCache;
+        private int blockIndex;
+        private Block block;
+        private int index;
+
+        CellIterator(
+                final int blockIndex,
+                @NotNull final Block block,
+                final int index,
+                final boolean useCache) {
+            this.useCache = useCache;
+            this.blockIndex = blockIndex;
+            this.block = block;
+            this.index = index;
+            skipExhausted();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < block.count;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = block.cell(block.offset(index++));
+            skipExhausted();
+            return result;
+        }
+
+        private void skipExhausted() {
+            if (index == block.count && blockIndex + 1 < contents().blocks) {
+                blockIndex++;
+                block = load(blockIndex);
+                index = 0;
+            }
+        }
+
+        @NotNull
+        private Block load(final int blockIndex) {
+            return useCache ? cached(blockIndex) : new Block(contents().decode(blockIndex, false));
+        }
+    }
+
+    /**
+     * Cells in the reverse of {@link Cell#BY_VERSION} order, always read through the block cache.
+     */
+    private final class DescendingCellIterator implements Iterator<Cell> {
+        private int blockIndex;
+        private Block block;
+        // Index of the cell following the next one
+        private int index;
+
+        DescendingCellIterator(
+                final int blockIndex,
+                @NotNull final Block block,
+                final int index) {
+            this.blockIndex = blockIndex;
+            this.block = block;
+            this.index = index;
+            skipExhausted();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index > 0;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = block.cell(block.offset(--index));
+            skipExhausted();
+            return result;
+        }
+
+        private void skipExhausted() {
+            if (index == 0 && blockIndex > 0) {
+                blockIndex--;
+                block = cached(blockIndex);
+                index = block.count;
+            }
+        }
+    }
+
+    /**
+     * Assembles blocks in memory and streams them compressed to a channel through a small
+     * staging buffer, collecting the block index and key and prefix hashes for the filters.
+     * Cells must be appended in {@link Cell#BY_VERSION} order.
+     */
+    static final class Writer implements AutoCloseable {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final FileChannel channel;
+        private final int level;
+        private final long origin;
+        private final int bitsPerKey;
+        private final int blockSize;
+        private final int minSeparatedValue;
+        private final Compression compression;
+        @Nullable
+        private final Codec codec;
+        @Nullable
+        private final ValueLog.Writer values;
+        @Nullable
+        private final PrefixExtractor extractor;
+        // Bytes of the values pointed to by log generation
+        private final NavigableMap<Long, Long> valueBytes = new TreeMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // Checksum of what follows the blocks while it is written
+        @Nullable
+        private CRC32C tail;
+        private long position;
+        private int count;
+        private long maxSequence;
+        @Nullable
+        private ByteBuffer previousKey;
+        private int keys;
+        private long[] hashes = new long[1024];
+        @Nullable
+        private ByteBuffer previousPrefix;
+        private int prefixes;
+        private long[] prefixHashes = new long[64];
+
+        // Current block
+        private ByteBuffer block;
+        private ByteBuffer compressed;
+        private int[] cellOffsets = new int[64];
+        private int blockCount;
+
+        // Finished blocks
+        private int[] blockOffsets = new int[64];
+        private int[] firstKeyOffsets = new int[64];
+        private ByteBuffer firstKeys = ByteBuffer.allocate(1024);
+        private int blocks;
+
+        private Writer(
+                @NotNull final FileChannel channel,
+                final int level,
+                final long origin,
+                @NotNull final Config config,
+                @Nullable final ValueLog.Writer values) {
+            this.channel = channel;
+            this.level = level;
+            this.origin = origin;
+            this.bitsPerKey = config.bloomBitsPerKey();
+            this.blockSize = config.blockSize();
+            this.minSeparatedValue = config.minSeparatedValue();
+            this.values = values;
+            this.compression = config.compression();
+            this.codec = Codec.compressor(compression);
+            this.extractor = config.prefixExtractor();
+            this.block = ByteBuffer.allocate(blockSize);
+            this.compressed = ByteBuffer.allocate(codec == null ? 0 : codec.maxCompressedLength(blockSize));
+        }
+
+        /**
+         * Bytes written so far, including the current block before compression.
+         */
+        long sizeInBytes() {
+            return position + block.position();
+        }
+
+        /**
+         * Appends the cell keeping its value where it is unless the value is to be separated or relocated.
+         */
+        void append(@NotNull final Cell cell) throws IOException {
+            final ByteBuffer key = cell.getKey();
+            final ValueLog.Pointer pointer = cell.pointer();
+            ByteBuffer value = null;
+            long logGeneration = 0L;
+            int valueOffset = 0;
+            int valueLength = 0;
+            if (pointer != null && (values == null || !values.relocates(pointer.log()))) {
+                logGeneration = pointer.log().generation();
+                valueOffset = pointer.offset();
+                valueLength = pointer.length();
+            } else if (!cell.isTombstone()) {
+                value = cell.getValue();
+                valueLength = value.remaining();
+                // Relocated values stay separated whatever the threshold
+                if (values != null && (pointer != null || valueLength >= minSeparatedValue)) {
+                    logGeneration = values.generation();
+                    valueOffset = values.append(value);
+                    value = null;
+                }
+            }
+            final boolean separated = !cell.isTombstone() && value == null;
+            final long cellSize = 2L * Integer.BYTES + Long.BYTES + key.remaining()
+                    + (separated ? POINTER : valueLength);
+            final long trailer = (blockCount + 2L) * Integer.BYTES;
+            if (blockCount > 0 && block.position() + cellSize + trailer > blockSize) {
+                endBlock();
+            }
+            if (position + cellSize + trailer > Integer.MAX_VALUE) {
+                throw new IOException("Table is too big");
+            }
+            if (blockCount == 0) {
+                startBlock(key);
+            }
+
+            if (!key.equals(previousKey)) {
+                if (keys == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, keys * 2);
+                }
+                hashes[keys++] = BloomFilter.hash(key);
+                previousKey = key;
+                addPrefix(key);
+            }
+            count++;
+            maxSequence = Math.max(maxSequence, cell.sequence());
+            if (blockCount == cellOffsets.length) {
+                cellOffsets = Arrays.copyOf(cellOffsets, blockCount * 2);
+            }
+            cellOffsets[blockCount++] = block.position();
+
+            reserve(cellSize + trailer);
+            block.putInt(key.remaining()).put(key.duplicate()).putLong(cell.sequence());
+            if (separated) {
+                block.putInt(SEPARATED).putLong(logGeneration).putInt(valueOffset).putInt(valueLength);
+                valueBytes.merge(logGeneration, (long) valueLength, Long::sum);
+            } else if (value == null) {
+                block.putInt(TOMBSTONE);
+            } else {
+                block.putInt(value.remaining()).put(value.duplicate());
+            }
+        }
+
+        /**
+         * Appends the keys, the index, the range tombstones, the filter and the footer and forces the file.
+         */
+        void finish(@NotNull final RangeTombstones rangeTombstones) throws IOException {
+            if (count == 0 && rangeTombstones.isEmpty()) {
+                throw new IOException("Empty table");
+            }
+            if (count > 0) {
+                endBlock();
+            }
+            drain();
+            tail = new CRC32C();
+
+            final long keysOffset = position;
+            firstKeys.flip();
+            put(firstKeys);
+            final long indexOffset = position;
+            for (int i = 0; i < blocks; i++) {
+                putInt(blockOffsets[i]);
+                putInt((int) (keysOffset + firstKeyOffsets[i]));
+            }
+            final long rangesOffset = position;
+            putInt(rangeTombstones.size());
+            for (int i = 0; i < rangeTombstones.size(); i++) {
+                putKey(rangeTombstones.from(i));
+                putKey(rangeTombstones.to(i));
+                final long[] sequences = rangeTombstones.sequences(i);
+                putInt(sequences.length);
+                for (final long sequence : sequences) {
+                    putLong(sequence);
+                    maxSequence = Math.max(maxSequence, sequence);
+                }
+            }
+            final long logsOffset = position;
+            putInt(valueBytes.size());
+            for (final Map.Entry<Long, Long> entry : valueBytes.entrySet()) {
+                putLong(entry.getKey());
+                putLong(entry.getValue());
+            }
+            final long filterOffset = position;
+            for (final long word : BloomFilter.build(hashes, keys, bitsPerKey)) {
+                putLong(word);
+            }
+            final long prefixesOffset = position;
+            final ByteBuffer name = StandardCharsets.UTF_8.encode(extractor == null ? "" : extractor.name());
+            putInt(name.remaining());
+            put(name);
+            putInt(bitsPerKey == 0 || prefixes == 0 ? 0 : BloomFilter.hashes(bitsPerKey));
+            for (final long word : BloomFilter.build(prefixHashes, prefixes, bitsPerKey)) {
+                putLong(word);
+            }
+            if (position + FOOTER > Integer.MAX_VALUE) {
+                throw new IOException("Table is too big");
+            }
+            drain();
+            final int checksum = (int) tail.getValue();
+            tail = null;
+            putInt((int) indexOffset);
+            putInt(blocks);
+            putInt(count);
+            putInt(level);
+            putLong(origin);
+            putLong(maxSequence);
+            putInt((int) rangesOffset);
+            putInt((int) logsOffset);
+            putInt((int) filterOffset);
+            putInt(bitsPerKey == 0 ? 0 : BloomFilter.hashes(bitsPerKey));
+            putInt((int) prefixesOffset);
+            putInt(compression.id());
+            putInt(checksum);
+            putInt(MAGIC);
+            drain();
+            channel.force(false);
+        }
+
+        /**
+         * Collects the hash of the prefix of a new key, keys sharing a prefix follow each other.
+         */
+        private void addPrefix(@NotNull final ByteBuffer key) {
+            if (extractor == null) {
+                return;
+            }
+            final ByteBuffer prefix = extractor.prefix(key);
+            if (prefix == null || prefix.equals(previousPrefix)) {
+                return;
+            }
+            if (prefixes == prefixHashes.length) {
+                prefixHashes = Arrays.copyOf(prefixHashes, prefixes * 2);
+            }
+            prefixHashes[prefixes++] = BloomFilter.hash(prefix);
+            previousPrefix = prefix;
+        }
+
+        private void startBlock(@NotNull final ByteBuffer firstKey) {
+            if (blocks == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+                firstKeyOffsets = Arrays.copyOf(firstKeyOffsets, blocks * 2);
+            }
+            if (firstKeys.remaining() < Integer.BYTES + firstKey.remaining()) {
+                final int required = firstKeys.position() + Integer.BYTES + firstKey.remaining();
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(required, firstKeys.capacity() * 2));
+                firstKeys.flip();
+                firstKeys = grown.put(firstKeys);
+            }
+            blockOffsets[blocks] = (int) position;
+            firstKeyOffsets[blocks] = firstKeys.position();
+            firstKeys.putInt(firstKey.remaining()).put(firstKey.duplicate());
+            blocks++;
+        }
+
+        /**
+         * Writes the offsets trailer and puts the block to the file, compressed if it pays off.
+         */
+        private void endBlock() throws IOException {
+            for (int i = 0; i < blockCount; i++) {
+                block.putInt(cellOffsets[i]);
+            }
+            block.putInt(blockCount);
+            blockCount = 0;
+            block.flip();
+
+            final int length = block.remaining();
+            ByteBuffer stored = block;
+            if (codec != null) {
+                if (compressed.capacity() < codec.maxCompressedLength(length)) {
+                    compressed = ByteBuffer.allocate(codec.maxCompressedLength(length));
+                }
+                compressed.clear();
+                compressed.limit(codec.compress(block, compressed));
+                if (compressed.remaining() < length) {
+                    stored = compressed;
+                }
+            }
+            putInt(length);
+            putInt(checksum(stored));
+            put(stored);
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Table is too big");
+            }
+
+            if (block.capacity() > blockSize) {
+                // Do not keep the memory taken by a huge cell
+                block = ByteBuffer.allocate(blockSize);
+                compressed = ByteBuffer.allocate(codec == null ? 0 : codec.maxCompressedLength(blockSize));
+            } else {
+                block.clear();
+            }
+        }
+
+        private void reserve(final long bytes) {
+            if (block.remaining() < bytes) {
+                final ByteBuffer grown = ByteBuffer.allocate((int) (block.position() + bytes));
+                block.flip();
+                block = grown.put(block);
+            }
+        }
+
+        private void putInt(final int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                drain();
+            }
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        private void putLong(final long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES) {
+                drain();
+            }
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        private void putKey(@NotNull final ByteBuffer key) throws IOException {
+            if (position + Integer.BYTES + key.remaining() > Integer.MAX_VALUE) {
+                throw new IOException("Table is too big");
+            }
+            putInt(key.remaining());
+            put(key);
+        }
+
+        private void put(@NotNull final ByteBuffer src) throws IOException {
+            position += src.remaining();
+            if (src.remaining() > buffer.remaining()) {
+                drain();
+                if (tail != null) {
+                    tail.update(src.duplicate());
+                }
+                final ByteBuffer chunk = src.duplicate();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            } else {
+                buffer.put(src.duplicate());
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            if (tail != null) {
+                tail.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ru.mail.polis.medalexey;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Verifies whole live tables in the background, so that corruption is found before a read hits it.
+ *
+ * <p>Threads take the tables of a pass one by one and start the next pass as soon as the previous
+ * one is taken, all of them sharing a single limit of bytes read per second. Every table is mapped
+ * anew, so scrubbing neither loads tables nor holds anything readers wait for. A corrupted table
+ * is logged and counted once, it stays live and keeps failing the reads of its broken blocks.
+ */
+final class Scrubber implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Scrubber.class);
+    private static final long IDLE_MILLIS = 1000L;
+
+    private final Supplier<List<SSTable>> tables;
+    private final RateLimiter limiter;
+    private final ExecutorService workers;
+    private final AtomicLong scrubbedBytes = new AtomicLong();
+    private final Set<Long> corrupted = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this
+    private final Deque<SSTable> pass = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * Starts scrubbing.
+     *
+     * @param tables the live tables
+     * @param bytesPerSecond read rate of all the threads together
+     */
+    Scrubber(
+            @NotNull final Supplier<List<SSTable>> tables,
+            final long bytesPerSecond,
+            final int threads) {
+        this.tables = tables;
+        this.limiter = RateLimiter.create(bytesPerSecond);
+        this.workers = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("lsm-scrubber-%d").setDaemon(true).build());
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::run);
+        }
+    }
+
+    /**
+     * Bytes verified so far.
+     */
+    long scrubbedBytes() {
+        return scrubbedBytes.get();
+    }
+
+    /**
+     * Tables found corrupted so far.
+     */
+    int corruptTables() {
+        return corrupted.size();
+    }
+
+    /**
+     * Stops scrubbing without waiting for the tables being verified.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        workers.shutdownNow();
+    }
+
+    private void run() {
+        SSTable table = next();
+        while (table != null) {
+            scrub(table);
+            table = next();
+        }
+    }
+
+    /**
+     * Takes the next table to verify starting a new pass if needed.
+     *
+     * @return the table or {@code null} once closed
+     */
+    @Nullable
+    private synchronized SSTable next() {
+        while (!closed) {
+            if (pass.isEmpty()) {
+                for (final SSTable table : tables.get()) {
+                    if (!corrupted.contains(table.generation())) {
+                        pass.add(table);
+                    }
+                }
+            }
+            if (!pass.isEmpty()) {
+                return pass.poll();
+            }
+            try {
+                wait(IDLE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void scrub(@NotNull final SSTable table) {
+        try {
+            scrubbedBytes.addAndGet(table.scrub(limiter));
+        } catch (NoSuchFileException e) {
+            // Compaction might have replaced the table meanwhile
+            if (tables.get().contains(table)) {
+                report(table, e);
+            }
+        } catch (IOException | RuntimeException e) {
+            report(table, e);
+        }
+    }
+
+    private void report(
+            @NotNull final SSTable table,
+            @NotNull final Exception e) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        if (corrupted.add(table.generation())) {
+            log.error("Table {} is corrupted", table.generation(), e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks compactions merging runs of similarly sized level 0 tables into a single bigger one.
+ *
+ * <p>Tables are grouped into runs of adjacent generations whose sizes stay within half and
+ * one and a half of the run average. Tables smaller than the flush threshold are considered
+ * equal, so the leftovers of reopening the storage get merged together as well. Every byte
+ * is rewritten roughly once per size tier, which trades read amplification for much lower
+ * write amplification than {@link LeveledCompaction}.
+ *
+ * <p>Only level 0 is managed, tables left in deeper levels by another strategy stay in place.
+ */
+final class SizeTieredCompaction implements CompactionStrategy {
+    private static final int MAX_WIDTH = 32;
+    private static final double LOW = 0.5;
+    private static final double HIGH = 1.5;
+
+    private final int mergeWidth;
+    private final long minTableSize;
+
+    SizeTieredCompaction(@NotNull final Config config) {
+        this.mergeWidth = config.mergeWidth();
+        this.minTableSize = config.flushThreshold();
+    }
+
+    @Nullable
+    @Override
+    public Compaction pick(@NotNull final TableSet tableSet) {
+        final List<SSTable> level0 = tableSet.level(0);
+        List<SSTable> best = null;
+        double bestAverage = Double.MAX_VALUE;
+        int start = 0;
+        while (start < level0.size()) {
+            long total = size(level0.get(start));
+            int end = start + 1;
+            while (end < level0.size()) {
+                final double average = (double) total / (end - start);
+                final long size = size(level0.get(end));
+                if (size < average * LOW || size > average * HIGH) {
+                    break;
+                }
+                total += size;
+                end++;
+            }
+
+            final double average = (double) total / (end - start);
+            if (end - start >= mergeWidth && average < bestAverage) {
+                bestAverage = average;
+                best = level0.subList(Math.max(start, end - MAX_WIDTH), end);
+            }
+            start = end;
+        }
+        if (best == null) {
+            return null;
+        }
+
+        final boolean oldest = best.get(best.size() - 1) == level0.get(level0.size() - 1);
+        return new Compaction(new ArrayList<>(best), 0, oldest && !overlapsDeeper(tableSet, best));
+    }
+
+    private long size(@NotNull final SSTable table) {
+        return Math.max(table.sizeInBytes(), minTableSize);
+    }
+
+    private static boolean overlapsDeeper(
+            @NotNull final TableSet tableSet,
+            @NotNull final List<SSTable> inputs) {
+        ByteBuffer from = inputs.get(0).firstKey();
+        ByteBuffer to = inputs.get(0).lastKey();
+        for (final SSTable input : inputs) {
+            if (input.firstKey().compareTo(from) < 0) {
+                from = input.firstKey();
+            }
+            if (input.lastKey().compareTo(to) > 0) {
+                to = input.lastKey();
+            }
+        }
+
+        for (final SSTable table : tableSet.tables) {
+            if (table.level() > 0 && table.overlaps(from, to)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
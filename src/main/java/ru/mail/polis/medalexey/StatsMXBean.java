@@ -0,0 +1,81 @@
+package ru.mail.polis.medalexey;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LsmDAO#stats()}, registered as {@code ru.mail.polis:type=LsmDAO,dir=<directory>}
+ * while the storage is open. The attributes are read from a {@link ru.mail.polis.Stats} refreshed
+ * at most once a second.
+ */
+public interface StatsMXBean {
+    long getMemTableBytes();
+
+    int getFrozenMemTables();
+
+    /**
+     * Persisted tables by level.
+     */
+    int[] getLevelTables();
+
+    /**
+     * Bytes of the persisted tables by level.
+     */
+    long[] getLevelBytes();
+
+    long getFlushedBytes();
+
+    long getCompactedBytes();
+
+    long getCompactionBacklogBytes();
+
+    /**
+     * Bytes flushed and compacted since the storage was opened per byte flushed, {@code NaN} until
+     * the first flush, see {@link LsmDAO#writeAmplification()}.
+     */
+    double getWriteAmplification();
+
+    double getReadAmplification();
+
+    long getBlockCacheHits();
+
+    long getBlockCacheMisses();
+
+    long getValueLogBytes();
+
+    /**
+     * Bytes of the values in value logs the tables still point to.
+     */
+    long getValueLogLiveBytes();
+
+    long getScrubbedBytes();
+
+    /**
+     * Live tables the background scrubber found corrupted.
+     */
+    int getCorruptTables();
+
+    /**
+     * Number of calls by operation name.
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * Median latencies in nanoseconds by operation name.
+     */
+    Map<String, Long> getP50LatencyNanos();
+
+    /**
+     * 99th percentile latencies in nanoseconds by operation name.
+     */
+    Map<String, Long> getP99LatencyNanos();
+
+    /**
+     * 99.9th percentile latencies in nanoseconds by operation name.
+     */
+    Map<String, Long> getP999LatencyNanos();
+
+    /**
+     * Maximum latencies in nanoseconds by operation name.
+     */
+    Map<String, Long> getMaxLatencyNanos();
+}
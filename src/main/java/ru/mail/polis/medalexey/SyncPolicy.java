@@ -0,0 +1,70 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Defines when the write-ahead log is forced to disk.
+ *
+ * <p>Every write is in the log file before it returns whatever the policy, so a crash of the process
+ * loses nothing and only a crash of the machine may lose what is not forced yet.
+ */
+public final class SyncPolicy {
+    enum Mode {
+        ALWAYS,
+        PERIODIC,
+        NEVER
+    }
+
+    private final Mode mode;
+    private final long intervalMillis;
+
+    private SyncPolicy(
+            @NotNull final Mode mode,
+            final long intervalMillis) {
+        this.mode = mode;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Every write returns, and becomes visible to readers, only after it is on disk.
+     * Concurrent writers share a single fsync.
+     */
+    @NotNull
+    public static SyncPolicy always() {
+        return new SyncPolicy(Mode.ALWAYS, 0L);
+    }
+
+    /**
+     * The log is forced in the background every {@code intervalMillis}, a crash of the machine may lose
+     * the last interval.
+     */
+    @NotNull
+    public static SyncPolicy periodic(final long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Non-positive interval: " + intervalMillis);
+        }
+        return new SyncPolicy(Mode.PERIODIC, intervalMillis);
+    }
+
+    /**
+     * The log is handed to the OS but never forced, durability is up to the page cache.
+     */
+    @NotNull
+    public static SyncPolicy never() {
+        return new SyncPolicy(Mode.NEVER, 0L);
+    }
+
+    @NotNull
+    Mode mode() {
+        return mode;
+    }
+
+    long intervalMillis() {
+        return intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.PERIODIC ? mode + "(" + intervalMillis + " ms)" : mode.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sorted source of {@link Cell}s, either in memory or on disk.
+ */
+interface Table {
+    /**
+     * Number of levels persisted tables are arranged in, memtables sit above level 0.
+     */
+    int LEVELS = 8;
+
+    /**
+     * Ranks tables so that upper levels shadow deeper ones and newer generations
+     * shadow older ones within a level.
+     */
+    static long rank(
+            final int level,
+            final long generation) {
+        assert -1 <= level && level < LEVELS;
+        return ((long) (LEVELS - level) << 48) | generation;
+    }
+
+    /**
+     * Provides the newest cell not newer than {@code snapshot} of every key not less than {@code from}
+     * in ascending key order. The range tombstones of the table are not applied.
+     */
+    @NotNull
+    Iterator<Cell> iterator(
+            @NotNull ByteBuffer from,
+            long snapshot);
+
+    /**
+     * Provides the newest cell not newer than {@code snapshot} of every key not greater than {@code from},
+     * or of every key if it is {@code null}, in descending key order. The range tombstones of the table
+     * are not applied.
+     */
+    @NotNull
+    Iterator<Cell> descendingIterator(
+            @Nullable ByteBuffer from,
+            long snapshot);
+
+    /**
+     * Provides every version of the cells with keys not less than {@code from} in {@link Cell#BY_VERSION}
+     * order. Meant for a single pass over many cells, so the table should not cache what it reads.
+     */
+    @NotNull
+    Iterator<Cell> scan(@NotNull ByteBuffer from);
+
+    /**
+     * Key ranges removed by the table, which shadow the older cells of the table itself
+     * and all the cells of older tables.
+     */
+    @NotNull
+    RangeTombstones rangeTombstones();
+
+    /**
+     * Looks the keys sorted in ascending order up as of {@code snapshot}.
+     *
+     * @return the cell of every key or {@code null} if the table has none
+     */
+    @NotNull
+    default Cell[] get(
+            @NotNull final List<ByteBuffer> keys,
+            final long snapshot) {
+        final Cell[] result = new Cell[keys.size()];
+        for (int i = 0; i < result.length; i++) {
+            final ByteBuffer key = keys.get(i);
+            if (mightContain(key)) {
+                final Iterator<Cell> cells = iterator(key, snapshot);
+                if (cells.hasNext()) {
+                    final Cell cell = cells.next();
+                    if (cell.getKey().equals(key)) {
+                        result[i] = cell;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether the table may hold a cell with the given key, so a negative answer saves a seek.
+     */
+    default boolean mightContain(@NotNull final ByteBuffer key) {
+        return true;
+    }
+
+    /**
+     * Whether the table may hold a cell or a removed range with a key starting with the prefix,
+     * so a negative answer lets a prefix scan skip the table.
+     *
+     * @param extractor the one configured for the storage if any
+     */
+    default boolean mightContainPrefix(
+            @NotNull final ByteBuffer prefix,
+            @Nullable final PrefixExtractor extractor) {
+        return true;
+    }
+
+    /**
+     * Sequential number the table was created with.
+     */
+    long generation();
+
+    /**
+     * Cells of a table with higher precedence shadow cells with equal keys from the others.
+     */
+    long precedence();
+
+    long sizeInBytes();
+}
@@ -0,0 +1,117 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the tables a read has to consult, newest first.
+ *
+ * <p>Besides the current memtable and the persisted tables it contains frozen memtables
+ * which are being flushed in the background, so their data stays visible until
+ * the corresponding {@link SSTable} replaces them. Persisted tables are ordered
+ * by {@link Table#precedence()}.
+ */
+final class TableSet {
+    final MemTable memTable;
+    final List<MemTable> flushing;
+    final List<SSTable> tables;
+
+    TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final List<MemTable> flushing,
+            @NotNull final List<SSTable> tables) {
+        this.memTable = memTable;
+        this.flushing = Collections.unmodifiableList(flushing);
+        this.tables = Collections.unmodifiableList(tables);
+    }
+
+    /**
+     * Makes the current memtable read-only and puts a fresh one in front of it.
+     */
+    @NotNull
+    TableSet freeze(@NotNull final MemTable fresh) {
+        final List<MemTable> frozen = new ArrayList<>(flushing.size() + 1);
+        frozen.add(memTable);
+        frozen.addAll(flushing);
+        return new TableSet(fresh, frozen, tables);
+    }
+
+    /**
+     * Replaces a frozen memtable with the table it was persisted to.
+     */
+    @NotNull
+    TableSet flushed(
+            @NotNull final MemTable frozen,
+            @NotNull final SSTable table) {
+        final List<MemTable> remaining = new ArrayList<>(flushing);
+        remaining.remove(frozen);
+        final List<SSTable> persisted = new ArrayList<>(tables.size() + 1);
+        persisted.addAll(tables);
+        persisted.add(table);
+        persisted.sort(Comparator.comparingLong(SSTable::precedence).reversed());
+        return new TableSet(memTable, remaining, persisted);
+    }
+
+    /**
+     * Replaces compaction inputs with its outputs.
+     */
+    @NotNull
+    TableSet compacted(
+            @NotNull final List<SSTable> inputs,
+            @NotNull final List<SSTable> outputs) {
+        final Set<SSTable> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        replaced.addAll(inputs);
+        final List<SSTable> persisted = new ArrayList<>(tables.size() - inputs.size() + outputs.size());
+        for (final SSTable table : tables) {
+            if (!replaced.contains(table)) {
+                persisted.add(table);
+            }
+        }
+        persisted.addAll(outputs);
+        persisted.sort(Comparator.comparingLong(SSTable::precedence).reversed());
+        return new TableSet(memTable, flushing, persisted);
+    }
+
+    /**
+     * Persisted tables of the given level.
+     */
+    @NotNull
+    List<SSTable> level(final int level) {
+        final List<SSTable> result = new ArrayList<>();
+        for (final SSTable table : tables) {
+            if (table.level() == level) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The current and the frozen memtables, newest first, which precede all the persisted tables.
+     */
+    @NotNull
+    List<Table> inMemory() {
+        final List<Table> result = new ArrayList<>(1 + flushing.size());
+        result.add(memTable);
+        result.addAll(flushing);
+        return result;
+    }
+
+    /**
+     * All tables, newest first.
+     */
+    @NotNull
+    List<Table> all() {
+        final List<Table> result = new ArrayList<>(1 + flushing.size() + tables.size());
+        result.add(memTable);
+        result.addAll(flushing);
+        result.addAll(tables);
+        return result;
+    }
+}
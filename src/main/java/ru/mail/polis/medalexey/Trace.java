@@ -0,0 +1,213 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What a traced read did: the tables it consulted, the blocks it read and when,
+ * see {@link Config.Builder#tracing(double, long)}.
+ */
+public final class Trace {
+    private static final int KEY_PREFIX = 32;
+
+    /**
+     * Steps of a read.
+     */
+    public enum Kind {
+        /**
+         * A memtable is consulted.
+         */
+        MEMTABLE,
+        /**
+         * A persisted table is consulted.
+         */
+        TABLE,
+        /**
+         * The Bloom filter of the table rules the key out.
+         */
+        FILTERED,
+        /**
+         * A block is found in the block cache.
+         */
+        CACHE_HIT,
+        /**
+         * A block missed the cache and is read from the table.
+         */
+        CACHE_MISS,
+        /**
+         * A block is read from the table bypassing the cache.
+         */
+        BLOCK_READ,
+        /**
+         * The key is resolved by a cell or a range tombstone of the table.
+         */
+        RESOLVED
+    }
+
+    private final String operation;
+    private final ByteBuffer key;
+    private final long startMillis;
+    private final long durationNanos;
+    private final List<Event> events;
+    private final boolean truncated;
+
+    Trace(
+            @NotNull final String operation,
+            @NotNull final ByteBuffer key,
+            final long startMillis,
+            final long durationNanos,
+            @NotNull final List<Event> events,
+            final boolean truncated) {
+        this.operation = operation;
+        this.key = key;
+        this.startMillis = startMillis;
+        this.durationNanos = durationNanos;
+        this.events = Collections.unmodifiableList(events);
+        this.truncated = truncated;
+    }
+
+    @NotNull
+    public String operation() {
+        return operation;
+    }
+
+    /**
+     * The looked up key or the start of the iterator.
+     */
+    @NotNull
+    public ByteBuffer key() {
+        return key.asReadOnlyBuffer();
+    }
+
+    /**
+     * Wall clock time the read started at.
+     */
+    public long startMillis() {
+        return startMillis;
+    }
+
+    public long durationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Steps in the order they were taken.
+     */
+    @NotNull
+    public List<Event> events() {
+        return events;
+    }
+
+    /**
+     * Whether the read took more steps than a trace keeps.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Lists the steps with the time spent on each of them, which is the time till the next step.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder(64 * (events.size() + 1))
+                .append(String.format(
+                        Locale.ROOT,
+                        "%s %s in %.1f us at %d%n",
+                        operation,
+                        hex(key),
+                        durationNanos / 1e3,
+                        startMillis));
+        for (int i = 0; i < events.size(); i++) {
+            final Event event = events.get(i);
+            final long end = i + 1 < events.size() ? events.get(i + 1).offsetNanos() : durationNanos;
+            result.append(String.format(
+                    Locale.ROOT,
+                    "  +%.1f us %s (%.1f us)%n",
+                    event.offsetNanos() / 1e3,
+                    event,
+                    (end - event.offsetNanos()) / 1e3));
+        }
+        if (truncated) {
+            result.append("  ...").append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    @NotNull
+    private static String hex(@NotNull final ByteBuffer key) {
+        final StringBuilder result = new StringBuilder(2 * KEY_PREFIX + 3);
+        for (int i = key.position(); i < key.limit() && i - key.position() < KEY_PREFIX; i++) {
+            result.append(String.format(Locale.ROOT, "%02x", key.get(i)));
+        }
+        if (key.remaining() > KEY_PREFIX) {
+            result.append("...");
+        }
+        return result.toString();
+    }
+
+    /**
+     * A step of a read.
+     */
+    public static final class Event {
+        private final Kind kind;
+        private final long offsetNanos;
+        private final long table;
+        private final int detail;
+
+        Event(
+                @NotNull final Kind kind,
+                final long offsetNanos,
+                final long table,
+                final int detail) {
+            this.kind = kind;
+            this.offsetNanos = offsetNanos;
+            this.table = table;
+            this.detail = detail;
+        }
+
+        @NotNull
+        public Kind kind() {
+            return kind;
+        }
+
+        /**
+         * Time since the start of the read.
+         */
+        public long offsetNanos() {
+            return offsetNanos;
+        }
+
+        /**
+         * Generation of the table the step concerns.
+         */
+        public long table() {
+            return table;
+        }
+
+        /**
+         * Level of the table for {@link Kind#TABLE}, the block index for the block steps.
+         */
+        public int detail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case TABLE:
+                    return "table " + table + " of level " + detail;
+                case CACHE_HIT:
+                case CACHE_MISS:
+                case BLOCK_READ:
+                    return kind.toString().toLowerCase(Locale.ROOT) + " of block " + detail + " of table " + table;
+                default:
+                    return kind.toString().toLowerCase(Locale.ROOT) + " " + table;
+            }
+        }
+    }
+}
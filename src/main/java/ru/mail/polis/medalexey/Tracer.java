@@ -0,0 +1,276 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Records the steps of reads and keeps the traces of sampled and slow ones in a ring buffer.
+ *
+ * <p>The steps are recorded by the reading thread into a preallocated recorder of its own,
+ * which the tables and the block cache find in a thread local, so tables need not know
+ * about tracing. A read which turns out to be neither sampled nor slow costs a few stores
+ * per step and no allocations. With tracing disabled in every open storage the steps
+ * cost a single volatile read.
+ *
+ * <p>An iteration is traced from opening the iterator until it is exhausted into a recorder of
+ * its own, as the iterator may be advanced by any thread and interleaved with other reads.
+ */
+final class Tracer {
+    /**
+     * Traces kept by a storage.
+     */
+    static final int CAPACITY = 256;
+    private static final int MAX_EVENTS = 128;
+    private static final Trace.Kind[] KINDS = Trace.Kind.values();
+    // Storages tracing, so that the steps skip the thread local otherwise
+    private static final AtomicInteger tracing = new AtomicInteger();
+    private static final ThreadLocal<Recorder> current = new ThreadLocal<>();
+
+    private final double sampleRate;
+    private final long thresholdNanos;
+    private final ThreadLocal<Recorder> recorders = ThreadLocal.withInitial(Recorder::new);
+    // Guarded by this
+    private final Trace[] ring = new Trace[CAPACITY];
+    private long written;
+    private boolean closed;
+
+    private Tracer(
+            final double sampleRate,
+            final long thresholdNanos) {
+        this.sampleRate = sampleRate;
+        this.thresholdNanos = thresholdNanos;
+        tracing.incrementAndGet();
+    }
+
+    /**
+     * Creates the tracer selected by the config, {@code null} if tracing is disabled.
+     */
+    @Nullable
+    static Tracer of(@NotNull final Config config) {
+        if (config.traceSampleRate() == 0.0 && config.traceThresholdNanos() == Long.MAX_VALUE) {
+            return null;
+        }
+        return new Tracer(config.traceSampleRate(), config.traceThresholdNanos());
+    }
+
+    /**
+     * Starts recording a read by the current thread, which must be followed by {@link #finish(Recorder)}.
+     */
+    @NotNull
+    Recorder start(
+            @NotNull final String operation,
+            @NotNull final ByteBuffer key) {
+        final Recorder recorder = recorders.get();
+        begin(recorder, operation, key);
+        return recorder;
+    }
+
+    /**
+     * Opens the iterator tracing it until it is exhausted. The duration of the trace is the time
+     * spent in opening and advancing the iterator, not in between, and an iterator abandoned
+     * before it is exhausted leaves no trace.
+     */
+    @NotNull
+    <T> Iterator<T> iterate(
+            @NotNull final String operation,
+            @NotNull final ByteBuffer key,
+            @NotNull final Supplier<Iterator<T>> open) {
+        final ByteBuffer keyCopy = ByteBuffer.allocate(key.remaining());
+        keyCopy.put(key.duplicate()).flip();
+        final Recorder recorder = new Recorder();
+        begin(recorder, operation, keyCopy);
+        final Iterator<T> iterator;
+        try {
+            iterator = open.get();
+        } catch (RuntimeException e) {
+            finish(recorder);
+            throw e;
+        }
+        suspend(recorder);
+        return new TracedIterator<>(iterator, recorder);
+    }
+
+    /**
+     * Stops recording and keeps the trace if the read was sampled or slow.
+     */
+    void finish(@NotNull final Recorder recorder) {
+        suspend(recorder);
+        final long duration = recorder.busy;
+        if (recorder.sampled || duration >= thresholdNanos) {
+            final Trace trace = recorder.toTrace(duration);
+            synchronized (this) {
+                ring[(int) (written++ % CAPACITY)] = trace;
+            }
+        }
+        recorder.key = null;
+    }
+
+    private void begin(
+            @NotNull final Recorder recorder,
+            @NotNull final String operation,
+            @NotNull final ByteBuffer key) {
+        recorder.operation = operation;
+        recorder.key = key;
+        recorder.sampled = sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+        recorder.events = 0;
+        recorder.truncated = false;
+        recorder.busy = 0L;
+        recorder.startMillis = System.currentTimeMillis();
+        recorder.start = System.nanoTime();
+        recorder.resumed = recorder.start;
+        current.set(recorder);
+    }
+
+    private static void resume(@NotNull final Recorder recorder) {
+        recorder.resumed = System.nanoTime();
+        current.set(recorder);
+    }
+
+    private static void suspend(@NotNull final Recorder recorder) {
+        recorder.busy += System.nanoTime() - recorder.resumed;
+        current.remove();
+    }
+
+    /**
+     * The traces kept, oldest first.
+     */
+    @NotNull
+    synchronized List<Trace> traces() {
+        final int count = (int) Math.min(written, CAPACITY);
+        final List<Trace> result = new ArrayList<>(count);
+        for (long i = written - count; i < written; i++) {
+            result.add(ring[(int) (i % CAPACITY)]);
+        }
+        return result;
+    }
+
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            tracing.decrementAndGet();
+        }
+    }
+
+    /**
+     * Records a step of the read traced by the current thread if any.
+     *
+     * @param detail see {@link Trace.Event#detail()}
+     */
+    static void step(
+            @NotNull final Trace.Kind kind,
+            final long table,
+            final int detail) {
+        if (tracing.get() == 0) {
+            return;
+        }
+        final Recorder recorder = current.get();
+        if (recorder != null) {
+            recorder.add(kind, table, detail);
+        }
+    }
+
+    /**
+     * Steps of the read a thread is doing.
+     */
+    static final class Recorder {
+        private final long[] offsets = new long[MAX_EVENTS];
+        private final long[] tables = new long[MAX_EVENTS];
+        private final int[] details = new int[MAX_EVENTS];
+        private final byte[] kinds = new byte[MAX_EVENTS];
+        private String operation;
+        private ByteBuffer key;
+        private boolean sampled;
+        private int events;
+        private boolean truncated;
+        private long startMillis;
+        private long start;
+        // Since the read was last resumed by a thread
+        private long resumed;
+        // Spent in the read until it was last suspended
+        private long busy;
+
+        private void add(
+                @NotNull final Trace.Kind kind,
+                final long table,
+                final int detail) {
+            if (events == MAX_EVENTS) {
+                truncated = true;
+                return;
+            }
+            offsets[events] = System.nanoTime() - start;
+            tables[events] = table;
+            details[events] = detail;
+            kinds[events] = (byte) kind.ordinal();
+            events++;
+        }
+
+        @NotNull
+        private Trace toTrace(final long duration) {
+            final List<Trace.Event> result = new ArrayList<>(events);
+            for (int i = 0; i < events; i++) {
+                result.add(new Trace.Event(KINDS[kinds[i]], offsets[i], tables[i], details[i]));
+            }
+            final ByteBuffer keyCopy = ByteBuffer.allocate(key.remaining());
+            keyCopy.put(key.duplicate()).flip();
+            return new Trace(operation, keyCopy, startMillis, duration, result, truncated);
+        }
+    }
+
+    /**
+     * Records the steps of advancing the iterator and finishes the trace once it is exhausted.
+     */
+    private final class TracedIterator<T> implements Iterator<T> {
+        private final Iterator<T> iterator;
+        private final Recorder recorder;
+        private boolean finished;
+
+        TracedIterator(
+                @NotNull final Iterator<T> iterator,
+                @NotNull final Recorder recorder) {
+            this.iterator = iterator;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (finished) {
+                return false;
+            }
+            resume(recorder);
+            boolean result = false;
+            try {
+                result = iterator.hasNext();
+                return result;
+            } finally {
+                if (result) {
+                    suspend(recorder);
+                } else {
+                    finished = true;
+                    finish(recorder);
+                }
+            }
+        }
+
+        @Override
+        public T next() {
+            if (finished) {
+                throw new NoSuchElementException();
+            }
+            resume(recorder);
+            try {
+                return iterator.next();
+            } finally {
+                suspend(recorder);
+            }
+        }
+    }
+}
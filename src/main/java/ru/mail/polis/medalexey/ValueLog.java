@@ -0,0 +1,274 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Immutable file of values kept apart from the cells of tables, memory-mapped on the first read.
+ *
+ * <p>Values are stored back to back with nothing in between, cells of tables point to them by the log
+ * generation, the offset and the length, see {@link Pointer}. A log is written once, either by a flush
+ * separating the values of at least {@link Config#minSeparatedValue()} bytes or by the collection
+ * of other logs, and is deleted once no table points to it anymore.
+ *
+ * <p>Values of the cells compaction drops stay in their log as garbage. {@link ValueLogs} reclaims it
+ * by rewriting the tables pointing to the logs with too much garbage, which moves the live values
+ * to a fresh log and leaves the old one to nobody.
+ */
+final class ValueLog {
+    static final String SUFFIX = ".vlog";
+    private static final String TEMP = ".tmp";
+
+    private final Path file;
+    private final long generation;
+    private final long size;
+    @Nullable
+    private volatile ByteBuffer data;
+
+    /**
+     * Refers to an existing log of the given size.
+     */
+    ValueLog(
+            @NotNull final Path file,
+            final long generation,
+            final long size) throws IOException {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Unexpected value log size " + size + ": " + file);
+        }
+        this.file = file;
+        this.generation = generation;
+        this.size = size;
+    }
+
+    /**
+     * Starts a log of the given generation, which is only created if something is appended to it.
+     *
+     * @param relocated generations of the logs whose values are to be moved to the new one
+     */
+    @NotNull
+    static Writer writer(
+            @NotNull final Path dir,
+            final long generation,
+            @NotNull final Set<Long> relocated) {
+        return new Writer(file(dir, generation), generation, relocated);
+    }
+
+    @NotNull
+    static Path file(
+            @NotNull final Path dir,
+            final long generation) {
+        return dir.resolve(generation + SUFFIX);
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    long sizeInBytes() {
+        return size;
+    }
+
+    /**
+     * Maps the log unless it is mapped already, so that the readers of the replaced tables keep reading it
+     * once the file is deleted.
+     */
+    void retain() {
+        data();
+    }
+
+    @NotNull
+    private ByteBuffer data() {
+        ByteBuffer result = data;
+        if (result == null) {
+            synchronized (this) {
+                result = data;
+                if (result == null) {
+                    result = map();
+                    data = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    private ByteBuffer map() {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != size) {
+                throw new IOException("Value log size " + channel.size() + " instead of " + size + ": " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open value log " + file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return generation + SUFFIX;
+    }
+
+    /**
+     * Location of a value in a log.
+     */
+    static final class Pointer {
+        private final ValueLog log;
+        private final int offset;
+        private final int length;
+
+        Pointer(
+                @NotNull final ValueLog log,
+                final int offset,
+                final int length) {
+            if (offset < 0 || length < 0 || (long) offset + length > log.size) {
+                throw new IllegalStateException("Value " + offset + "+" + length + " is out of " + log);
+            }
+            this.log = log;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @NotNull
+        ValueLog log() {
+            return log;
+        }
+
+        int offset() {
+            return offset;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * Slices the value out of the mapping, which stays valid even after the log is deleted
+         * if the log was read before.
+         */
+        @NotNull
+        ByteBuffer read() {
+            final ByteBuffer result = log.data().duplicate();
+            result.limit(offset + length).position(offset);
+            return result.slice();
+        }
+    }
+
+    /**
+     * Appends values to a new log through a small staging buffer, neither the file nor the buffer
+     * is created until the first value is appended, so most flushes cost nothing here.
+     */
+    static final class Writer implements AutoCloseable {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final Path file;
+        private final long generation;
+        private final Set<Long> relocated;
+        // Both are created by the first append
+        @Nullable
+        private ByteBuffer buffer;
+        @Nullable
+        private FileChannel channel;
+        private long position;
+
+        private Writer(
+                @NotNull final Path file,
+                final long generation,
+                @NotNull final Set<Long> relocated) {
+            this.file = file;
+            this.generation = generation;
+            this.relocated = Collections.unmodifiableSet(relocated);
+        }
+
+        long generation() {
+            return generation;
+        }
+
+        /**
+         * Whether the values the log points to are to be moved rather than pointed to.
+         */
+        boolean relocates(@NotNull final ValueLog log) {
+            return relocated.contains(log.generation());
+        }
+
+        /**
+         * Bytes appended so far.
+         */
+        long sizeInBytes() {
+            return position;
+        }
+
+        /**
+         * Returns the offset of the appended value.
+         */
+        int append(@NotNull final ByteBuffer value) throws IOException {
+            if (position + value.remaining() > Integer.MAX_VALUE) {
+                throw new IOException("Value log is too big: " + file);
+            }
+            if (channel == null) {
+                channel = FileChannel.open(
+                        temp(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+            final int offset = (int) position;
+            position += value.remaining();
+            if (value.remaining() > buffer.remaining()) {
+                drain();
+                final ByteBuffer chunk = value.duplicate();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            } else {
+                buffer.put(value.duplicate());
+            }
+            return offset;
+        }
+
+        /**
+         * Durably puts the log in place unless it is empty, which must be done before the tables
+         * pointing to it are.
+         */
+        void finish() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            drain();
+            channel.force(false);
+            channel.close();
+            Files.move(temp(), file, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @NotNull
+        private Path temp() {
+            return file.resolveSibling(file.getFileName() + TEMP);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Value logs of a storage, every log is opened once however many tables point to it.
+ *
+ * <p>Only the tables know which logs are live: a log is deleted when the last table pointing to it
+ * is replaced by compaction, and the logs no table points to on open are left by an interrupted
+ * flush or collection. A log is mapped before it is deleted, so readers which still hold the replaced
+ * tables keep reading the mapping of a deleted log.
+ */
+final class ValueLogs {
+    private static final Logger log = LoggerFactory.getLogger(ValueLogs.class);
+    private static final Pattern FILE_NAME = Pattern.compile(
+            "(\\d{1,18})" + Pattern.quote(ValueLog.SUFFIX) + "(\\.tmp)?");
+
+    private final Path dir;
+    // Guarded by this
+    private final Map<Long, ValueLog> logs = new HashMap<>();
+
+    ValueLogs(@NotNull final Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the log of the given generation taking its size from the file on the first call.
+     */
+    @NotNull
+    synchronized ValueLog open(final long generation) throws IOException {
+        final ValueLog result = logs.get(generation);
+        if (result != null) {
+            return result;
+        }
+        final Path file = ValueLog.file(dir, generation);
+        return open(generation, Files.size(file));
+    }
+
+    /**
+     * Returns the log of the given generation and known size, which is only mapped on the first read.
+     */
+    @NotNull
+    synchronized ValueLog open(
+            final long generation,
+            final long size) throws IOException {
+        ValueLog result = logs.get(generation);
+        if (result == null) {
+            result = new ValueLog(ValueLog.file(dir, generation), generation, size);
+            logs.put(generation, result);
+        } else if (result.sizeInBytes() != size) {
+            throw new IOException("Value log " + result + " of " + result.sizeInBytes() + " bytes instead of " + size);
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the logs none of the tables points to, meant for the tables found on open.
+     */
+    void deleteUnreferenced(@NotNull final List<SSTable> tables) throws IOException {
+        final Set<Long> referenced = new HashSet<>();
+        for (final SSTable table : tables) {
+            for (final ValueLog valueLog : table.valueBytes().keySet()) {
+                referenced.add(valueLog.generation());
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (final Path file : files) {
+                final Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()
+                        && Files.isRegularFile(file)
+                        && (matcher.group(2) != null || !referenced.contains(Long.parseLong(matcher.group(1))))) {
+                    log.info("Deleting unreferenced value log {}", file);
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the logs the replaced tables pointed to unless the remaining tables still do, mapping
+     * the ones nobody has read yet.
+     */
+    void release(
+            @NotNull final List<SSTable> replaced,
+            @NotNull final List<SSTable> remaining) throws IOException {
+        final Set<ValueLog> released = new HashSet<>();
+        for (final SSTable table : replaced) {
+            released.addAll(table.valueBytes().keySet());
+        }
+        for (final SSTable table : remaining) {
+            released.removeAll(table.valueBytes().keySet());
+        }
+        for (final ValueLog valueLog : released) {
+            synchronized (this) {
+                logs.remove(valueLog.generation());
+            }
+            try {
+                valueLog.retain();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.deleteIfExists(ValueLog.file(dir, valueLog.generation()));
+        }
+    }
+
+    /**
+     * Bytes of the values the tables point to by log.
+     */
+    @NotNull
+    static Map<ValueLog, Long> liveBytes(@NotNull final List<SSTable> tables) {
+        final Map<ValueLog, Long> result = new HashMap<>();
+        for (final SSTable table : tables) {
+            table.valueBytes().forEach((valueLog, bytes) -> result.merge(valueLog, bytes, Long::sum));
+        }
+        return result;
+    }
+
+    /**
+     * Bytes of the logs the outputs point to and the inputs do not, which is what was written along
+     * with the outputs.
+     */
+    static long writtenBytes(
+            @NotNull final List<SSTable> inputs,
+            @NotNull final List<SSTable> outputs) {
+        final Set<ValueLog> written = new HashSet<>();
+        for (final SSTable output : outputs) {
+            written.addAll(output.valueBytes().keySet());
+        }
+        for (final SSTable input : inputs) {
+            written.removeAll(input.valueBytes().keySet());
+        }
+        return written.stream().mapToLong(ValueLog::sizeInBytes).sum();
+    }
+
+    /**
+     * Picks the table pointing to the most bytes of the log with the largest share of garbage,
+     * the rewrite of the table relocates the values of every log with at least {@code garbageRatio}
+     * of garbage.
+     *
+     * @return the rewrite or {@code null} if no log has enough garbage
+     */
+    @Nullable
+    static Compaction collection(
+            @NotNull final List<SSTable> tables,
+            final double garbageRatio) {
+        final Set<Long> relocated = new HashSet<>();
+        ValueLog worst = null;
+        double worstRatio = 0.0;
+        for (final Map.Entry<ValueLog, Long> entry : liveBytes(tables).entrySet()) {
+            final ValueLog valueLog = entry.getKey();
+            final double ratio = 1.0 - (double) entry.getValue() / Math.max(1L, valueLog.sizeInBytes());
+            if (ratio >= garbageRatio) {
+                relocated.add(valueLog.generation());
+                if (worst == null || ratio > worstRatio) {
+                    worst = valueLog;
+                    worstRatio = ratio;
+                }
+            }
+        }
+        if (worst == null) {
+            return null;
+        }
+
+        SSTable best = null;
+        long bestBytes = 0L;
+        for (final SSTable table : tables) {
+            final long bytes = table.valueBytes().getOrDefault(worst, 0L);
+            if (bytes > bestBytes) {
+                best = table;
+                bestBytes = bytes;
+            }
+        }
+        assert best != null;
+        return new Compaction(Collections.singletonList(best), best.level(), false, relocated);
+    }
+}
@@ -0,0 +1,430 @@
+package ru.mail.polis.medalexey;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.WriteBatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log of the writes buffered in a memtable.
+ *
+ * <p>Record layout is {@code [payload length][crc32 of payload][payload]}, where payload is
+ * {@code [type][key length][key][value]}, a range removal stores the range end as the value.
+ * A write batch is a single record {@code [type][count]([key length][key][value length | -1][value])*},
+ * so its checksum makes replay take either all of the batch or nothing.
+ * Records do not store sequence numbers, replay stamps them with fresh ones in log order.
+ * Writers serialize records into a shared in-memory batch; whoever needs the batch on disk
+ * first becomes the leader, writes and possibly forces everything appended so far, while
+ * the rest wait for it. So concurrent writers pay for a single write and a single fsync.
+ * Every commit hands the batch to the OS whatever the {@link SyncPolicy}, which only decides
+ * when it is forced.
+ */
+final class WriteAheadLog implements Closeable {
+    static final String SUFFIX = ".log";
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final byte UPSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REMOVE_RANGE = 3;
+    private static final byte BATCH = 4;
+    private static final int TOMBSTONE = -1;
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final int MAX_SPARE = 16 * BATCH_SIZE;
+
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+    private final CRC32 crc = new CRC32();
+
+    // Guarded by this
+    private ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BATCH_SIZE);
+    private long appended;
+    private long written;
+    private long synced;
+    private boolean leading;
+    private boolean closed;
+    // The batch of a failed write is lost, so nothing appended after it may reach the file
+    @Nullable
+    private Exception failure;
+
+    /**
+     * Appends to the channel, which {@link #create(Path, SyncPolicy)} opens on an empty file.
+     */
+    WriteAheadLog(
+            @NotNull final FileChannel channel,
+            @NotNull final SyncPolicy policy) {
+        this.channel = channel;
+        this.policy = policy;
+    }
+
+    /**
+     * Creates an empty log in the given file.
+     */
+    @NotNull
+    static WriteAheadLog create(
+            @NotNull final Path file,
+            @NotNull final SyncPolicy policy) throws IOException {
+        return new WriteAheadLog(
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE),
+                policy);
+    }
+
+    /**
+     * Applies every intact record of the log to the memtable, a torn tail is ignored.
+     *
+     * @param sequence the sequence number preceding the ones to stamp the records with
+     * @return the sequence number of the last record applied
+     */
+    static long replay(
+            @NotNull final Path file,
+            @NotNull final MemTable memTable,
+            final long sequence) throws IOException {
+        final MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final CRC32 crc = new CRC32();
+        long last = sequence;
+        while (mapped.remaining() >= HEADER) {
+            final int length = mapped.getInt(mapped.position());
+            final int checksum = mapped.getInt(mapped.position() + Integer.BYTES);
+            if (length <= 0 || length > mapped.remaining() - HEADER) {
+                break;
+            }
+
+            final ByteBuffer payload = mapped.duplicate();
+            payload.position(mapped.position() + HEADER).limit(mapped.position() + HEADER + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            apply(payload.slice(), memTable, ++last);
+            mapped.position(payload.limit());
+        }
+
+        if (mapped.hasRemaining()) {
+            log.warn("Ignoring {} bytes of torn log tail in {}", mapped.remaining(), file);
+        }
+        return last;
+    }
+
+    /**
+     * Appends a record to the current batch.
+     *
+     * @param value the value to upsert or {@code null} to log a removal
+     * @return position the caller should pass to {@link #commit(long)}
+     */
+    long append(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) throws IOException {
+        return value == null ? append(REMOVE, key, null) : append(UPSERT, key, value);
+    }
+
+    private synchronized long append(
+            final byte type,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) throws IOException {
+        final int start = begin(1L + Integer.BYTES + key.remaining() + (value == null ? 0 : value.remaining()));
+        batch.put(type);
+        batch.putInt(key.remaining());
+        batch.put(key.duplicate());
+        if (value != null) {
+            batch.put(value.duplicate());
+        }
+        return seal(start);
+    }
+
+    /**
+     * Appends a removal of the keys from {@code from} inclusive to {@code to} exclusive.
+     *
+     * @return position the caller should pass to {@link #commit(long)}
+     */
+    long appendRangeRemoval(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        return append(REMOVE_RANGE, from, to);
+    }
+
+    /**
+     * Appends the writes of the batch with the given indices as a single record,
+     * so that they are replayed all together or not at all.
+     *
+     * @return position the caller should pass to {@link #commit(long)}
+     */
+    synchronized long appendBatch(
+            @NotNull final WriteBatch writes,
+            @NotNull final int[] indices) throws IOException {
+        long length = 1L + Integer.BYTES;
+        for (final int i : indices) {
+            final ByteBuffer value = writes.value(i);
+            length += 2L * Integer.BYTES + writes.key(i).remaining() + (value == null ? 0 : value.remaining());
+        }
+
+        final int start = begin(length);
+        batch.put(BATCH);
+        batch.putInt(indices.length);
+        for (final int i : indices) {
+            final ByteBuffer key = writes.key(i);
+            final ByteBuffer value = writes.value(i);
+            batch.putInt(key.remaining());
+            batch.put(key);
+            if (value == null) {
+                batch.putInt(TOMBSTONE);
+            } else {
+                batch.putInt(value.remaining());
+                batch.put(value);
+            }
+        }
+        return seal(start);
+    }
+
+    /**
+     * Makes the log up to {@code position} as durable as the {@link SyncPolicy} promises.
+     */
+    void commit(final long position) throws IOException {
+        switch (policy.mode()) {
+            case ALWAYS:
+                flush(position, true);
+                break;
+            case PERIODIC:
+            case NEVER:
+                // Into the page cache, so that only a crash of the machine loses the write
+                flush(position, false);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported sync mode: " + policy.mode());
+        }
+    }
+
+    /**
+     * Forces everything appended so far, used by periodic syncing.
+     */
+    void sync() throws IOException {
+        final long position;
+        synchronized (this) {
+            position = appended;
+        }
+        flush(position, policy.mode() != SyncPolicy.Mode.NEVER);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        while (leading) {
+            await();
+        }
+        closed = true;
+        notifyAll();
+        channel.close();
+    }
+
+    private void flush(
+            final long position,
+            final boolean force) throws IOException {
+        ByteBuffer toWrite = null;
+        long target = 0L;
+        synchronized (this) {
+            while (!closed && (written < position || (force && synced < position))) {
+                checkFailure();
+                if (!leading) {
+                    leading = true;
+                    target = appended;
+                    toWrite = batch;
+                    batch = spare;
+                    spare = null;
+                    break;
+                }
+                await();
+            }
+        }
+
+        if (toWrite == null) {
+            // Either somebody else did the job or the log is closed and its memtable is on disk
+            return;
+        }
+
+        Exception cause = null;
+        boolean succeeded = false;
+        try {
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                channel.write(toWrite);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            succeeded = true;
+        } catch (IOException | RuntimeException e) {
+            cause = e;
+            throw e;
+        } finally {
+            synchronized (this) {
+                toWrite.clear();
+                // Do not pin a batch inflated by a huge record
+                spare = toWrite.capacity() > MAX_SPARE ? ByteBuffer.allocate(BATCH_SIZE) : toWrite;
+                leading = false;
+                if (succeeded) {
+                    written = target;
+                    if (force) {
+                        synced = target;
+                    }
+                } else {
+                    failure = cause == null ? new IOException("Log write was interrupted") : cause;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Fails the writers waiting for the records a failed write has lost, as well as any later ones.
+     */
+    private void checkFailure() throws IOException {
+        assert Thread.holdsLock(this);
+
+        if (failure != null) {
+            throw new IOException("Log is broken by a failed write", failure);
+        }
+    }
+
+    /**
+     * Reserves a record with the payload of the given length and positions the batch at the payload.
+     *
+     * @return the record start to pass to {@link #seal(int)}
+     */
+    private int begin(final long length) throws IOException {
+        assert Thread.holdsLock(this);
+
+        if (closed) {
+            throw new IOException("Log is closed");
+        }
+        checkFailure();
+        if (length > Integer.MAX_VALUE - HEADER) {
+            throw new IOException("Record is too big: " + length);
+        }
+        final int start = reserve(HEADER + (int) length);
+        batch.position(start + HEADER);
+        return start;
+    }
+
+    /**
+     * Fills in the header of the record written since {@link #begin(long)}.
+     */
+    private long seal(final int start) {
+        assert Thread.holdsLock(this);
+
+        final int length = batch.position() - start - HEADER;
+        final ByteBuffer payload = batch.duplicate();
+        payload.limit(batch.position()).position(start + HEADER);
+        crc.reset();
+        crc.update(payload);
+        batch.putInt(start, length);
+        batch.putInt(start + Integer.BYTES, (int) crc.getValue());
+
+        appended += HEADER + length;
+        return appended;
+    }
+
+    /**
+     * Makes room for {@code size} bytes in the batch returning the record start.
+     */
+    private int reserve(final int size) {
+        if (batch.remaining() < size) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + size));
+            batch.flip();
+            bigger.put(batch);
+            batch = bigger;
+        }
+        return batch.position();
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the log");
+        }
+    }
+
+    private static void apply(
+            @NotNull final ByteBuffer payload,
+            @NotNull final MemTable memTable,
+            final long sequence) throws IOException {
+        final byte type = payload.get();
+        switch (type) {
+            case UPSERT:
+                memTable.put(Cell.of(key(payload), payload.slice(), sequence));
+                break;
+            case REMOVE:
+                memTable.put(Cell.tombstone(key(payload), sequence));
+                break;
+            case REMOVE_RANGE:
+                memTable.removeRange(key(payload), payload.slice(), sequence);
+                break;
+            case BATCH:
+                memTable.apply(cells(payload, sequence));
+                break;
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    @NotNull
+    private static List<Cell> cells(
+            @NotNull final ByteBuffer payload,
+            final long sequence) throws IOException {
+        final int count = payload.getInt();
+        if (count < 0) {
+            throw new IOException("Corrupted batch of " + count + " cells");
+        }
+        final List<Cell> cells = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer key = key(payload);
+            final int valueLength = payload.getInt();
+            if (valueLength == TOMBSTONE) {
+                cells.add(Cell.tombstone(key, sequence));
+            } else {
+                cells.add(Cell.of(key, slice(payload, valueLength), sequence));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Reads a length-prefixed key advancing the payload past it.
+     */
+    @NotNull
+    private static ByteBuffer key(@NotNull final ByteBuffer payload) {
+        return slice(payload, payload.getInt());
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer payload,
+            final int length) {
+        final ByteBuffer result = payload.slice();
+        result.limit(length);
+        payload.position(payload.position() + length);
+        return result;
+    }
+}
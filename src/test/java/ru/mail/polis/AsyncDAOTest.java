@@ -0,0 +1,238 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the {@link AsyncDAO} facade.
+ */
+class AsyncDAOTest extends TestBase {
+    private static final int COUNT = 1000;
+
+    @Test
+    void memTableHitsCompleteInline(@TempDir File data) throws Exception {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data);
+             AsyncDAO async = new AsyncDAO(dao, 2, 16)) {
+            async.upsertAsync(key, value).get();
+            final CompletableFuture<ByteBuffer> hit = async.getAsync(key);
+            assertTrue(hit.isDone());
+            assertEquals(value, hit.get());
+
+            async.removeAsync(key).get();
+            final CompletableFuture<ByteBuffer> removed = async.getAsync(key);
+            assertTrue(removed.isDone());
+            assertNotFound(removed);
+        }
+    }
+
+    @Test
+    void readsFromDisk(@TempDir File data) throws Exception {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = DAOFactory.create(data);
+             AsyncDAO async = new AsyncDAO(dao, 2, 16)) {
+            assertEquals(value, async.getAsync(key).get());
+            assertNotFound(async.getAsync(join(key, key)));
+        }
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull(@TempDir File data) throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+            final DAO slow = new DAO() {
+                @NotNull
+                @Override
+                public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+                    return dao.iterator(from);
+                }
+
+                @NotNull
+                @Override
+                public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+                    started.countDown();
+                    try {
+                        assertTrue(release.await(1, TimeUnit.MINUTES));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return dao.get(key);
+                }
+
+                @Override
+                public void upsert(
+                        @NotNull final ByteBuffer key,
+                        @NotNull final ByteBuffer value) throws IOException {
+                    dao.upsert(key, value);
+                }
+
+                @Override
+                public void remove(@NotNull final ByteBuffer key) throws IOException {
+                    dao.remove(key);
+                }
+
+                @Override
+                public void close() {
+                    // The storage is closed by the test
+                }
+            };
+
+            try (AsyncDAO async = new AsyncDAO(slow, 1, 1)) {
+                final CompletableFuture<ByteBuffer> running = async.getAsync(key);
+                assertTrue(started.await(1, TimeUnit.MINUTES));
+                final CompletableFuture<ByteBuffer> queued = async.getAsync(key);
+                final CompletableFuture<ByteBuffer> rejected = async.getAsync(key);
+                final ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+                assertFalse(queued.isDone());
+
+                release.countDown();
+                assertEquals(value, running.get());
+                assertEquals(value, queued.get());
+            }
+        }
+    }
+
+    @Test
+    void scanPublishesBatchesOnDemand(@TempDir File data) throws Exception {
+        final int batchSize = 64;
+        try (DAO dao = DAOFactory.create(data);
+             AsyncDAO async = new AsyncDAO(dao, 2, 16)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(key(i), randomValue());
+            }
+
+            final OneByOne all = new OneByOne();
+            async.rangeAsync(key(0), null, batchSize).subscribe(all);
+            final List<List<Record>> batches = all.completion.get();
+            assertEquals((COUNT + batchSize - 1) / batchSize, batches.size());
+            int index = 0;
+            for (final List<Record> batch : batches) {
+                assertTrue(batch.size() <= batchSize);
+                for (final Record record : batch) {
+                    assertEquals(key(index++), record.getKey());
+                }
+            }
+            assertEquals(COUNT, index);
+
+            final OneByOne range = new OneByOne();
+            async.rangeAsync(key(100), key(200), batchSize).subscribe(range);
+            assertEquals(100, range.completion.get().stream().mapToInt(List::size).sum());
+
+            final OneByOne empty = new OneByOne();
+            async.rangeAsync(key(COUNT), null, batchSize).subscribe(empty);
+            assertTrue(empty.completion.get().isEmpty());
+        }
+    }
+
+    @Test
+    void scanStopsOnCancel(@TempDir File data) throws Exception {
+        try (DAO dao = DAOFactory.create(data);
+             AsyncDAO async = new AsyncDAO(dao, 1, 16)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(key(i), randomValue());
+            }
+
+            final CompletableFuture<List<Record>> first = new CompletableFuture<>();
+            async.rangeAsync(key(0), null, 10).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(final List<Record> batch) {
+                    assertFalse(first.isDone());
+                    first.complete(batch);
+                    subscription.cancel();
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    first.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    first.completeExceptionally(new AssertionError("Completed after cancel"));
+                }
+            });
+            assertEquals(10, first.get().size());
+        }
+    }
+
+    private static void assertNotFound(@NotNull final CompletableFuture<ByteBuffer> future) {
+        final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof NoSuchElementException);
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format(Locale.ROOT, "%08d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Requests the next batch once it got the previous one.
+     */
+    private static final class OneByOne implements Flow.Subscriber<List<Record>> {
+        final CompletableFuture<List<List<Record>>> completion = new CompletableFuture<>();
+        private final List<List<Record>> batches = new ArrayList<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(final List<Record> batch) {
+            batches.add(batch);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completion.complete(batches);
+        }
+    }
+}
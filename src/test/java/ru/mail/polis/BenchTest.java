@@ -0,0 +1,102 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the workload driver behind {@code Client bench}.
+ */
+class BenchTest extends TestBase {
+    private static final int RECORDS = 1000;
+
+    @Test
+    void runsEveryWorkload(@TempDir File data) throws Exception {
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final Workload workload : Workload.values()) {
+                final Bench bench = new Bench(workload, workload.distribution(), RECORDS, 2, 200);
+                bench.load(dao);
+                final Bench.Result result = bench.run(dao);
+                for (final Workload.Operation operation : Workload.Operation.values()) {
+                    final boolean expected = workload.operation(0.0) == operation
+                            || workload.operation(0.999_999) == operation;
+                    if (expected) {
+                        assertTrue(result.count(operation) > 0, workload + " " + operation);
+                    }
+                }
+                result.report();
+            }
+        }
+    }
+
+    @Test
+    void parsesOptions() {
+        assertThrows(IllegalArgumentException.class, () -> Bench.parse(new String[] {"--workload"}));
+        assertThrows(IllegalArgumentException.class, () -> Bench.parse(new String[] {"--workload", "G"}));
+        assertThrows(IllegalArgumentException.class, () -> Bench.parse(new String[] {"--threads", "0"}));
+        assertThrows(IllegalArgumentException.class, () -> Bench.parse(new String[] {"--rows", "1"}));
+        Bench.parse(new String[] {"--workload", "d", "--distribution", "uniform", "--records", "10", "--duration", "1"});
+    }
+
+    @Test
+    void zipfianIsSkewed() {
+        final int items = 1000;
+        final Zipfian zipfian = new Zipfian(items);
+        final int[] hits = new int[items];
+        final int samples = 100_000;
+        for (int i = 0; i < samples; i++) {
+            final long item = zipfian.next();
+            assertTrue(item >= 0 && item < items);
+            hits[(int) item]++;
+        }
+        assertTrue(hits[0] > hits[1]);
+        assertTrue(hits[1] > hits[items / 2]);
+        // Roughly 1/zeta(1000) of the samples, which is about 13%
+        assertTrue(hits[0] > samples / 10);
+    }
+
+    @Test
+    void histogramPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int count = 100_000;
+        for (int i = 1; i <= count; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(count, histogram.count());
+        assertEquals(count * 1000L, histogram.max());
+        assertWithin(count / 2 * 1000L, histogram.percentile(0.5));
+        assertWithin(count * 99 / 100 * 1000L, histogram.percentile(0.99));
+        assertWithin(count * 999 / 1000 * 1000L, histogram.percentile(0.999));
+        assertEquals(count * 1000L, histogram.percentile(1.0));
+        final Stats.Latency latency = histogram.latency();
+        assertEquals(count, latency.count());
+        assertEquals(histogram.percentile(0.99), latency.p99());
+
+        final LatencyHistogram small = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            small.record(i);
+        }
+        assertEquals(49, small.percentile(0.5));
+        histogram.add(small);
+        assertEquals(count + 100, histogram.count());
+        assertEquals(0, new LatencyHistogram().percentile(0.99));
+
+        final LatencyHistogram huge = new LatencyHistogram();
+        final long value = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        huge.record(value);
+        huge.record(Long.MAX_VALUE);
+        assertWithin(value, huge.percentile(0.5));
+    }
+
+    private static void assertWithin(
+            final long expected,
+            final long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 64, expected + " vs " + actual);
+    }
+}
@@ -0,0 +1,122 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.CompactionStyle;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that overwrites and removals do not grow the storage without bound.
+ */
+class CompactionTest extends TestBase {
+    private static final Config EAGER = Config.builder().level0Trigger(2).build();
+    private static final Config SIZE_TIERED = Config.builder()
+            .compactionStyle(CompactionStyle.SIZE_TIERED)
+            .mergeWidth(2)
+            .build();
+
+    @Test
+    void overwrite(@TempDir File data) throws IOException {
+        overwrite(data, EAGER);
+    }
+
+    @Test
+    void overwriteSizeTiered(@TempDir File data) throws IOException {
+        overwrite(data, SIZE_TIERED);
+    }
+
+    @Test
+    void removeEverything(@TempDir File data) throws IOException {
+        removeEverything(data, EAGER);
+    }
+
+    @Test
+    void removeEverythingSizeTiered(@TempDir File data) throws IOException {
+        removeEverything(data, SIZE_TIERED);
+    }
+
+    @Test
+    void writeAmplification(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, SIZE_TIERED)) {
+            // Nothing flushed yet
+            assertTrue(Double.isNaN(((LsmDAO) dao).writeAmplification()));
+        }
+        for (int i = 0; i < 10; i++) {
+            try (DAO dao = DAOFactory.create(data, SIZE_TIERED)) {
+                dao.upsert(randomKey(), randomValue());
+            }
+        }
+        final LsmDAO dao = (LsmDAO) DAOFactory.create(data, SIZE_TIERED);
+        try {
+            for (int i = 0; i < 10; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+            // Whatever compaction has written, nothing is flushed yet
+            assertTrue(Double.isNaN(dao.writeAmplification()));
+        } finally {
+            dao.close();
+        }
+        // Closing waits for the compaction of the tables above and flushes the memtable
+        assertTrue(dao.writeAmplification() > 1.0);
+    }
+
+    private static void overwrite(
+            final File data,
+            final Config config) throws IOException {
+        final ByteBuffer key = randomKey();
+        final int overwrites = 100;
+        for (int i = 0; i < overwrites; i++) {
+            final ByteBuffer value = randomValue();
+            try (DAO dao = DAOFactory.create(data, config)) {
+                dao.upsert(key, value);
+                assertEquals(value, dao.get(key));
+            }
+            try (DAO dao = DAOFactory.create(data, config)) {
+                assertEquals(value, dao.get(key));
+            }
+        }
+
+        // A few tables with a single record each at most
+        assertTrue(Files.directorySize(data) < 10 * (KEY_LENGTH + randomValue().remaining()));
+    }
+
+    private static void removeEverything(
+            final File data,
+            final Config config) throws IOException {
+        final int count = 1000;
+        final ByteBuffer[] keys = new ByteBuffer[count];
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < count; i++) {
+                keys[i] = randomKey();
+                dao.upsert(keys[i], randomValue());
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            try (DAO dao = DAOFactory.create(data, config)) {
+                for (final ByteBuffer key : keys) {
+                    dao.remove(key);
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (final ByteBuffer key : keys) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+        }
+
+        // Tombstones reached the last level and were dropped
+        assertTrue(Files.directorySize(data) < count * KEY_LENGTH);
+    }
+}
@@ -0,0 +1,115 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Compression;
+import ru.mail.polis.medalexey.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks block compression.
+ */
+class CompressionTest extends TestBase {
+    private static final int COUNT = 1000;
+    private static final Config NONE = Config.builder().compression(Compression.NONE).build();
+    private static final Config LZ = Config.builder().compression(Compression.LZ).build();
+
+    @Test
+    void compressible(@TempDir File data) throws IOException {
+        final ByteBuffer[] keys = fill(data, LZ, CompressionTest::repetitive);
+        verify(data, LZ, keys, CompressionTest::repetitive);
+        assertTrue(Files.directorySize(data) < COUNT * 1024L / 4);
+    }
+
+    @Test
+    void uncompressed(@TempDir File data) throws IOException {
+        final ByteBuffer[] keys = fill(data, NONE, CompressionTest::repetitive);
+        verify(data, NONE, keys, CompressionTest::repetitive);
+        assertTrue(Files.directorySize(data) > COUNT * 1024L);
+    }
+
+    @Test
+    void incompressible(@TempDir File data) throws IOException {
+        final ByteBuffer[] keys = new ByteBuffer[COUNT];
+        final ByteBuffer[] values = new ByteBuffer[COUNT];
+        try (DAO dao = DAOFactory.create(data, LZ)) {
+            for (int i = 0; i < COUNT; i++) {
+                keys[i] = randomKey();
+                values[i] = randomValue();
+                dao.upsert(keys[i], values[i]);
+            }
+        }
+        try (DAO dao = DAOFactory.create(data, LZ)) {
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(values[i], dao.get(keys[i]));
+            }
+        }
+    }
+
+    @Test
+    void mixed(@TempDir File data) throws IOException {
+        final ByteBuffer[] compressed = fill(data, LZ, CompressionTest::repetitive);
+        final ByteBuffer[] plain = fill(data, NONE, CompressionTest::repetitive);
+        verify(data, LZ, compressed, CompressionTest::repetitive);
+        verify(data, NONE, plain, CompressionTest::repetitive);
+    }
+
+    private static ByteBuffer[] fill(
+            final File data,
+            final Config config,
+            final ValueFactory values) throws IOException {
+        final ByteBuffer[] keys = new ByteBuffer[COUNT];
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < COUNT; i++) {
+                keys[i] = randomKey();
+                dao.upsert(keys[i], values.of(keys[i]));
+            }
+        }
+        return keys;
+    }
+
+    private static void verify(
+            final File data,
+            final Config config,
+            final ByteBuffer[] keys,
+            final ValueFactory values) throws IOException {
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (final ByteBuffer key : keys) {
+                assertEquals(values.of(key), dao.get(key));
+            }
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            int count = 0;
+            while (records.hasNext()) {
+                records.next();
+                count++;
+            }
+            assertTrue(count >= keys.length);
+            assertFalse(records.hasNext());
+        }
+    }
+
+    /**
+     * Value of about a kilobyte repeating the key.
+     */
+    private static ByteBuffer repetitive(final ByteBuffer key) {
+        final ByteBuffer result = ByteBuffer.allocate(1024);
+        while (result.remaining() > key.remaining()) {
+            result.put(key.duplicate());
+        }
+        result.put((byte) 42);
+        return result.flip();
+    }
+
+    @FunctionalInterface
+    private interface ValueFactory {
+        ByteBuffer of(ByteBuffer key);
+    }
+}
@@ -0,0 +1,210 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.medalexey.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stresses a {@link DAO} with concurrent writers and readers.
+ */
+class ConcurrencyTest extends TestBase {
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyTest.class);
+    private static final int THREADS = 8;
+    private static final int WRITES = 2000;
+    private static final int HOT_KEYS = 16;
+    // A few memtables get frozen while the writers are running
+    private static final Config SMALL = Config.builder().flushThreshold(8L * 1024 * 1024).build();
+
+    @Test
+    void concurrentWriters(@TempDir File data) throws Exception {
+        final ByteBuffer[][] values = new ByteBuffer[THREADS][WRITES];
+        for (final ByteBuffer[] thread : values) {
+            for (int i = 0; i < WRITES; i++) {
+                thread[i] = randomValue();
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data, SMALL)) {
+            final List<Callable<Void>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                writers.add(() -> {
+                    for (int i = 0; i < WRITES; i++) {
+                        dao.upsert(key("own", thread, i), values[thread][i]);
+                        dao.upsert(key("hot", 0, i % HOT_KEYS), values[thread][i]);
+                        if (i % 10 == 0) {
+                            dao.remove(key("own", thread, i));
+                        }
+                    }
+                    return null;
+                });
+            }
+            run(writers);
+            verify(dao, values);
+        }
+        try (DAO dao = DAOFactory.create(data, SMALL)) {
+            verify(dao, values);
+        }
+    }
+
+    @Test
+    void readersSeeWholeBatches(@TempDir File data) throws Exception {
+        try (DAO dao = DAOFactory.create(data, SMALL)) {
+            final AtomicInteger writing = new AtomicInteger(THREADS / 2);
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS / 2; t++) {
+                final int thread = t;
+                tasks.add(() -> {
+                    try {
+                        for (int i = 0; i < WRITES; i++) {
+                            final ByteBuffer value = randomValue();
+                            dao.write(new WriteBatch()
+                                    .upsert(key("a", thread, i), value)
+                                    .upsert(key("b", thread, i), value));
+                        }
+                    } finally {
+                        writing.decrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            for (int t = 0; t < THREADS / 2; t++) {
+                tasks.add(() -> {
+                    while (writing.get() > 0) {
+                        // Every batch put a record into both halves of the key space
+                        final Iterator<Record> records = dao.range(prefix("a"), prefix("c"));
+                        int first = 0;
+                        int second = 0;
+                        Record previous = null;
+                        while (records.hasNext()) {
+                            final Record record = records.next();
+                            assertTrue(previous == null || previous.compareTo(record) < 0);
+                            if (record.getKey().get(0) == 'a') {
+                                first++;
+                            } else {
+                                second++;
+                            }
+                            previous = record;
+                        }
+                        assertEquals(first, second);
+                    }
+                    return null;
+                });
+            }
+            run(tasks);
+
+            final Iterator<Record> records = dao.iterator(prefix("a"));
+            assertEquals(THREADS / 2 * WRITES * 2, count(records));
+        }
+    }
+
+    @Test
+    void throughput(@TempDir File data) throws Exception {
+        final int total = 64_000;
+        for (int threads = 1; threads <= THREADS; threads *= 2) {
+            final File dir = new File(data, String.valueOf(threads));
+            assertTrue(dir.mkdir());
+            try (DAO dao = DAOFactory.create(dir)) {
+                final int perThread = total / threads;
+                final List<Callable<Void>> writers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final int thread = t;
+                    writers.add(() -> {
+                        final ByteBuffer value = randomBuffer(100);
+                        for (int i = 0; i < perThread; i++) {
+                            dao.upsert(key("t", thread, i), value);
+                        }
+                        return null;
+                    });
+                }
+                final long start = System.nanoTime();
+                run(writers);
+                final long elapsed = System.nanoTime() - start;
+                log.info(
+                        "{} writer threads: {} upserts/s",
+                        threads,
+                        String.format(Locale.ROOT, "%.0f", total * 1e9 / elapsed));
+                assertEquals(total, count(dao.iterator(prefix("t"))));
+            }
+        }
+    }
+
+    private static void verify(
+            final DAO dao,
+            final ByteBuffer[][] values) throws IOException {
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < WRITES; i++) {
+                final ByteBuffer key = key("own", t, i);
+                if (i % 10 == 0) {
+                    assertFalse(dao.range(key, join(key, ByteBuffer.allocate(1))).hasNext());
+                } else {
+                    assertEquals(values[t][i], dao.get(key));
+                }
+            }
+        }
+
+        // Every hot key holds the last value some writer has put there
+        for (int k = 0; k < HOT_KEYS; k++) {
+            final ByteBuffer value = dao.get(key("hot", 0, k));
+            boolean found = false;
+            for (int t = 0; t < THREADS; t++) {
+                final int last = WRITES - HOT_KEYS + k;
+                found |= values[t][last].equals(value);
+            }
+            assertTrue(found);
+        }
+    }
+
+    private static void run(final List<Callable<Void>> tasks) throws InterruptedException, ExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (final Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int count(final Iterator<Record> records) {
+        int result = 0;
+        while (records.hasNext()) {
+            records.next();
+            result++;
+        }
+        return result;
+    }
+
+    private static ByteBuffer prefix(final String prefix) {
+        return ByteBuffer.wrap(prefix.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer key(
+            final String prefix,
+            final int thread,
+            final int index) {
+        final String key = String.format(Locale.ROOT, "%s%02d%08d", prefix, thread, index);
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.US_ASCII));
+    }
+}
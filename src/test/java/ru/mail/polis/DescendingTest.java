@@ -0,0 +1,218 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that descending iteration returns what ascending iteration does in reverse.
+ */
+class DescendingTest extends TestBase {
+    private static final int KEYS = 3000;
+    private static final int VALUE_LENGTH = 100;
+    // Many small tables nobody compacts
+    private static final Config TABLES = Config.builder()
+            .flushThreshold(64 * 1024)
+            .level0Trigger(1000)
+            .build();
+
+    @Test
+    void empty(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            assertFalse(dao.descendingIterator(null).hasNext());
+            assertFalse(dao.descendingIterator(randomKey()).hasNext());
+        }
+    }
+
+    @Test
+    void matchesModel(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            mutate(dao, model);
+            verify(dao, model);
+        }
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            verify(dao, model);
+            mutate(dao, model);
+            verify(dao, model);
+        }
+    }
+
+    @Test
+    void skipsRemovedRanges(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            mutate(dao, model);
+            for (int i = 0; i < 20; i++) {
+                final ByteBuffer from = randomKey();
+                final ByteBuffer to = randomKey();
+                if (from.compareTo(to) < 0) {
+                    dao.removeRange(from, to);
+                    model.subMap(from, to).clear();
+                }
+                // Start right at a removed range too
+                verify(dao, model, from);
+            }
+            verify(dao, model);
+        }
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            verify(dao, model);
+        }
+    }
+
+    @Test
+    void ranges(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            mutate(dao, model);
+            for (int i = 0; i < 100; i++) {
+                // Either bound may be a present key or not
+                final ByteBuffer from = i % 2 == 0 ? randomKey() : model.higherKey(randomKey());
+                final ByteBuffer to = i % 3 == 0 ? randomKey() : model.lowerKey(randomKey());
+                if (from == null || to == null) {
+                    continue;
+                }
+                final List<ByteBuffer> expected = from.compareTo(to) < 0
+                        ? List.of()
+                        : new ArrayList<>(model.subMap(to, false, from, true).descendingKeySet());
+                assertEquals(expected, keys(dao.descendingRange(from, to)));
+            }
+            final ByteBuffer last = model.lastKey();
+            assertEquals(
+                    new ArrayList<>(model.tailMap(model.firstKey(), false).descendingKeySet()),
+                    keys(dao.descendingRange(null, model.firstKey())));
+            assertEquals(List.of(last), keys(dao.descendingRange(last, model.lowerKey(last))));
+            assertFalse(dao.descendingRange(last, last).hasNext());
+        }
+    }
+
+    @Test
+    void snapshot(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            mutate(dao, model);
+            try (Snapshot snapshot = dao.snapshot()) {
+                final NavigableMap<ByteBuffer, ByteBuffer> before = new TreeMap<>(model);
+                mutate(dao, model);
+                dao.removeRange(model.firstKey(), model.lastKey());
+                assertEquals(entries(before.descendingMap()), entries(snapshot.descendingIterator(null)));
+                final ByteBuffer from = randomKey();
+                assertEquals(
+                        entries(before.headMap(from, true).descendingMap()),
+                        entries(snapshot.descendingIterator(from)));
+            }
+        }
+    }
+
+    @Test
+    void takesLastRecordsCheaply(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        // A couple of big tables of many blocks
+        for (int i = 0; i < 2; i++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int j = 0; j < KEYS; j++) {
+                    final ByteBuffer key = randomKey();
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    model.put(key, value);
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            final Iterator<Record> records = dao.descendingIterator(null);
+            final Iterator<ByteBuffer> expected = model.descendingKeySet().iterator();
+            for (int i = 0; i < 10; i++) {
+                assertEquals(expected.next(), records.next().getKey());
+            }
+            // The last few blocks of both tables
+            final long blocks = ((LsmDAO) dao).blockCacheMisses();
+            assertTrue(blocks <= 10, String.valueOf(blocks));
+
+            dao.iterator(ByteBuffer.allocate(0)).forEachRemaining(record -> { });
+            assertTrue(((LsmDAO) dao).blockCacheMisses() > 100 * blocks);
+        }
+    }
+
+    private static void mutate(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> model) throws IOException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<ByteBuffer> written = new ArrayList<>(model.keySet());
+        for (int i = 0; i < KEYS; i++) {
+            final ByteBuffer key = written.isEmpty() || random.nextInt(4) != 0
+                    ? randomKey()
+                    : written.get(random.nextInt(written.size()));
+            if (random.nextInt(5) == 0) {
+                dao.remove(key);
+                model.remove(key);
+            } else {
+                final ByteBuffer value = randomBuffer(VALUE_LENGTH);
+                dao.upsert(key, value);
+                model.put(key, value);
+                written.add(key);
+            }
+        }
+    }
+
+    private static void verify(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> model) throws IOException {
+        assertEquals(entries(model.descendingMap()), entries(dao.descendingIterator(null)));
+        final List<Map.Entry<ByteBuffer, ByteBuffer>> ascending = entries(dao.iterator(ByteBuffer.allocate(0)));
+        final List<Map.Entry<ByteBuffer, ByteBuffer>> descending = entries(dao.descendingIterator(null));
+        assertEquals(ascending.size(), descending.size());
+        for (int i = 0; i < ascending.size(); i++) {
+            assertEquals(ascending.get(i), descending.get(descending.size() - 1 - i));
+        }
+        for (int i = 0; i < 10; i++) {
+            verify(dao, model, randomKey());
+        }
+        if (!model.isEmpty()) {
+            verify(dao, model, model.firstKey());
+            verify(dao, model, model.lastKey());
+        }
+    }
+
+    private static void verify(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> model,
+            final ByteBuffer from) throws IOException {
+        assertEquals(entries(model.headMap(from, true).descendingMap()), entries(dao.descendingIterator(from)));
+    }
+
+    private static List<Map.Entry<ByteBuffer, ByteBuffer>> entries(final Map<ByteBuffer, ByteBuffer> map) {
+        return new ArrayList<>(map.entrySet());
+    }
+
+    private static List<Map.Entry<ByteBuffer, ByteBuffer>> entries(final Iterator<Record> records) {
+        final List<Map.Entry<ByteBuffer, ByteBuffer>> result = new ArrayList<>();
+        while (records.hasNext()) {
+            final Record record = records.next();
+            result.add(Map.entry(record.getKey(), record.getValue()));
+        }
+        return result;
+    }
+
+    private static List<ByteBuffer> keys(final Iterator<Record> records) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        records.forEachRemaining(record -> result.add(record.getKey()));
+        return result;
+    }
+}
@@ -4,6 +4,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
 
+import java.util.Comparator;
+import java.util.Iterator;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 
@@ -27,6 +30,17 @@ class ItersTest {
         assertEquals(6, Iterators.size(Iters.until(sixNumbers.iterator(), 100)));
     }
 
+    @Test
+    void untilDescending() {
+        final ImmutableList<Integer> sixNumbers = ImmutableList.of(6, 5, 4, 3, 2, 1);
+
+        assertFalse(Iters.until(sixNumbers.iterator(), 7, Comparator.reverseOrder()).hasNext());
+
+        assertEquals(1, Iterators.size(Iters.until(sixNumbers.iterator(), 5, Comparator.reverseOrder())));
+        assertEquals(3, Iterators.size(Iters.until(sixNumbers.iterator(), 3, Comparator.reverseOrder())));
+        assertEquals(6, Iterators.size(Iters.until(sixNumbers.iterator(), 0, Comparator.reverseOrder())));
+    }
+
     @Test
     void collapseEquals() {
         assertFalse(Iters.collapseEquals(Iters.empty()).hasNext());
@@ -39,4 +53,54 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void merge() {
+        assertFalse(Iters.merge(ImmutableList.of(), new long[0], Comparator.naturalOrder(), x -> false).hasNext());
+
+        final Iterator<Integer> merged = Iters.merge(
+                ImmutableList.of(
+                        ImmutableList.of(1, 4, 7).iterator(),
+                        ImmutableList.<Integer>of().iterator(),
+                        ImmutableList.of(2, 4, 6, 8).iterator(),
+                        ImmutableList.of(3, 9).iterator()),
+                new long[]{1, 2, 3, 4},
+                Comparator.naturalOrder(),
+                x -> false);
+        assertEquals(
+                ImmutableList.of(1, 2, 3, 4, 6, 7, 8, 9),
+                ImmutableList.copyOf(merged));
+    }
+
+    @Test
+    void mergeNewestWins() {
+        // Compare by the key only, the value tells which source an element came from
+        final Comparator<String> byKey = Comparator.comparing(s -> s.charAt(0));
+        final Iterator<String> merged = Iters.merge(
+                ImmutableList.of(
+                        ImmutableList.of("a1", "b1", "c1").iterator(),
+                        ImmutableList.of("a3", "c3").iterator(),
+                        ImmutableList.of("b2", "c2", "d2").iterator()),
+                new long[]{1, 3, 2},
+                byKey,
+                x -> false);
+        assertEquals(
+                ImmutableList.of("a3", "b2", "c3", "d2"),
+                ImmutableList.copyOf(merged));
+    }
+
+    @Test
+    void mergeDropsTombstones() {
+        final Comparator<String> byKey = Comparator.comparing(s -> s.charAt(0));
+        final Iterator<String> merged = Iters.merge(
+                ImmutableList.of(
+                        ImmutableList.of("a-", "b-", "d+").iterator(),
+                        ImmutableList.of("a+", "b+", "c+", "d-").iterator()),
+                new long[]{2, 1},
+                byKey,
+                s -> s.endsWith("-"));
+        assertEquals(
+                ImmutableList.of("c+", "d+"),
+                ImmutableList.copyOf(merged));
+    }
 }
@@ -0,0 +1,144 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks point and multi-key lookups across many tables with various Bloom filter and block cache settings.
+ */
+class LookupTest extends TestBase {
+    private static final int TABLES = 8;
+    private static final int KEYS = 100;
+
+    @Test
+    void filtered(@TempDir File data) throws IOException {
+        lookups(data, Config.builder().level0Trigger(TABLES * 2).build());
+    }
+
+    @Test
+    void unfiltered(@TempDir File data) throws IOException {
+        lookups(data, Config.builder().level0Trigger(TABLES * 2).bloomBitsPerKey(0).build());
+    }
+
+    @Test
+    void sparse(@TempDir File data) throws IOException {
+        lookups(data, Config.builder().level0Trigger(TABLES * 2).bloomBitsPerKey(1).build());
+    }
+
+    @Test
+    void tinyBlockCache(@TempDir File data) throws IOException {
+        lookups(data, Config.builder().level0Trigger(TABLES * 2).blockSize(256).blockCacheSize(8 * 1024).build());
+    }
+
+    @Test
+    void uncached(@TempDir File data) throws IOException {
+        lookups(data, Config.builder().level0Trigger(TABLES * 2).blockCacheSize(0).build());
+    }
+
+    @Test
+    void blockCacheHits(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            final LsmDAO lsm = (LsmDAO) dao;
+            assertEquals(value, dao.get(key));
+            assertEquals(0L, lsm.blockCacheHits());
+            assertEquals(1L, lsm.blockCacheMisses());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(value, dao.get(key));
+            }
+            assertEquals(10L, lsm.blockCacheHits());
+            assertEquals(1L, lsm.blockCacheMisses());
+        }
+    }
+
+    @Test
+    void multiGetReadsBlockOnce(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < 10; i++) {
+                final ByteBuffer key = randomKey();
+                keys.add(key);
+                dao.upsert(key, key);
+            }
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            final Map<ByteBuffer, ByteBuffer> values = dao.getAll(keys);
+            assertEquals(keys.size(), values.size());
+            for (final ByteBuffer key : keys) {
+                assertEquals(key, values.get(key));
+            }
+            assertEquals(0L, ((LsmDAO) dao).blockCacheHits());
+            assertEquals(1L, ((LsmDAO) dao).blockCacheMisses());
+        }
+    }
+
+    private static void lookups(
+            final File data,
+            final Config config) throws IOException {
+        final ByteBuffer[][] keys = new ByteBuffer[TABLES][KEYS];
+        final ByteBuffer[][] values = new ByteBuffer[TABLES][KEYS];
+        for (int table = 0; table < TABLES; table++) {
+            try (DAO dao = DAOFactory.create(data, config)) {
+                for (int i = 0; i < KEYS; i++) {
+                    keys[table][i] = randomKey();
+                    values[table][i] = randomValue();
+                    dao.upsert(keys[table][i], values[table][i]);
+                }
+                // Shadow a key from the previous table
+                if (table > 0) {
+                    dao.remove(keys[table - 1][0]);
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int table = 0; table < TABLES; table++) {
+                for (int i = 0; i < KEYS; i++) {
+                    final ByteBuffer key = keys[table][i];
+                    if (i == 0 && table < TABLES - 1) {
+                        assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                    } else {
+                        assertEquals(values[table][i], dao.get(key));
+                    }
+                }
+            }
+            for (int i = 0; i < KEYS * TABLES; i++) {
+                final ByteBuffer missing = randomKey();
+                assertThrows(NoSuchElementException.class, () -> dao.get(missing));
+            }
+
+            final List<ByteBuffer> requested = new ArrayList<>();
+            for (int table = 0; table < TABLES; table++) {
+                requested.addAll(Arrays.asList(keys[table]));
+                requested.add(randomKey());
+            }
+            final Map<ByteBuffer, ByteBuffer> found = dao.getAll(requested);
+            assertEquals(TABLES * KEYS - (TABLES - 1), found.size());
+            for (int table = 0; table < TABLES; table++) {
+                for (int i = 0; i < KEYS; i++) {
+                    if (i > 0 || table == TABLES - 1) {
+                        assertEquals(values[table][i], found.get(keys[table][i]));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the storage opens from its manifest and tolerates what interrupted flushes leave behind.
+ */
+class ManifestTest extends TestBase {
+    private static final int KEYS = 2000;
+    // Many small tables nobody compacts
+    private static final Config TABLES = Config.builder()
+            .flushThreshold(64 * 1024)
+            .level0Trigger(1000)
+            .build();
+
+    @Test
+    void opensTablesLazily(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> content = fill(data);
+        final List<Path> tables = tables(data);
+        assertTrue(tables.size() > 10, tables.toString());
+
+        // Break a table and open the storage anyway
+        final Path broken = tables.get(0);
+        final long size = Files.size(broken);
+        Files.write(broken, new byte[(int) size]);
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            assertThrows(UncheckedIOException.class, () -> dao.iterator(ByteBuffer.allocate(0)));
+        }
+        Files.delete(data.toPath().resolve("MANIFEST"));
+        assertThrows(IOException.class, () -> DAOFactory.create(data, TABLES));
+
+        // The other tables are fine
+        Files.delete(broken);
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            int found = 0;
+            while (records.hasNext()) {
+                final Record record = records.next();
+                assertEquals(content.get(record.getKey()), record.getValue());
+                found++;
+            }
+            assertTrue(found > 0 && found < KEYS, String.valueOf(found));
+        }
+    }
+
+    @Test
+    void reopens(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> content = fill(data);
+        for (int i = 0; i < 3; i++) {
+            try (DAO dao = DAOFactory.create(data, TABLES)) {
+                for (int j = 0; j < 100; j++) {
+                    final ByteBuffer key = randomKey();
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    content.put(key, value);
+                }
+            }
+        }
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            assertContains(dao, content);
+        }
+    }
+
+    @Test
+    void deletesTablesMissingFromManifest(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> content = fill(data);
+        final List<Path> tables = tables(data);
+        // As if a flush was interrupted after the table was put in place
+        final Path orphan = data.toPath().resolve("1000000.db");
+        Files.copy(tables.get(0), orphan);
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            assertContains(dao, content);
+        }
+        assertFalse(Files.exists(orphan));
+    }
+
+    @Test
+    void ignoresTornTail(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> content = fill(data);
+        try (FileChannel channel = FileChannel.open(
+                data.toPath().resolve("MANIFEST"),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            channel.write(randomBuffer(100));
+        }
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            assertContains(dao, content);
+        }
+    }
+
+    @Test
+    void opensWithoutManifest(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> content = fill(data);
+        Files.delete(data.toPath().resolve("MANIFEST"));
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            assertContains(dao, content);
+        }
+        assertTrue(Files.exists(data.toPath().resolve("MANIFEST")));
+    }
+
+    private static Map<ByteBuffer, ByteBuffer> fill(final File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> content = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, TABLES)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                content.put(key, value);
+            }
+        }
+        return content;
+    }
+
+    private static void assertContains(
+            final DAO dao,
+            final Map<ByteBuffer, ByteBuffer> content) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : content.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        final List<ByteBuffer> keys = new ArrayList<>();
+        while (records.hasNext()) {
+            keys.add(records.next().getKey());
+        }
+        assertEquals(new ArrayList<>(content.keySet()), keys);
+    }
+
+    private static List<Path> tables(final File data) throws IOException {
+        try (Stream<Path> files = Files.list(data.toPath())) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".db"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ru.mail.polis;
+
+import com.google.common.collect.Iterators;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+import ru.mail.polis.medalexey.PrefixExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks prefix scans and the prefix filters of the tables.
+ */
+class PrefixTest extends TestBase {
+    private static final int TABLES = 10;
+    private static final int TRACKS = 100;
+    private static final PrefixExtractor ARTIST = PrefixExtractor.delimited((byte) ':');
+    private static final Config FILTERED = Config.builder()
+            .level0Trigger(TABLES * 2)
+            .prefixExtractor(ARTIST)
+            .build();
+
+    @Test
+    void extractors() {
+        assertEquals(key("ab"), PrefixExtractor.fixedLength(2).prefix(key("abc")));
+        assertNull(PrefixExtractor.fixedLength(4).prefix(key("abc")));
+        assertEquals(key("a:"), ARTIST.prefix(key("a:b:c")));
+        assertNull(ARTIST.prefix(key("abc")));
+        assertThrows(IllegalArgumentException.class, () -> PrefixExtractor.fixedLength(0));
+    }
+
+    @Test
+    void matchesModel(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, FILTERED)) {
+            fill(dao, model);
+            verify(dao, model);
+            dao.removeRange(key("ar3:"), key("ar6:"));
+            model.subMap(key("ar3:"), key("ar6:")).clear();
+            for (int i = 0; i < TRACKS; i++) {
+                final ByteBuffer track = track(7, i);
+                if (i % 3 == 0) {
+                    dao.remove(track);
+                    model.remove(track);
+                }
+            }
+            verify(dao, model);
+        }
+        try (DAO dao = DAOFactory.create(data, FILTERED)) {
+            verify(dao, model);
+        }
+    }
+
+    @Test
+    void skipsTablesWithoutPrefix(@TempDir File data) throws IOException {
+        fill(data, FILTERED);
+        try (DAO dao = DAOFactory.create(data, FILTERED)) {
+            // A cold artist touches no table
+            assertFalse(dao.prefix(key("ar" + TABLES + ":")).hasNext());
+            assertFalse(dao.prefix(key("ar" + TABLES + ":t1")).hasNext());
+            assertEquals(0L, ((LsmDAO) dao).blockCacheMisses());
+
+            assertEquals(TRACKS, Iterators.size(dao.prefix(key("ar3:"))));
+            // Either t1 or t10 to t19
+            assertEquals(11, Iterators.size(dao.prefix(key("ar3:t1"))));
+        }
+    }
+
+    @Test
+    void readsEveryTableWithoutExtractor(@TempDir File data) throws IOException {
+        final Config unfiltered = Config.builder().level0Trigger(TABLES * 2).build();
+        fill(data, unfiltered);
+        try (DAO dao = DAOFactory.create(data, unfiltered)) {
+            assertFalse(dao.prefix(key("ar" + TABLES + ":")).hasNext());
+            final long misses = ((LsmDAO) dao).blockCacheMisses();
+            assertTrue(misses >= TABLES, String.valueOf(misses));
+        }
+        // Tables written without the extractor are not filtered by it
+        try (DAO dao = DAOFactory.create(data, FILTERED)) {
+            assertFalse(dao.prefix(key("ar" + TABLES + ":")).hasNext());
+            final long misses = ((LsmDAO) dao).blockCacheMisses();
+            assertTrue(misses >= TABLES, String.valueOf(misses));
+            assertEquals(TRACKS, Iterators.size(dao.prefix(key("ar3:"))));
+        }
+    }
+
+    @Test
+    void ignoresFiltersOfOtherExtractors(@TempDir File data) throws IOException {
+        final Config other = Config.builder()
+                .level0Trigger(TABLES * 2)
+                .prefixExtractor(PrefixExtractor.fixedLength(2))
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, other)) {
+            fill(dao, model);
+        }
+        try (DAO dao = DAOFactory.create(data, FILTERED)) {
+            verify(dao, model);
+        }
+    }
+
+    @Test
+    void snapshot(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, FILTERED)) {
+            fill(dao, model);
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.removeRange(key("ar"), key("as"));
+                assertFalse(dao.prefix(key("ar")).hasNext());
+                assertEquals(entries(model.subMap(key("ar3:"), key("ar3;"))), entries(snapshot.prefix(key("ar3:"))));
+            }
+        }
+    }
+
+    @Test
+    void musicDatabase(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key("Ar1:Al11:T111"), randomValue());
+            dao.upsert(key("Ar1:Al11:T112"), randomValue());
+            dao.upsert(key("Ar1:Al12:T111"), randomValue());
+            dao.upsert(key("Ar1:Al12:T112"), randomValue());
+            dao.upsert(key("Ar1:Al12:T113"), randomValue());
+            dao.upsert(key("Ar2:Al21:T211"), randomValue());
+            dao.upsert(key("Ar2:Al21:T212"), randomValue());
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(5, Iterators.size(dao.prefix(key("Ar1:"))));
+            assertEquals(2, Iterators.size(dao.prefix(key("Ar2:"))));
+            assertEquals(0, Iterators.size(dao.prefix(key("Ar3:"))));
+            assertEquals(3, Iterators.size(dao.prefix(key("Ar1:Al12:"))));
+        }
+    }
+
+    /**
+     * Writes a table per artist, the key ranges of which overlap.
+     */
+    private static void fill(
+            final File data,
+            final Config config) throws IOException {
+        for (int artist = 0; artist < TABLES; artist++) {
+            try (DAO dao = DAOFactory.create(data, config)) {
+                for (int i = 0; i < TRACKS; i++) {
+                    dao.upsert(track(artist, i), randomBuffer(100));
+                }
+                dao.upsert(key("a:" + artist), randomBuffer(100));
+                dao.upsert(key("z:" + artist), randomBuffer(100));
+            }
+        }
+    }
+
+    private static void fill(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> model) throws IOException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < TABLES * TRACKS; i++) {
+            final ByteBuffer key = track(random.nextInt(TABLES), random.nextInt(TRACKS));
+            final ByteBuffer value = randomBuffer(100);
+            dao.upsert(key, value);
+            model.put(key, value);
+        }
+    }
+
+    private static void verify(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> model) throws IOException {
+        assertEquals(entries(model), entries(dao.prefix(ByteBuffer.allocate(0))));
+        assertEquals(entries(model), entries(dao.prefix(key("ar"))));
+        for (int artist = 0; artist <= TABLES; artist++) {
+            final String prefix = "ar" + artist + ":";
+            assertEquals(
+                    entries(model.subMap(key(prefix), key("ar" + artist + ";"))),
+                    entries(dao.prefix(key(prefix))));
+            assertEquals(
+                    entries(model.subMap(key(prefix + "t1"), key(prefix + "t2"))),
+                    entries(dao.prefix(key(prefix + "t1"))));
+        }
+    }
+
+    private static ByteBuffer track(
+            final int artist,
+            final int track) {
+        return key("ar" + artist + ":t" + track);
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Map.Entry<ByteBuffer, ByteBuffer>> entries(final Map<ByteBuffer, ByteBuffer> map) {
+        return new ArrayList<>(map.entrySet());
+    }
+
+    private static List<Map.Entry<ByteBuffer, ByteBuffer>> entries(final Iterator<Record> records) {
+        final List<Map.Entry<ByteBuffer, ByteBuffer>> result = new ArrayList<>();
+        while (records.hasNext()) {
+            final Record record = records.next();
+            result.add(Map.entry(record.getKey(), record.getValue()));
+        }
+        return result;
+    }
+}
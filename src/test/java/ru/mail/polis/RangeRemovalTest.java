@@ -0,0 +1,187 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.CompactionStyle;
+import ru.mail.polis.medalexey.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks removal of key ranges in memory, on disk and through compaction.
+ */
+class RangeRemovalTest extends TestBase {
+    private static final int COUNT = 1000;
+    private static final int FROM = 100;
+    private static final int TO = 900;
+    private static final int VALUE_LENGTH = 1024;
+    private static final Config EAGER = Config.builder().level0Trigger(2).build();
+    private static final Config SIZE_TIERED = Config.builder()
+            .compactionStyle(CompactionStyle.SIZE_TIERED)
+            .mergeWidth(2)
+            .build();
+
+    @Test
+    void inMemory(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao);
+            dao.removeRange(key(FROM), key(TO));
+            verify(dao);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            verify(dao);
+        }
+    }
+
+    @Test
+    void overPersisted(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.removeRange(key(FROM), key(TO));
+            verify(dao);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            verify(dao);
+        }
+    }
+
+    @Test
+    void rewrittenAfterRemoval(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.removeRange(key(FROM), key(TO));
+            dao.upsert(key(FROM), value(FROM));
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key(TO - 1), value(TO - 1));
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value(FROM), dao.get(key(FROM)));
+            assertEquals(value(TO - 1), dao.get(key(TO - 1)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(FROM + 1)));
+            assertEquals(COUNT - (TO - FROM) + 2, count(dao.iterator(key(0))));
+        }
+    }
+
+    @Test
+    void emptyRange(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao);
+            dao.removeRange(key(TO), key(FROM));
+            dao.removeRange(key(FROM), key(FROM));
+            assertEquals(COUNT, count(dao.iterator(key(0))));
+        }
+    }
+
+    @Test
+    void compacted(@TempDir File data) throws IOException {
+        compacted(data, EAGER);
+    }
+
+    @Test
+    void compactedSizeTiered(@TempDir File data) throws IOException {
+        compacted(data, SIZE_TIERED);
+    }
+
+    private static void compacted(
+            final File data,
+            final Config config) throws IOException {
+        try (DAO dao = DAOFactory.create(data, config)) {
+            fill(dao);
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            dao.removeRange(key(FROM), key(TO));
+        }
+        // Flush a few more tables to trigger compactions
+        for (int round = 0; round < 3; round++) {
+            try (DAO dao = DAOFactory.create(data, config)) {
+                dao.upsert(key(COUNT + round), value(COUNT + round));
+            }
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int round = 0; round < 3; round++) {
+                assertEquals(value(COUNT + round), dao.get(key(COUNT + round)));
+            }
+            assertEquals(COUNT - (TO - FROM) + 3, count(dao.iterator(key(0))));
+            for (int i = FROM; i < TO; i += 10) {
+                final ByteBuffer key = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+        }
+
+        // The removed values are gone from disk
+        assertTrue(Files.directorySize(data) < (COUNT - (TO - FROM) + 3) * 2L * VALUE_LENGTH);
+    }
+
+    private static void fill(final DAO dao) throws IOException {
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(key(i), value(i));
+        }
+    }
+
+    private static void verify(final DAO dao) throws IOException {
+        for (int i = 0; i < COUNT; i++) {
+            final ByteBuffer key = key(i);
+            if (FROM <= i && i < TO) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            } else {
+                assertEquals(value(i), dao.get(key));
+            }
+        }
+
+        final Iterator<Record> records = dao.iterator(key(FROM - 1));
+        assertEquals(key(FROM - 1), records.next().getKey());
+        assertEquals(key(TO), records.next().getKey());
+        assertEquals(COUNT - (TO - FROM), count(dao.iterator(key(0))));
+        assertFalse(dao.range(key(FROM), key(TO)).hasNext());
+        assertEquals(key(TO), dao.iterator(key(FROM + 1)).next().getKey());
+
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            keys.add(key(i));
+        }
+        final Map<ByteBuffer, ByteBuffer> values = dao.getAll(keys);
+        assertEquals(COUNT - (TO - FROM), values.size());
+        assertEquals(value(TO), values.get(key(TO)));
+        assertFalse(values.containsKey(key(FROM)));
+    }
+
+    private static int count(final Iterator<Record> records) {
+        int result = 0;
+        while (records.hasNext()) {
+            records.next();
+            result++;
+        }
+        return result;
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format(Locale.ROOT, "%08d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int index) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_LENGTH);
+        for (int i = 0; i < result.limit(); i += Integer.BYTES) {
+            result.putInt(i, index * 31 + i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.SyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that writes survive a storage which was never closed.
+ */
+class RecoveryTest extends TestBase {
+    private static final Config DURABLE = Config.builder().syncPolicy(SyncPolicy.always()).build();
+
+    @Test
+    void replayUpserts(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        // Abandon the storage without closing it
+        final DAO crashed = DAOFactory.create(data, DURABLE);
+        crashed.upsert(key, value);
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void replayUnforcedUpserts(@TempDir File data) throws IOException {
+        for (final SyncPolicy policy : List.of(SyncPolicy.periodic(Long.MAX_VALUE), SyncPolicy.never())) {
+            final Config config = Config.builder().syncPolicy(policy).build();
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomValue();
+
+            // Nothing is forced, but the write is handed to the OS
+            final DAO crashed = DAOFactory.create(data, config);
+            crashed.upsert(key, value);
+
+            try (DAO dao = DAOFactory.create(data, config)) {
+                assertEquals(value, dao.get(key), policy.toString());
+            }
+        }
+    }
+
+    @Test
+    void replayRemove(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            dao.upsert(key, value);
+        }
+
+        final DAO crashed = DAOFactory.create(data, DURABLE);
+        crashed.remove(key);
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void replayRangeRemoval(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            dao.upsert(key, value);
+        }
+
+        final ByteBuffer to = join(key, ByteBuffer.allocate(1));
+        final DAO crashed = DAOFactory.create(data, DURABLE);
+        crashed.removeRange(key, to);
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertFalse(dao.iterator(key).hasNext());
+        }
+    }
+
+    @Test
+    void replayBatch(@TempDir File data) throws IOException {
+        final ByteBuffer removed = randomKey();
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        final DAO crashed = DAOFactory.create(data, DURABLE);
+        crashed.upsert(removed, randomValue());
+        crashed.write(new WriteBatch().upsert(key, value).remove(removed));
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+    }
+
+    @Test
+    void tornBatch(@TempDir File data) throws IOException {
+        final ByteBuffer single = randomKey();
+        final ByteBuffer value = randomValue();
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 10; i++) {
+            batch.upsert(randomKey(), randomValue());
+        }
+
+        final DAO crashed = DAOFactory.create(data, DURABLE);
+        crashed.upsert(single, value);
+        crashed.write(batch);
+
+        // Lose the tail of the batch
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (FileChannel channel = FileChannel.open(logs[0].toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            assertEquals(value, dao.get(single));
+            for (int i = 0; i < batch.size(); i++) {
+                final ByteBuffer key = batch.key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void replayOverwrites(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+
+        final DAO crashed = DAOFactory.create(data, DURABLE);
+        ByteBuffer last = null;
+        for (int i = 0; i < 100; i++) {
+            last = randomValue();
+            crashed.upsert(key, last);
+        }
+
+        try (DAO dao = DAOFactory.create(data, DURABLE)) {
+            assertEquals(last, dao.get(key));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that block checksums and the background scrubber detect corrupted tables.
+ */
+class ScrubTest extends TestBase {
+    private static final int KEYS = 1000;
+    private static final long FAST = 64L * 1024 * 1024;
+
+    @Test
+    void detectsCorruptionOnRead(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = fill(data, Config.defaults());
+        corrupt(data);
+        try (DAO dao = DAOFactory.create(data, Config.defaults())) {
+            assertThrows(IllegalStateException.class, () -> {
+                for (final ByteBuffer key : keys) {
+                    dao.get(key);
+                }
+            });
+        }
+    }
+
+    @Test
+    void scrubsIntactTables(@TempDir File data) throws Exception {
+        final Config config = Config.builder().scrubbing(FAST, 2).build();
+        final List<ByteBuffer> keys = fill(data, config);
+        final long bytes = tableBytes(data);
+        try (DAO dao = DAOFactory.create(data, config)) {
+            Stats stats = dao.stats();
+            for (int i = 0; i < 1000 && stats.scrubbedBytes() < bytes; i++) {
+                Thread.sleep(10);
+                stats = dao.stats();
+            }
+            assertTrue(stats.scrubbedBytes() >= bytes, stats.toString());
+            assertEquals(0, stats.corruptTables());
+            for (final ByteBuffer key : keys) {
+                dao.get(key);
+            }
+        }
+    }
+
+    @Test
+    void reportsCorruptTables(@TempDir File data) throws Exception {
+        final Config config = Config.builder().scrubbing(FAST, 2).build();
+        fill(data, config);
+        corrupt(data);
+        try (DAO dao = DAOFactory.create(data, config)) {
+            Stats stats = dao.stats();
+            for (int i = 0; i < 1000 && stats.corruptTables() == 0; i++) {
+                Thread.sleep(10);
+                stats = dao.stats();
+            }
+            assertEquals(1, stats.corruptTables(), stats.toString());
+        }
+    }
+
+    @Test
+    void throttles(@TempDir File data) throws Exception {
+        final long rate = 64 * 1024;
+        final Config config = Config.builder().scrubbing(rate, 4).build();
+        fill(data, config);
+        assertTrue(tableBytes(data) > 4 * rate);
+        try (DAO dao = DAOFactory.create(data, config)) {
+            final long start = System.nanoTime();
+            Thread.sleep(1000);
+            final long scrubbed = dao.stats().scrubbedBytes();
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            // One second worth of burst and a block in flight per thread
+            assertTrue(scrubbed <= rate * (seconds + 2), scrubbed + " bytes in " + seconds + " s");
+        }
+    }
+
+    private static List<ByteBuffer> fill(
+            final File data,
+            final Config config) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                keys.add(key);
+                dao.upsert(key, randomValue());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Flips a byte in the first block of a table.
+     */
+    private static void corrupt(final File data) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                tables(data).get(0),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer current = ByteBuffer.allocate(1);
+            channel.read(current, 100);
+            current.put(0, (byte) ~current.get(0)).rewind();
+            channel.write(current, 100);
+        }
+    }
+
+    private static long tableBytes(final File data) throws IOException {
+        long result = 0L;
+        for (final Path table : tables(data)) {
+            result += Files.size(table);
+        }
+        return result;
+    }
+
+    private static List<Path> tables(final File data) throws IOException {
+        try (Stream<Path> files = Files.list(data.toPath())) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".db"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks reads as of a snapshot and what flushes and compactions keep for them.
+ */
+class SnapshotTest extends TestBase {
+    private static final int COUNT = 100;
+    private static final int VALUE_LENGTH = 1024;
+    // Every write is flushed
+    private static final Config EAGER = Config.builder().flushThreshold(1).level0Trigger(2).build();
+
+    @Test
+    void readsAsOfSnapshot(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao, 0);
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.upsert(key(0), value(0, 1));
+                dao.remove(key(1));
+                dao.removeRange(key(10), key(20));
+                dao.write(new WriteBatch().upsert(key(30), value(30, 1)).remove(key(31)));
+                dao.upsert(key(COUNT), value(COUNT, 1));
+
+                for (int i = 0; i < COUNT; i++) {
+                    assertEquals(value(i, 0), snapshot.get(key(i)));
+                }
+                assertThrows(NoSuchElementException.class, () -> snapshot.get(key(COUNT)));
+                assertEquals(COUNT, count(snapshot.iterator(key(0))));
+                assertEquals(10, count(snapshot.range(key(10), key(20))));
+
+                assertEquals(value(0, 1), dao.get(key(0)));
+                assertThrows(NoSuchElementException.class, () -> dao.get(key(1)));
+                assertThrows(NoSuchElementException.class, () -> dao.get(key(15)));
+                assertEquals(COUNT - 1 - 10 - 1 + 1, count(dao.iterator(key(0))));
+            }
+        }
+    }
+
+    @Test
+    void closedSnapshotRefusesReads(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao, 0);
+            final Snapshot snapshot = dao.snapshot();
+            snapshot.close();
+            assertThrows(IllegalStateException.class, () -> snapshot.get(key(0)));
+            assertThrows(IllegalStateException.class, () -> snapshot.iterator(key(0)));
+        }
+    }
+
+    @Test
+    void iteratorIgnoresLaterWrites(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < COUNT; i += 2) {
+                dao.upsert(key(i), value(i, 0));
+            }
+            final Iterator<Record> records = dao.iterator(key(0));
+            for (int i = 1; i < COUNT; i += 2) {
+                dao.upsert(key(i), value(i, 0));
+            }
+            dao.upsert(key(0), value(0, 1));
+            assertEquals(value(0, 0), records.next().getValue());
+            assertEquals(COUNT / 2 - 1, count(records));
+            assertEquals(COUNT, count(dao.iterator(key(0))));
+        }
+    }
+
+    @Test
+    void survivesCompaction(@TempDir File data) throws IOException, InterruptedException {
+        final ByteBuffer key = key(0);
+        final int overwrites = 10;
+        try (DAO dao = DAOFactory.create(data, EAGER)) {
+            dao.upsert(key, value(0, 0));
+            try (Snapshot snapshot = dao.snapshot()) {
+                for (int i = 1; i <= overwrites; i++) {
+                    dao.upsert(key, value(0, i));
+                }
+                awaitCompaction((LsmDAO) dao);
+
+                assertEquals(value(0, 0), snapshot.get(key));
+                assertEquals(value(0, overwrites), dao.get(key));
+                dao.remove(key);
+                assertEquals(value(0, 0), snapshot.iterator(key).next().getValue());
+                assertFalse(dao.iterator(key).hasNext());
+            }
+
+            // Nothing holds the old versions anymore
+            for (int i = 1; i <= overwrites; i++) {
+                dao.upsert(key, value(0, overwrites + i));
+            }
+            assertEquals(value(0, 2 * overwrites), dao.get(key));
+        }
+
+        // A few tables with a single version each at most
+        assertTrue(Files.directorySize(data) < 10 * (KEY_LENGTH + VALUE_LENGTH));
+    }
+
+    private static void awaitCompaction(final LsmDAO dao) throws InterruptedException {
+        for (int attempt = 0; attempt < 1000 && !(dao.writeAmplification() > 1.0); attempt++) {
+            Thread.sleep(10);
+        }
+        assertTrue(dao.writeAmplification() > 1.0);
+    }
+
+    private static void fill(
+            final DAO dao,
+            final int version) throws IOException {
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(key(i), value(i, version));
+        }
+    }
+
+    private static int count(final Iterator<Record> records) {
+        int result = 0;
+        while (records.hasNext()) {
+            records.next();
+            result++;
+        }
+        return result;
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format(Locale.ROOT, "%08d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(
+            final int index,
+            final int version) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_LENGTH);
+        for (int i = 0; i < result.limit(); i += Integer.BYTES) {
+            result.putInt(i, index * 31 + version * 17 + i);
+        }
+        return result;
+    }
+}
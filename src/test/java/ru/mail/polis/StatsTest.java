@@ -0,0 +1,97 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the statistics of the storage and their JMX export.
+ */
+class StatsTest extends TestBase {
+    private static final int COUNT = 100;
+
+    @Test
+    void countsOperations(@TempDir File data) throws Exception {
+        try (DAO dao = DAOFactory.create(data)) {
+            final ByteBuffer key = randomKey();
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+            dao.upsert(key, randomValue());
+            dao.get(key);
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+
+            final Stats stats = dao.stats();
+            assertEquals(COUNT + 1, stats.operations().get("upsert").count());
+            assertEquals(2, stats.operations().get("get").count());
+            assertEquals(1, stats.operations().get("remove").count());
+            assertFalse(stats.operations().containsKey("removeRange"));
+            final Stats.Latency upserts = stats.operations().get("upsert");
+            assertTrue(upserts.p50() <= upserts.p99());
+            assertTrue(upserts.p99() <= upserts.p999());
+            assertTrue(upserts.p999() <= upserts.max());
+            assertTrue(stats.memTableBytes() > COUNT * KEY_LENGTH);
+            assertTrue(stats.levels().isEmpty());
+            assertEquals(0, stats.flushedBytes());
+            assertEquals(0.0, stats.readAmplification());
+        }
+    }
+
+    @Test
+    void describesTables(@TempDir File data) throws Exception {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = DAOFactory.create(data, Config.builder().flushThreshold(1).level0Trigger(100).build())) {
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(value, dao.get(key));
+            }
+            // Flushed in the background
+            dao.upsert(randomKey(), randomValue());
+            for (int attempt = 0; attempt < 1000 && dao.stats().flushedBytes() == 0; attempt++) {
+                Thread.sleep(10);
+            }
+
+            final Stats stats = dao.stats();
+            assertEquals(1.0, stats.readAmplification());
+            assertTrue(stats.flushedBytes() > 0);
+            assertEquals(0, stats.levels().get(0).level());
+            assertTrue(stats.levels().get(0).tables() >= 1);
+            assertTrue(stats.levels().get(0).bytes() > KEY_LENGTH);
+            assertFalse(stats.toString().isEmpty());
+        }
+    }
+
+    @Test
+    void exportsToJmx(@TempDir File data) throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(
+                "ru.mail.polis:type=LsmDAO,dir=" + ObjectName.quote(data.getAbsolutePath()));
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(randomKey(), randomValue());
+            assertTrue(server.isRegistered(name));
+            assertTrue((Long) server.getAttribute(name, "MemTableBytes") > 0);
+            assertTrue(Double.isNaN((Double) server.getAttribute(name, "WriteAmplification")));
+            final TabularData counts = (TabularData) server.getAttribute(name, "OperationCounts");
+            assertEquals(1L, counts.get(new Object[] {"upsert"}).get("value"));
+            assertEquals(8, ((int[]) server.getAttribute(name, "LevelTables")).length);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,167 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+import ru.mail.polis.medalexey.LsmDAO;
+import ru.mail.polis.medalexey.Trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks what traced reads record.
+ */
+class TracingTest extends TestBase {
+    private static final Config ALL = Config.builder().tracing(1.0, Long.MAX_VALUE).build();
+
+    @Test
+    void disabledByDefault(@TempDir File data) throws IOException {
+        try (LsmDAO dao = new LsmDAO(data)) {
+            final ByteBuffer key = randomKey();
+            dao.upsert(key, randomValue());
+            dao.get(key);
+            assertTrue(dao.traces().isEmpty());
+        }
+    }
+
+    @Test
+    void recordsTableAndBlockSteps(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+        try (LsmDAO dao = new LsmDAO(data, ALL)) {
+            assertEquals(value, dao.get(key));
+            assertEquals(value, dao.get(key));
+            final Iterator<Record> records = dao.iterator(key);
+            assertTrue(records.hasNext());
+            records.next();
+            assertFalse(records.hasNext());
+
+            final List<Trace> traces = dao.traces();
+            assertEquals(3, traces.size());
+            assertEquals("get", traces.get(0).operation());
+            assertEquals(key, traces.get(0).key());
+            assertEquals(
+                    List.of(Trace.Kind.MEMTABLE, Trace.Kind.TABLE, Trace.Kind.CACHE_MISS, Trace.Kind.RESOLVED),
+                    kinds(traces.get(0)));
+            assertEquals(
+                    List.of(Trace.Kind.MEMTABLE, Trace.Kind.TABLE, Trace.Kind.CACHE_HIT, Trace.Kind.RESOLVED),
+                    kinds(traces.get(1)));
+            assertEquals(0, traces.get(0).events().get(1).detail());
+            assertEquals("iterator", traces.get(2).operation());
+            assertTrue(kinds(traces.get(2)).contains(Trace.Kind.CACHE_HIT));
+            assertFalse(traces.get(0).toString().isEmpty());
+        }
+    }
+
+    @Test
+    void keepsSlowReads(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        try (LsmDAO dao = new LsmDAO(data, Config.builder().tracing(0.0, 0).build())) {
+            dao.upsert(key, randomValue());
+            dao.get(key);
+            assertEquals(1, dao.traces().size());
+        }
+        try (LsmDAO dao = new LsmDAO(data, Config.builder().tracing(0.0, 60_000_000).build())) {
+            dao.get(key);
+            assertTrue(dao.traces().isEmpty());
+        }
+    }
+
+    @Test
+    void keepsLatestTraces(@TempDir File data) throws IOException {
+        try (LsmDAO dao = new LsmDAO(data, ALL)) {
+            final int count = 1000;
+            ByteBuffer last = null;
+            for (int i = 0; i < count; i++) {
+                last = randomKey();
+                assertFalse(dao.iterator(last).hasNext());
+            }
+            final List<Trace> traces = dao.traces();
+            assertTrue(traces.size() < count);
+            assertEquals(last, traces.get(traces.size() - 1).key());
+        }
+    }
+
+    @Test
+    void tracesIterationUntilExhausted(@TempDir File data) throws IOException {
+        final int count = 1000;
+        final Config config = Config.builder().blockSize(1024).tracing(1.0, Long.MAX_VALUE).build();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < count; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            records.next();
+            assertTrue(dao.traces().isEmpty());
+
+            int read = 1;
+            while (records.hasNext()) {
+                records.next();
+                read++;
+            }
+            assertEquals(count, read);
+            final List<Trace> traces = dao.traces();
+            assertEquals(1, traces.size());
+            assertEquals("iterator", traces.get(0).operation());
+            // Every block is read while iterating, not when the iterator is opened
+            assertTrue(kinds(traces.get(0)).stream().filter(Trace.Kind.CACHE_MISS::equals).count() > 1);
+
+            final Iterator<Record> descending = dao.descendingIterator(null);
+            while (descending.hasNext()) {
+                descending.next();
+            }
+            assertEquals("descendingIterator", dao.traces().get(1).operation());
+        }
+    }
+
+    @Test
+    void leavesTimeBetweenCallsOut(@TempDir File data) throws Exception {
+        try (LsmDAO dao = new LsmDAO(data, Config.builder().tracing(0.0, 500_000_000).build())) {
+            for (int i = 0; i < 3; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            while (records.hasNext()) {
+                records.next();
+                Thread.sleep(300);
+            }
+            assertTrue(dao.traces().isEmpty());
+        }
+    }
+
+    @Test
+    void tracesGetAll(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, randomValue());
+        }
+        try (LsmDAO dao = new LsmDAO(data, ALL)) {
+            assertEquals(1, dao.getAll(List.of(key, randomKey())).size());
+            final List<Trace> traces = dao.traces();
+            assertEquals(1, traces.size());
+            assertEquals("getAll", traces.get(0).operation());
+            assertEquals(key, traces.get(0).key());
+            assertEquals(
+                    List.of(Trace.Kind.MEMTABLE, Trace.Kind.TABLE, Trace.Kind.CACHE_MISS),
+                    kinds(traces.get(0)));
+        }
+    }
+
+    private static List<Trace.Kind> kinds(final Trace trace) {
+        return trace.events().stream().map(Trace.Event::kind).collect(Collectors.toList());
+    }
+}
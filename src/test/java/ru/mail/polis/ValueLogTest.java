@@ -0,0 +1,206 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.medalexey.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks values separated to value logs and the collection of the logs.
+ */
+class ValueLogTest extends TestBase {
+    private static final int KEYS = 200;
+    private static final int VALUE_SIZE = 4 * 1024;
+    private static final Config SEPARATED = config().valueSeparation(1024, 0.5).build();
+
+    @Test
+    void separatesLargeValues(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final List<ByteBuffer> values = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            for (int i = 0; i < KEYS; i++) {
+                keys.add(randomKey());
+                // Every other value is small enough to stay in the table
+                values.add(randomBuffer(i % 2 == 0 ? VALUE_SIZE : KEY_LENGTH));
+                dao.upsert(keys.get(i), values.get(i));
+            }
+        }
+        assertTrue(bytes(data, ".vlog") >= KEYS / 2 * VALUE_SIZE);
+        assertTrue(bytes(data, ".db") < KEYS / 2 * VALUE_SIZE);
+
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(values.get(i), dao.get(keys.get(i)));
+            }
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            int count = 0;
+            while (records.hasNext()) {
+                final Record record = records.next();
+                assertEquals(values.get(keys.indexOf(record.getKey())), record.getValue());
+                count++;
+            }
+            assertEquals(KEYS, count);
+        }
+    }
+
+    @Test
+    void disabledByDefault(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, config().build())) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(randomKey(), randomBuffer(VALUE_SIZE));
+            }
+        }
+        assertEquals(0L, bytes(data, ".vlog"));
+    }
+
+    @Test
+    void collectsGarbage(@TempDir File data) throws Exception {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(randomKey());
+        }
+        final List<ByteBuffer> values = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            for (int pass = 0; pass < 4; pass++) {
+                values.clear();
+                for (final ByteBuffer key : keys) {
+                    final ByteBuffer value = randomBuffer(VALUE_SIZE);
+                    values.add(value);
+                    dao.upsert(key, value);
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            final long live = (long) KEYS * VALUE_SIZE;
+            Stats stats = dao.stats();
+            for (int i = 0; i < 1000 && !(stats.valueLogLiveBytes() == live && stats.valueLogBytes() < 2 * live); i++) {
+                Thread.sleep(10);
+                stats = dao.stats();
+            }
+            assertEquals(live, stats.valueLogLiveBytes());
+            assertTrue(stats.valueLogBytes() < 2 * live, stats.toString());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(values.get(i), dao.get(keys.get(i)));
+            }
+        }
+        // Collected logs are deleted
+        assertTrue(bytes(data, ".vlog") < 2L * KEYS * VALUE_SIZE);
+    }
+
+    @Test
+    void reducesWriteAmplification(@TempDir Path data) throws IOException {
+        final double inline = overwrite(data.resolve("inline").toFile(), config().build());
+        final double separated = overwrite(data.resolve("separated").toFile(), SEPARATED);
+        assertTrue(separated * 2 < inline, separated + " vs " + inline);
+    }
+
+    @Test
+    void deletesUnreferencedLogs(@TempDir File data) throws IOException {
+        final Path orphan = data.toPath().resolve("123.vlog");
+        final Path temp = data.toPath().resolve("124.vlog.tmp");
+        Files.write(orphan, new byte[VALUE_SIZE]);
+        Files.write(temp, new byte[VALUE_SIZE]);
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            dao.upsert(randomKey(), randomBuffer(VALUE_SIZE));
+        }
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(temp));
+        assertTrue(bytes(data, ".vlog") >= VALUE_SIZE);
+    }
+
+    @Test
+    void keepsDeletedLogsForOpenIterators(@TempDir File data) throws Exception {
+        // Sorts first and stays in the table, so that the iterator reads no log before compaction
+        final ByteBuffer first = ByteBuffer.allocate(0);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final List<ByteBuffer> values = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            dao.upsert(first, randomBuffer(KEY_LENGTH));
+            for (int i = 0; i < KEYS; i++) {
+                keys.add(randomKey());
+                values.add(randomBuffer(VALUE_SIZE));
+                dao.upsert(keys.get(i), values.get(i));
+            }
+        }
+        final List<Path> logs = files(data, ".vlog");
+        assertFalse(logs.isEmpty());
+
+        try (DAO dao = DAOFactory.create(data, SEPARATED)) {
+            final Iterator<Record> records = dao.iterator(first);
+            assertEquals(first, records.next().getKey());
+            // Overwriting every value leaves the logs to nobody
+            for (final ByteBuffer key : keys) {
+                dao.upsert(key, randomBuffer(VALUE_SIZE));
+            }
+            for (int i = 0; i < 1000 && logs.stream().anyMatch(Files::exists); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(logs.stream().noneMatch(Files::exists));
+
+            int count = 0;
+            while (records.hasNext()) {
+                final Record record = records.next();
+                assertEquals(values.get(keys.indexOf(record.getKey())), record.getValue());
+                count++;
+            }
+            assertEquals(KEYS, count);
+        }
+    }
+
+    /**
+     * Writes every key several times and returns the write amplification.
+     */
+    private static double overwrite(
+            final File data,
+            final Config config) throws IOException {
+        Files.createDirectories(data.toPath());
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(randomKey());
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int pass = 0; pass < 8; pass++) {
+                for (final ByteBuffer key : keys) {
+                    dao.upsert(key, randomBuffer(VALUE_SIZE));
+                }
+            }
+            return dao.stats().writeAmplification();
+        }
+    }
+
+    private static Config.Builder config() {
+        return Config.builder().flushThreshold(256 * 1024).level0Trigger(1);
+    }
+
+    private static long bytes(
+            final File data,
+            final String suffix) throws IOException {
+        return files(data, suffix).stream()
+                .mapToLong(file -> file.toFile().length())
+                .sum();
+    }
+
+    private static List<Path> files(
+            final File data,
+            final String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(data.toPath())) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks batched writes.
+ */
+class WriteBatchTest extends TestBase {
+    private static final int COUNT = 1000;
+
+    @Test
+    void upsertsAndRemoves(@TempDir File data) throws IOException {
+        final ByteBuffer[] keys = new ByteBuffer[COUNT];
+        final ByteBuffer[] values = new ByteBuffer[COUNT];
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < COUNT; i++) {
+            keys[i] = randomKey();
+            values[i] = randomValue();
+            batch.upsert(keys[i], values[i]);
+        }
+        for (int i = 0; i < COUNT; i += 2) {
+            batch.remove(keys[i]);
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.write(batch);
+            verify(dao, keys, values);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            verify(dao, keys, values);
+        }
+    }
+
+    @Test
+    void lastWriteWins(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.write(new WriteBatch().upsert(key, randomValue()).remove(key).upsert(key, value));
+            assertEquals(value, dao.get(key));
+            dao.write(new WriteBatch().upsert(key, randomValue()).remove(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void reuse(@TempDir File data) throws IOException {
+        final ByteBuffer first = randomKey();
+        final ByteBuffer second = randomKey();
+        final ByteBuffer value = randomValue();
+        final WriteBatch batch = new WriteBatch();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.write(batch);
+            dao.write(batch.upsert(first, value));
+            batch.clear();
+            assertEquals(0, batch.size());
+            dao.write(batch.upsert(second, value));
+            assertEquals(value, dao.get(first));
+            assertEquals(value, dao.get(second));
+        }
+    }
+
+    private static void verify(
+            final DAO dao,
+            final ByteBuffer[] keys,
+            final ByteBuffer[] values) throws IOException {
+        for (int i = 0; i < keys.length; i++) {
+            final ByteBuffer key = keys[i];
+            if (i % 2 == 0) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            } else {
+                assertEquals(values[i], dao.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package ru.mail.polis.medalexey;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a failed write of the log fails every writer whose record it has lost.
+ */
+class WriteAheadLogTest {
+    @Test
+    void failedWriteFailsEveryLostRecord(@TempDir Path data) throws IOException {
+        final Path file = data.resolve("1" + WriteAheadLog.SUFFIX);
+        final FailingChannel channel = new FailingChannel(
+                FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        try (WriteAheadLog log = new WriteAheadLog(channel, SyncPolicy.never())) {
+            log.commit(log.append(key("a"), key("1")));
+
+            // Both records are in the batch the failing write takes
+            final long lost = log.append(key("b"), key("2"));
+            final long leader = log.append(key("c"), key("3"));
+            channel.failing = true;
+            assertThrows(IOException.class, () -> log.commit(leader));
+            assertThrows(IOException.class, () -> log.commit(lost));
+
+            // Nothing may follow the lost records in the file
+            channel.failing = false;
+            assertThrows(IOException.class, () -> log.append(key("d"), key("4")));
+            assertThrows(IOException.class, log::sync);
+        }
+
+        assertEquals(1L, WriteAheadLog.replay(file, new MemTable(1L, 1024 * 1024), 0L));
+    }
+
+    @Test
+    void failedForceFailsSync(@TempDir Path data) throws IOException {
+        final Path file = data.resolve("1" + WriteAheadLog.SUFFIX);
+        final FailingChannel channel = new FailingChannel(
+                FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        try (WriteAheadLog log = new WriteAheadLog(channel, SyncPolicy.always())) {
+            final long position = log.append(key("a"), key("1"));
+            channel.forceFailing = true;
+            assertThrows(IOException.class, () -> log.commit(position));
+            assertThrows(IOException.class, () -> log.commit(position));
+        }
+    }
+
+    private static ByteBuffer key(final String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Delegates to a file channel failing the writes or the forces on demand.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        private volatile boolean failing;
+        private volatile boolean forceFailing;
+
+        FailingChannel(final FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(
+                final ByteBuffer[] dsts,
+                final int offset,
+                final int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            if (failing) {
+                // A torn record may reach the file before the failure
+                final ByteBuffer head = src.duplicate();
+                head.limit(head.position() + Math.min(head.remaining(), 3));
+                src.position(src.position() + delegate.write(head));
+                throw new IOException("No space left on device");
+            }
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(
+                final ByteBuffer[] srcs,
+                final int offset,
+                final int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(final long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(final long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(final boolean metaData) throws IOException {
+            if (forceFailing) {
+                throw new IOException("Input/output error");
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(
+                final long position,
+                final long count,
+                final WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(
+                final ReadableByteChannel src,
+                final long position,
+                final long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(
+                final ByteBuffer dst,
+                final long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(
+                final ByteBuffer src,
+                final long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(
+                final MapMode mode,
+                final long position,
+                final long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(
+                final long position,
+                final long size,
+                final boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(
+                final long position,
+                final long size,
+                final boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}